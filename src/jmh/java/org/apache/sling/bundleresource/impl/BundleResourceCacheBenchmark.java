@@ -0,0 +1,136 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.bundleresource.impl;
+
+import java.io.IOException;
+import java.net.URL;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.sling.api.resource.Resource;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks of many threads contending on a single
+ * {@link BundleResourceCache}, as all requests rendering the same
+ * components of one bundle do.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Threads(8)
+@Fork(1)
+public class BundleResourceCacheBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class Fixture {
+
+        /**
+         * The approximate number of entries of the bundle
+         */
+        @Param({"10000"})
+        public int entries;
+
+        /**
+         * The number of distinct entries looked up, which is larger than the
+         * default entry cache size
+         */
+        @Param({"40", "400"})
+        public int workingSet;
+
+        SyntheticBundle bundle;
+
+        BundleResourceCache cache;
+
+        BundleResourceProvider provider;
+
+        BundleResourceProviderBenchmark.BenchmarkResolveContext ctx =
+                new BundleResourceProviderBenchmark.BenchmarkResolveContext();
+
+        String[] entryPaths;
+
+        String[] folderPaths;
+
+        String[] resourcePaths;
+
+        @Setup(Level.Trial)
+        public void setup() throws IOException {
+            bundle = SyntheticBundle.create(1, entries, null);
+            final PathMapping[] roots = PathMapping.getRoots(bundle.getHeaders().get("Sling-Bundle-Resources"));
+            cache = new BundleResourceCache(bundle, BundleResourceConfiguration.DEFAULT, roots);
+            provider = new BundleResourceProvider(cache, roots[0]);
+
+            final int components = Math.min(workingSet, bundle.getComponents());
+            entryPaths = new String[workingSet];
+            folderPaths = new String[components];
+            resourcePaths = new String[components];
+            for (int i = 0; i < workingSet; i++) {
+                entryPaths[i] = SyntheticBundle.WIDE + "/item-" + i + ".txt";
+            }
+            for (int i = 0; i < components; i++) {
+                folderPaths[i] = SyntheticBundle.ROOT + "/comp-" + i + "/files/";
+                resourcePaths[i] = SyntheticBundle.ROOT + "/comp-" + i;
+            }
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws IOException {
+            cache.dispose();
+            bundle.close();
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Cursor {
+
+        private int next = (int) Thread.currentThread().getId();
+
+        int next(final int length) {
+            return (next++ & Integer.MAX_VALUE) % length;
+        }
+    }
+
+    @Benchmark
+    public URL getEntry(final Fixture f, final Cursor c) {
+        return f.cache.getEntry(f.entryPaths[c.next(f.entryPaths.length)]);
+    }
+
+    @Benchmark
+    public ChildEntries getChildEntries(final Fixture f, final Cursor c) {
+        return f.cache.getChildEntries(f.folderPaths[c.next(f.folderPaths.length)]);
+    }
+
+    @Benchmark
+    public Resource getResource(final Fixture f, final Cursor c) {
+        return f.provider.getResource(f.ctx, f.resourcePaths[c.next(f.resourcePaths.length)], null, null);
+    }
+}
@@ -0,0 +1,209 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.bundleresource.impl;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.api.resource.ValueMap;
+import org.apache.sling.spi.resource.provider.ResolveContext;
+import org.apache.sling.spi.resource.provider.ResourceProvider;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Single threaded benchmarks of the resource provider hot paths against a
+ * {@link SyntheticBundle}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BundleResourceProviderBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class Fixture {
+
+        /**
+         * The approximate number of entries of the bundle
+         */
+        @Param({"1000", "10000"})
+        public int entries;
+
+        /**
+         * The Sling-Bundle-Resources-Cache header of the bundle, "none" for
+         * the defaults
+         */
+        @Param({"none", "entries=auto, lists=auto, content=auto, index=true"})
+        public String cache;
+
+        SyntheticBundle bundle;
+
+        BundleResourceCache bundleCache;
+
+        PathMapping mapping;
+
+        BundleResourceProvider provider;
+
+        ResolveContext<Object> ctx = new BenchmarkResolveContext();
+
+        StringPool stringPool = new StringPool();
+
+        Resource wideFolder;
+
+        String[] hits;
+
+        String[] misses;
+
+        String[] deep;
+
+        String[] components;
+
+        @Setup(Level.Trial)
+        public void setup() throws IOException {
+            bundle = SyntheticBundle.create(1, entries, "none".equals(cache) ? null : cache);
+            final PathMapping[] roots = PathMapping.getRoots(bundle.getHeaders().get("Sling-Bundle-Resources"));
+            final BundleResourceConfiguration config = BundleResourceConfiguration.DEFAULT.forBundle(bundle);
+            mapping = roots[0];
+            bundleCache = new BundleResourceCache(bundle, config, roots);
+            provider = new BundleResourceProvider(bundleCache, mapping, config.getMissCacheSize());
+            wideFolder = provider.getResource(ctx, SyntheticBundle.WIDE, null, null);
+
+            final int count = bundle.getComponents();
+            hits = new String[count * 2];
+            misses = new String[count * 2];
+            deep = new String[count];
+            components = new String[count];
+            for (int i = 0; i < count; i++) {
+                final String comp = SyntheticBundle.ROOT + "/comp-" + i;
+                components[i] = comp;
+                hits[2 * i] = comp + "/files/file-" + (i % SyntheticBundle.FILES_PER_COMPONENT) + ".txt";
+                hits[2 * i + 1] = SyntheticBundle.WIDE + "/item-" + i + ".txt";
+                // misses like the resource resolver's search path produces them
+                misses[2 * i] = comp + "/comp-" + i + ".jsp";
+                misses[2 * i + 1] = comp + "/files/missing-" + i;
+                final StringBuilder path = new StringBuilder(comp);
+                for (int level = 0; level < SyntheticBundle.DEPTH; level++) {
+                    path.append("/level").append(level);
+                }
+                deep[i] = path.toString();
+            }
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws IOException {
+            bundleCache.dispose();
+            provider.dispose();
+            bundle.close();
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Cursor {
+
+        private int next;
+
+        int next(final int length) {
+            final int i = next++;
+            if (next >= length) {
+                next = 0;
+            }
+            return i % length;
+        }
+    }
+
+    @Benchmark
+    public Resource getResourceHit(final Fixture f, final Cursor c) {
+        return f.provider.getResource(f.ctx, f.hits[c.next(f.hits.length)], null, null);
+    }
+
+    @Benchmark
+    public Resource getResourceMiss(final Fixture f, final Cursor c) {
+        return f.provider.getResource(f.ctx, f.misses[c.next(f.misses.length)], null, null);
+    }
+
+    @Benchmark
+    public Resource getDeepJsonSubResource(final Fixture f, final Cursor c) {
+        return f.provider.getResource(f.ctx, f.deep[c.next(f.deep.length)], null, null);
+    }
+
+    @Benchmark
+    public ValueMap getComponentProperties(final Fixture f, final Cursor c) {
+        final Resource rsrc = f.provider.getResource(f.ctx, f.components[c.next(f.components.length)], null, null);
+        return rsrc.getValueMap();
+    }
+
+    @Benchmark
+    public void listChildrenWideFolder(final Fixture f, final Blackhole bh) {
+        final Iterator<Resource> children = f.provider.listChildren(f.ctx, f.wideFolder);
+        while (children.hasNext()) {
+            final Resource child = children.next();
+            bh.consume(child.getPath());
+        }
+    }
+
+    @Benchmark
+    public ContentNode parseProperties(final Fixture f, final Cursor c) throws IOException {
+        final String entryPath = f.mapping.getEntryPath(f.components[c.next(f.components.length)] + ".json");
+        return ContentNode.parse(f.bundle.getEntry(entryPath).openStream(), f.stringPool);
+    }
+
+    /**
+     * A resolve context without resource resolver, which the provider only
+     * passes on to the resources.
+     */
+    static final class BenchmarkResolveContext implements ResolveContext<Object> {
+
+        @Override
+        public ResourceResolver getResourceResolver() {
+            return null;
+        }
+
+        @Override
+        public Object getProviderState() {
+            return null;
+        }
+
+        @Override
+        public ResolveContext<?> getParentResolveContext() {
+            return null;
+        }
+
+        @Override
+        public ResourceProvider<?> getParentResourceProvider() {
+            return null;
+        }
+    }
+}
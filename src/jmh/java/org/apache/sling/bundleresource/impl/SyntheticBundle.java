@@ -0,0 +1,378 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.bundleresource.impl;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.net.URLConnection;
+import java.net.URLStreamHandler;
+import java.nio.charset.StandardCharsets;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Dictionary;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Hashtable;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.jar.JarOutputStream;
+
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.ServiceReference;
+import org.osgi.framework.Version;
+
+/**
+ * A bundle serving its entries from a generated jar file, behaving like the
+ * framework for entry lookups: entry paths are returned without leading slash
+ * and entry URLs have the entry path as their path.
+ * <p>
+ * The generated content below {@link #ROOT} consists of
+ * <ul>
+ * <li>a folder <code>wide</code> with half of the entries as text files and</li>
+ * <li>component folders <code>comp-N</code> with a <code>comp-N.json</code>
+ * properties file defining a chain of {@link #DEPTH} nested sub-resources,
+ * a script and a folder with a few more files.</li>
+ * </ul>
+ */
+class SyntheticBundle implements Bundle {
+
+    static final String ROOT = "/libs/bench";
+
+    static final String WIDE = ROOT + "/wide";
+
+    static final int DEPTH = 5;
+
+    static final int FILES_PER_COMPONENT = 5;
+
+    private static final String PROTOCOL = "bench";
+
+    private final long bundleId;
+
+    private final long lastModified = System.currentTimeMillis();
+
+    private final Dictionary<String, String> headers = new Hashtable<>();
+
+    private final JarFile jar;
+
+    private final Map<String, URL> entries = new LinkedHashMap<>();
+
+    private final Map<String, List<String>> children = new HashMap<>();
+
+    private final int components;
+
+    private SyntheticBundle(final long bundleId, final File file, final int components,
+                            final String cacheHeader) throws IOException {
+        this.bundleId = bundleId;
+        this.jar = new JarFile(file);
+        this.components = components;
+        this.headers.put("Bundle-SymbolicName", "bench." + bundleId);
+        this.headers.put("Sling-Bundle-Resources", ROOT + ";propsJSON:=json");
+        if (cacheHeader != null) {
+            this.headers.put(BundleResourceConfiguration.BUNDLE_RESOURCE_CACHE, cacheHeader);
+        }
+
+        final URLStreamHandler handler = new EntryHandler();
+        final Enumeration<JarEntry> jarEntries = jar.entries();
+        while (jarEntries.hasMoreElements()) {
+            final String name = jarEntries.nextElement().getName();
+            entries.put("/" + name, new URL(PROTOCOL, null, -1, "/" + name, handler));
+
+            final int slash = name.lastIndexOf('/', name.length() - 2);
+            final String parent = slash < 0 ? "" : name.substring(0, slash + 1);
+            List<String> list = children.get(parent);
+            if (list == null) {
+                list = new ArrayList<>();
+                children.put(parent, list);
+            }
+            list.add(name);
+        }
+    }
+
+    /**
+     * Generates a jar of about the given number of entries and returns the
+     * bundle serving it, with the given cache settings header if not
+     * <code>null</code>.
+     */
+    static SyntheticBundle create(final long bundleId, final int size, final String cacheHeader)
+            throws IOException {
+        final File file = File.createTempFile("bench-bundle-", ".jar");
+        file.deleteOnExit();
+
+        final int components = Math.max(1, size / 2 / (FILES_PER_COMPONENT + 4));
+        try (JarOutputStream out = new JarOutputStream(new FileOutputStream(file))) {
+            addFolder(out, "libs/");
+            addFolder(out, "libs/bench/");
+            addFolder(out, "libs/bench/wide/");
+            for (int i = 0; i < size / 2; i++) {
+                addFile(out, "libs/bench/wide/item-" + i + ".txt", "Item " + i);
+            }
+            for (int i = 0; i < components; i++) {
+                final String comp = "libs/bench/comp-" + i;
+                addFolder(out, comp + "/");
+                addFile(out, comp + ".json", componentJson(i));
+                addFile(out, comp + "/comp-" + i + ".html", "<div>${properties.title}</div>");
+                addFolder(out, comp + "/files/");
+                for (int j = 0; j < FILES_PER_COMPONENT; j++) {
+                    addFile(out, comp + "/files/file-" + j + ".txt", "File " + j);
+                }
+            }
+        }
+        return new SyntheticBundle(bundleId, file, components, cacheHeader);
+    }
+
+    /**
+     * Returns the number of generated components.
+     */
+    int getComponents() {
+        return components;
+    }
+
+    void close() throws IOException {
+        jar.close();
+    }
+
+    private static String componentJson(final int i) {
+        final StringBuilder json = new StringBuilder();
+        json.append("{\"sling:resourceType\":\"bench/comp\",\"title\":\"Component ").append(i)
+                .append("\",\"count\":").append(i).append(",\"tags\":[\"a\",\"b\",\"c\"]");
+        for (int level = 0; level < DEPTH; level++) {
+            json.append(",\"level").append(level).append("\":{\"depth\":").append(level);
+        }
+        for (int level = 0; level < DEPTH; level++) {
+            json.append('}');
+        }
+        return json.append('}').toString();
+    }
+
+    private static void addFolder(final JarOutputStream out, final String name) throws IOException {
+        out.putNextEntry(new JarEntry(name));
+        out.closeEntry();
+    }
+
+    private static void addFile(final JarOutputStream out, final String name, final String content)
+            throws IOException {
+        out.putNextEntry(new JarEntry(name));
+        out.write(content.getBytes(StandardCharsets.UTF_8));
+        out.closeEntry();
+    }
+
+    // ---------- Bundle entry access
+
+    @Override
+    public URL getEntry(final String path) {
+        return entries.get(path.startsWith("/") ? path : "/" + path);
+    }
+
+    @Override
+    public Enumeration<String> getEntryPaths(final String path) {
+        String parent = path.startsWith("/") ? path.substring(1) : path;
+        if (!parent.isEmpty() && !parent.endsWith("/")) {
+            parent = parent + "/";
+        }
+        final List<String> list = children.get(parent);
+        return list == null ? null : Collections.enumeration(list);
+    }
+
+    @Override
+    public Enumeration<URL> findEntries(final String path, final String filePattern, final boolean recurse) {
+        final String prefix = path.endsWith("/") ? path : path + "/";
+        final String suffix = filePattern == null || "*".equals(filePattern) ? "" : filePattern.substring(1);
+        final List<URL> found = new ArrayList<>();
+        for (final Map.Entry<String, URL> entry : entries.entrySet()) {
+            final String name = entry.getKey();
+            if (name.length() > prefix.length() && name.startsWith(prefix) && name.endsWith(suffix)) {
+                final int slash = name.indexOf('/', prefix.length());
+                if (recurse || slash < 0 || slash == name.length() - 1) {
+                    found.add(entry.getValue());
+                }
+            }
+        }
+        return found.isEmpty() ? null : Collections.enumeration(found);
+    }
+
+    @Override
+    public long getLastModified() {
+        return lastModified;
+    }
+
+    @Override
+    public long getBundleId() {
+        return bundleId;
+    }
+
+    @Override
+    public Dictionary<String, String> getHeaders() {
+        return headers;
+    }
+
+    @Override
+    public Dictionary<String, String> getHeaders(final String locale) {
+        return headers;
+    }
+
+    @Override
+    public String getSymbolicName() {
+        return headers.get("Bundle-SymbolicName");
+    }
+
+    @Override
+    public Version getVersion() {
+        return Version.emptyVersion;
+    }
+
+    @Override
+    public int getState() {
+        return ACTIVE;
+    }
+
+    @Override
+    public String getLocation() {
+        return "bench:" + bundleId;
+    }
+
+    // ---------- unsupported
+
+    @Override
+    public void start(final int options) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void start() {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void stop(final int options) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void stop() {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void update(final InputStream input) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void update() {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void uninstall() {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public ServiceReference<?>[] getRegisteredServices() {
+        return null;
+    }
+
+    @Override
+    public ServiceReference<?>[] getServicesInUse() {
+        return null;
+    }
+
+    @Override
+    public boolean hasPermission(final Object permission) {
+        return true;
+    }
+
+    @Override
+    public URL getResource(final String name) {
+        return null;
+    }
+
+    @Override
+    public Class<?> loadClass(final String name) throws ClassNotFoundException {
+        throw new ClassNotFoundException(name);
+    }
+
+    @Override
+    public Enumeration<URL> getResources(final String name) {
+        return null;
+    }
+
+    @Override
+    public BundleContext getBundleContext() {
+        return null;
+    }
+
+    @Override
+    public Map<X509Certificate, List<X509Certificate>> getSignerCertificates(final int signersType) {
+        return Collections.emptyMap();
+    }
+
+    @Override
+    public <A> A adapt(final Class<A> type) {
+        return null;
+    }
+
+    @Override
+    public File getDataFile(final String filename) {
+        return null;
+    }
+
+    @Override
+    public int compareTo(final Bundle o) {
+        return Long.compare(bundleId, o.getBundleId());
+    }
+
+    // ---------- entry URLs
+
+    private final class EntryHandler extends URLStreamHandler {
+
+        @Override
+        protected URLConnection openConnection(final URL url) throws IOException {
+            final JarEntry entry = jar.getJarEntry(url.getPath().substring(1));
+            if (entry == null) {
+                throw new IOException("No entry " + url.getPath());
+            }
+            return new URLConnection(url) {
+
+                @Override
+                public void connect() {
+                    connected = true;
+                }
+
+                @Override
+                public InputStream getInputStream() throws IOException {
+                    return jar.getInputStream(entry);
+                }
+
+                @Override
+                public int getContentLength() {
+                    return (int) entry.getSize();
+                }
+            };
+        }
+    }
+}
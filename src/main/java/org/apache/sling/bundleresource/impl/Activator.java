@@ -18,9 +18,20 @@
  */
 package org.apache.sling.bundleresource.impl;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import org.apache.sling.bundleresource.impl.reporting.ResourceChangeReporter;
 import org.apache.sling.bundleresource.impl.reporting.ResourceProviderObserver;
 import org.osgi.annotation.bundle.Header;
 import org.osgi.framework.Bundle;
@@ -45,23 +56,38 @@ public class Activator implements BundleActivator, BundleListener {
 
     private final Logger log = LoggerFactory.getLogger(getClass());
     private final Map<Long, BundleResourceProvider[]> bundleResourceProviderMap = new HashMap<>();
+    private final Map<Long, BundleResourceCacheMBeanImpl> cacheMBeanMap = new HashMap<>();
+    // The providers being registered by bundle id, removed by the registering thread only
+    private final Map<Long, PreparedProviders> registeringMap = new HashMap<>();
+    private final ProviderRegistry providerRegistry = new ProviderRegistry();
+    private volatile BundleContext bundleContext;
     private ResourceProviderObserver resourceProviderObserver;
+    private volatile BundleResourceConfiguration configuration = BundleResourceConfiguration.DEFAULT;
+    private volatile BundleEntryIndexStore indexStore;
 
     /**
      * @see org.osgi.framework.BundleActivator#start(org.osgi.framework.BundleContext)
      */
     @Override
     public void start(final BundleContext context) throws InvalidSyntaxException {
+        this.bundleContext = context;
+        this.configuration = BundleResourceConfiguration.fromContext(context);
+        if (this.configuration.isIndexPersisted()) {
+            this.indexStore = BundleEntryIndexStore.create(context);
+        }
         context.addBundleListener(this);
-        this.resourceProviderObserver = new ResourceProviderObserver(context);
-        final Bundle[] bundles = context.getBundles();
-        for (final Bundle bundle : bundles) {
+        this.resourceProviderObserver = new ResourceProviderObserver(context, new ResourceChangeReporter(
+                configuration.getChangeBatchSize(), configuration.isChangeDiffEnabled(),
+                configuration.getChangeGracePeriod()));
+        final List<Bundle> activeBundles = new ArrayList<>();
+        for (final Bundle bundle : context.getBundles()) {
             if (bundle.getState() == Bundle.ACTIVE) {
-                // add bundle resource provider for active bundles
-                addBundleResourceProvider(bundle);
+                activeBundles.add(bundle);
             }
         }
-        BundleResourceWebConsolePlugin.initPlugin(context);
+        // add bundle resource providers for active bundles
+        addBundleResourceProviders(activeBundles);
+        BundleResourceWebConsolePlugin.initPlugin(context, providerRegistry);
     }
 
     /**
@@ -72,17 +98,21 @@ public class Activator implements BundleActivator, BundleListener {
         BundleResourceWebConsolePlugin.destroyPlugin();
 
         context.removeBundleListener(this);
-        for (final BundleResourceProvider[] providers : this.bundleResourceProviderMap.values()) {
-            for (final BundleResourceProvider provider : providers) {
-                try {
-                    provider.unregisterService();
-                } catch (final IllegalStateException ise) {
-                    // might happen on shutdown
-                }
+        // unregister and dispose the providers and caches of all bundles
+        for (final Map.Entry<Long, BundleResourceProvider[]> entry : this.bundleResourceProviderMap.entrySet()) {
+            final BundleResourceProvider[] providers = entry.getValue();
+            if (providers.length > 0) {
+                unregisterBundleResourceProviders(providers[0].getBundle(), providers,
+                        this.cacheMBeanMap.remove(entry.getKey()));
             }
         }
+        for (final BundleResourceCacheMBeanImpl mbean : this.cacheMBeanMap.values()) {
+            mbean.unregisterService();
+        }
         this.resourceProviderObserver.close(context);
         this.bundleResourceProviderMap.clear();
+        this.cacheMBeanMap.clear();
+        this.providerRegistry.clear();
     }
 
     /**
@@ -102,69 +132,290 @@ public class Activator implements BundleActivator, BundleListener {
         } else if (type == BundleEvent.STOPPED) {
             // remove resource provider after the bundle has stopped
             removeBundleResourceProvider(event.getBundle());
+        } else if (type == BundleEvent.UNINSTALLED) {
+            // drop the persisted entry index of the bundle
+            final BundleEntryIndexStore store = this.indexStore;
+            if (store != null) {
+                store.remove(event.getBundle().getBundleId());
+            }
         }
     }
 
     // ---------- Bundle provided resources -----------------------------------
 
-    private void addBundleResourceProvider(final Bundle bundle) {
-        BundleResourceProvider[] providers = null;
+    /**
+     * Adds the providers of the given bundles. Creating the caches of a
+     * bundle may walk all its entries to index them or to compute the cache
+     * sizes and each provider parses the JSON properties files below its
+     * root, so the providers are prepared on up to the configured number of
+     * threads. They are registered one after another on the calling thread
+     * in the order of the given bundles.
+     */
+    private void addBundleResourceProviders(final List<Bundle> bundles) {
+        final int threads = Math.min(configuration.getStartupThreads(), bundles.size());
+        if (threads <= 1) {
+            for (final Bundle bundle : bundles) {
+                addBundleResourceProvider(bundle);
+            }
+            return;
+        }
+
+        final long start = System.nanoTime();
+        final ExecutorService executor = Executors.newFixedThreadPool(threads, new StartupThreadFactory());
         try {
-            synchronized (this) {
-                // on startup we might get here twice for a bundle (listener and activator)
-                log.debug("addBundleResourceProvider: Checking for providers from Bundle ID = {}", bundle.getBundleId());
-                if (bundleResourceProviderMap.get(bundle.getBundleId()) != null) {
-                    log.debug("addBundleResourceProvider: Already found providers from Bundle ID = {}", bundle.getBundleId());
-                    return;
-                }
-                final String prefixes = bundle.getHeaders().get(BUNDLE_RESOURCE_ROOTS);
-                if (prefixes != null) {
-                    log.debug("addBundleResourceProvider: Registering resources '{}' from bundle {}:{} ({}) as service",
-                            prefixes, bundle.getSymbolicName(), bundle.getVersion(), bundle.getBundleId());
-
-                    final PathMapping[] roots = PathMapping.getRoots(prefixes);
-                    providers = new BundleResourceProvider[roots.length];
-
-                    int index = 0;
-                    final BundleResourceCache cache = new BundleResourceCache(bundle);
-                    for (final PathMapping path : roots) {
-                        final BundleResourceProvider provider = new BundleResourceProvider(cache, path);
-                        providers[index] = provider;
-                        index++;
+            final List<Future<PreparedProviders>> futures = new ArrayList<>(bundles.size());
+            for (final Bundle bundle : bundles) {
+                futures.add(executor.submit(new Callable<PreparedProviders>() {
+                    @Override
+                    public PreparedProviders call() throws Exception {
+                        return prepareBundleResourceProviders(bundle, true);
                     }
-                    log.debug("addBundleResourceProvider: Added providers from Bundle ID = {}", bundle.getBundleId());
-                    bundleResourceProviderMap.put(bundle.getBundleId(), providers);
-                }
+                }));
             }
-            if (providers != null) {
-                for (final BundleResourceProvider provider : providers) {
-                    final long id = provider.registerService();
-                    log.debug("addBundleResourceProvider: Service ID = {}", id);
-                    resourceProviderObserver.serviceAdded(bundle.getBundleContext(), provider, id);
+            for (int i = 0; i < bundles.size(); i++) {
+                final Bundle bundle = bundles.get(i);
+                try {
+                    final PreparedProviders prepared = futures.get(i).get();
+                    if (prepared != null) {
+                        registerBundleResourceProviders(prepared);
+                    }
+                } catch (final InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    break;
+                } catch (final ExecutionException ee) {
+                    log.error("activate: Problem while registering bundle resources from bundle {} : {} ({})",
+                            bundle.getSymbolicName(), bundle.getVersion(), bundle.getBundleId(), ee.getCause());
+                } catch (final Exception ex) {
+                    log.error("activate: Problem while registering bundle resources from bundle {} : {} ({})",
+                            bundle.getSymbolicName(), bundle.getVersion(), bundle.getBundleId(), ex);
                 }
             }
+        } finally {
+            executor.shutdownNow();
+        }
+        log.info("Added bundle resource providers of {} bundles using {} threads in {} ms",
+                bundles.size(), threads, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+    }
+
+    private void addBundleResourceProvider(final Bundle bundle) {
+        try {
+            final PreparedProviders prepared = prepareBundleResourceProviders(bundle, false);
+            if (prepared != null) {
+                registerBundleResourceProviders(prepared);
+            }
         } catch (final Exception ex) {
             log.error("activate: Problem while registering bundle resources from bundle {} : {} ({})",
                     bundle.getSymbolicName(), bundle.getVersion(), bundle.getBundleId(), ex);
         }
     }
 
+    /**
+     * Creates the cache and the providers of the given bundle without
+     * registering them. Returns <code>null</code> if the bundle provides no
+     * resources or its providers are already registered. Only providers
+     * created on the startup threads are prepared, the others build their
+     * sub-resource index on first use, see {@link BundleResourceProvider#prepare()}.
+     */
+    private PreparedProviders prepareBundleResourceProviders(final Bundle bundle, final boolean prepare)
+            throws Exception {
+        // on startup we might get here twice for a bundle (listener and activator)
+        log.debug("addBundleResourceProvider: Checking for providers from Bundle ID = {}", bundle.getBundleId());
+        synchronized (this) {
+            if (bundleResourceProviderMap.get(bundle.getBundleId()) != null) {
+                log.debug("addBundleResourceProvider: Already found providers from Bundle ID = {}", bundle.getBundleId());
+                return null;
+            }
+        }
+        final String prefixes = bundle.getHeaders().get(BUNDLE_RESOURCE_ROOTS);
+        if (prefixes == null) {
+            return null;
+        }
+
+        final long start = System.nanoTime();
+        log.debug("addBundleResourceProvider: Registering resources '{}' from bundle {}:{} ({}) as service",
+                prefixes, bundle.getSymbolicName(), bundle.getVersion(), bundle.getBundleId());
+
+        final PathMapping[] roots = PathMapping.getRoots(prefixes);
+        final BundleResourceProvider[] providers = new BundleResourceProvider[roots.length];
+
+        int index = 0;
+        final BundleResourceConfiguration config = configuration.forBundle(bundle);
+        final BundleResourceCache cache = new BundleResourceCache(bundle, config, roots, indexStore);
+        for (final PathMapping path : roots) {
+            final BundleResourceProvider provider = new BundleResourceProvider(cache, path,
+                    config.getMissCacheSize(),
+                    config.isMetricsEnabled() ? new BundleResourceProviderMetrics(bundle, path) : null);
+            if (prepare) {
+                provider.prepare();
+            }
+            providers[index] = provider;
+            index++;
+        }
+        return new PreparedProviders(bundle, cache, providers, System.nanoTime() - start);
+    }
+
+    private void registerBundleResourceProviders(final PreparedProviders prepared) throws Exception {
+        final long start = System.nanoTime();
+        final Bundle bundle = prepared.bundle;
+        final BundleResourceCacheMBeanImpl mbean;
+        synchronized (this) {
+            if (bundleResourceProviderMap.get(bundle.getBundleId()) != null) {
+                log.debug("addBundleResourceProvider: Already found providers from Bundle ID = {}", bundle.getBundleId());
+                prepared.dispose();
+                return;
+            }
+            // the bundle may have been stopped while its providers were
+            // prepared, its STOPPED event found nothing to remove then
+            if (bundle.getState() != Bundle.ACTIVE) {
+                log.debug("addBundleResourceProvider: Bundle ID = {} stopped while preparing its providers",
+                        bundle.getBundleId());
+                prepared.dispose();
+                return;
+            }
+            log.debug("addBundleResourceProvider: Added providers from Bundle ID = {}", bundle.getBundleId());
+            bundleResourceProviderMap.put(bundle.getBundleId(), prepared.providers);
+            mbean = new BundleResourceCacheMBeanImpl(prepared.cache);
+            cacheMBeanMap.put(bundle.getBundleId(), mbean);
+            registeringMap.put(bundle.getBundleId(), prepared);
+        }
+        // a STOPPED event while registering leaves the providers to this thread,
+        // which stops registering them and unregisters the ones registered so far
+        for (final BundleResourceProvider provider : prepared.providers) {
+            if (prepared.removed) {
+                break;
+            }
+            final long id = provider.registerService();
+            log.debug("addBundleResourceProvider: Service ID = {}", id);
+            if (prepared.removed) {
+                break;
+            }
+            providerRegistry.add(provider);
+            resourceProviderObserver.serviceAdded(bundle.getBundleContext(), provider, id);
+        }
+        if (!prepared.removed) {
+            mbean.registerService(bundleContext);
+        }
+
+        final boolean removed;
+        synchronized (this) {
+            registeringMap.remove(bundle.getBundleId());
+            removed = prepared.removed;
+        }
+        if (removed) {
+            log.debug("addBundleResourceProvider: Bundle ID = {} stopped while registering its providers",
+                    bundle.getBundleId());
+            unregisterBundleResourceProviders(bundle, prepared.providers, mbean);
+            return;
+        }
+
+        final long registrationTime = System.nanoTime() - start;
+        prepared.cache.recordStartup(prepared.preparationTime, registrationTime);
+        log.debug("addBundleResourceProvider: Prepared providers from Bundle ID = {} in {} ms, registered in {} ms",
+                bundle.getBundleId(), TimeUnit.NANOSECONDS.toMillis(prepared.preparationTime),
+                TimeUnit.NANOSECONDS.toMillis(registrationTime));
+    }
+
     private void removeBundleResourceProvider(final Bundle bundle) {
         final BundleResourceProvider[] providers;
+        final BundleResourceCacheMBeanImpl mbean;
         synchronized (this) {
             log.debug("removeBundleResourceProvider: Removing providers from Bundle ID = {}", bundle.getBundleId());
             providers = bundleResourceProviderMap.remove(bundle.getBundleId());
+            mbean = cacheMBeanMap.remove(bundle.getBundleId());
+            final PreparedProviders registering = registeringMap.get(bundle.getBundleId());
+            if (registering != null) {
+                // the registering thread unregisters the providers once it noticed
+                registering.removed = true;
+                return;
+            }
+        }
+        unregisterBundleResourceProviders(bundle, providers, mbean);
+    }
+
+    /**
+     * Unregisters and disposes the given providers and the MBean of their
+     * cache, either of which may be <code>null</code>.
+     */
+    private void unregisterBundleResourceProviders(final Bundle bundle,
+                                                   final BundleResourceProvider[] providers,
+                                                   final BundleResourceCacheMBeanImpl mbean) {
+        if (mbean != null) {
+            mbean.unregisterService();
         }
         if (providers != null) {
             log.debug("removeBundleResourceProvider: Unregistering resources from bundle {}:{} ({})",
                     bundle.getSymbolicName(), bundle.getVersion(), bundle.getBundleId());
+            // all providers of the bundle share the same cache, disposed with the last of them
+            final AtomicInteger remaining = new AtomicInteger(providers.length);
             for (final BundleResourceProvider provider : providers) {
+                providerRegistry.remove(provider);
                 try {
                     provider.unregisterService();
                 } catch (final IllegalStateException ise) {
                     // might happen on shutdown
                 }
+                // the removed resources are reported in the background, reading the provider
+                resourceProviderObserver.afterRemoval(provider, () -> {
+                    provider.dispose();
+                    if (remaining.decrementAndGet() == 0) {
+                        provider.getBundleResourceCache().dispose();
+                    }
+                });
+            }
+        }
+    }
+
+    // ---------- inner classes
+
+    /**
+     * The cache and the providers of a bundle, not yet registered.
+     */
+    private static final class PreparedProviders {
+
+        final Bundle bundle;
+
+        final BundleResourceCache cache;
+
+        final BundleResourceProvider[] providers;
+
+        final long preparationTime;
+
+        /**
+         * Set if the bundle has been stopped while the providers were
+         * registered, guarded by the activator when written
+         */
+        volatile boolean removed;
+
+        PreparedProviders(final Bundle bundle, final BundleResourceCache cache,
+                          final BundleResourceProvider[] providers, final long preparationTime) {
+            this.bundle = bundle;
+            this.cache = cache;
+            this.providers = providers;
+            this.preparationTime = preparationTime;
+        }
+
+        /**
+         * Drops the prepared providers and the cache if they are not
+         * registered.
+         */
+        void dispose() {
+            for (final BundleResourceProvider provider : providers) {
+                provider.dispose();
             }
+            cache.dispose();
+        }
+    }
+
+    private static final class StartupThreadFactory implements ThreadFactory {
+
+        private final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public Thread newThread(final Runnable runnable) {
+            final Thread thread = new Thread(runnable,
+                    "Bundle Resource Provider Startup #" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
         }
     }
 }
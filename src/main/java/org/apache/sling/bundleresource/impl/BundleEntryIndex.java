@@ -0,0 +1,363 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.bundleresource.impl;
+
+import java.net.URL;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.osgi.framework.Bundle;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The <code>BundleEntryIndex</code> is an immutable, in-memory tree of the
+ * entries below the mapped roots of a bundle.
+ * <p>
+ * Bundle contents cannot change while the bundle is active, so the index is
+ * built once by walking the roots with <code>Bundle.getEntryPaths</code> when
+ * the providers for the bundle are added. Like the lookups without index, it
+ * only contains the entries of the bundle itself, not those of attached
+ * fragments. Afterwards the {@link BundleResourceCache} answers entry and
+ * child entry lookups below the indexed roots from this index without
+ * calling into the framework.
+ * <p>
+ * Only the entry paths are collected when the index is built or loaded from
+ * the {@link BundleEntryIndexStore}. The entry URLs and sizes are resolved
+ * from the bundle on first access.
+ * <p>
+ * Folder entries are indexed with a trailing slash, as returned by the
+ * framework. Child entry paths always start with a slash.
+ */
+class BundleEntryIndex {
+
+    /**
+     * Content length of an entry whose size has not been read yet
+     */
+    static final int UNKNOWN_LENGTH = -2;
+
+    private static final Logger LOG = LoggerFactory.getLogger(BundleEntryIndex.class);
+
+    /**
+     * The indexed entry roots, without trailing slash
+     */
+    private final String[] roots;
+
+    /**
+     * The indexed entries by entry path
+     */
+    private final Map<String, Entry> entries;
+
+    /**
+     * The child entries by parent entry path (with trailing slash)
+     */
+    private final Map<String, ChildEntries> children;
+
+    /**
+     * The indexed bundle, used to resolve entry URLs of indexes loaded from
+     * the {@link BundleEntryIndexStore}
+     */
+    private final Bundle bundle;
+
+    private BundleEntryIndex(final Bundle bundle,
+                             final String[] roots,
+                             final Map<String, Entry> entries,
+                             final Map<String, ChildEntries> children) {
+        this.bundle = bundle;
+        this.roots = roots;
+        this.entries = entries;
+        this.children = children;
+    }
+
+    /**
+     * Builds the index of all entries below the entry roots of the given
+     * mappings.
+     *
+     * @return The index or <code>null</code> if no root could be indexed
+     */
+    static BundleEntryIndex build(final Bundle bundle, final PathMapping[] mappings) {
+        final Builder builder = new Builder(bundle);
+        for (final PathMapping mapping : mappings) {
+            final String root = getEntryRoot(mapping);
+            if (root == null || builder.hasRoot(root)) {
+                continue;
+            }
+            final String rootFolder = root.concat("/");
+            final URL rootUrl = bundle.getEntry(rootFolder);
+            if (rootUrl == null) {
+                // not a folder, lookups for this root are not indexed
+                continue;
+            }
+
+            // a root below another root has been walked with the other root
+            final boolean walked = builder.hasEntry(rootFolder);
+            builder.addRoot(root, rootUrl);
+            if (!walked) {
+                walk(bundle, rootFolder, builder);
+            }
+        }
+
+        final BundleEntryIndex index = builder.build();
+        if (index != null) {
+            LOG.debug("Indexed {} entries of bundle {} below {}",
+                    index.size(), bundle.getBundleId(), Arrays.toString(index.roots));
+        }
+        return index;
+    }
+
+    /**
+     * Returns <code>true</code> if the entry path is below one of the
+     * indexed roots, in which case the answers of {@link #getEntry(String)}
+     * and {@link #getChildEntries(String)} are authoritative.
+     */
+    boolean isIndexed(final String path) {
+        for (final String root : roots) {
+            if (path.startsWith(root)
+                    && (path.length() == root.length() || path.charAt(root.length()) == '/')) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the indexed entry at the given path or <code>null</code>.
+     */
+    Entry getEntry(final String path) {
+        return entries.get(path);
+    }
+
+    /**
+     * Returns the URL of the indexed entry at the given path or
+     * <code>null</code> if there is no such entry.
+     */
+    URL getEntryUrl(final String path) {
+        final Entry entry = entries.get(path);
+        if (entry == null) {
+            return null;
+        }
+
+        URL url = entry.url;
+        if (url == null) {
+            // index loaded from disk, resolve once
+            url = bundle.getEntry(path);
+            entry.url = url;
+        }
+        return url;
+    }
+
+    /**
+     * Returns the child entries of the given parent entry path (with
+     * trailing slash) or <code>null</code> if there are none.
+     */
+    ChildEntries getChildEntries(final String path) {
+        return children.get(path);
+    }
+
+    /**
+     * Returns the number of indexed entries.
+     */
+    int size() {
+        return entries.size();
+    }
+
+    /**
+     * Returns the indexed entry roots.
+     */
+    String[] getRoots() {
+        return roots.clone();
+    }
+
+    /**
+     * Returns all indexed entries by entry path in the order they have been
+     * added to the index.
+     */
+    Map<String, Entry> getEntries() {
+        return entries;
+    }
+
+    static String getEntryRoot(final PathMapping mapping) {
+        return mapping.getEntryRoot() != null ? mapping.getEntryRoot() : mapping.getResourceRoot();
+    }
+
+    /**
+     * Returns the size of the indexed entry at the given path or -1 if there
+     * is no such entry, it is a folder or its size is unknown. The size is
+     * read from the bundle on first access.
+     */
+    int getContentLength(final String path) {
+        final Entry entry = entries.get(path);
+        if (entry == null) {
+            return -1;
+        }
+
+        int contentLength = entry.contentLength;
+        if (contentLength == UNKNOWN_LENGTH) {
+            contentLength = -1;
+            final URL url = getEntryUrl(path);
+            if (url != null) {
+                try {
+                    contentLength = url.openConnection().getContentLength();
+                } catch (final Exception e) {
+                    // don't care, we just have no content length
+                }
+            }
+            entry.contentLength = contentLength;
+        }
+        return contentLength;
+    }
+
+    /**
+     * Adds the entries below the given folder to the builder, descending
+     * into the child folders with <code>Bundle.getEntryPaths</code> like
+     * the lookups without index.
+     */
+    private static void walk(final Bundle bundle, final String rootFolder, final Builder builder) {
+        final Deque<String> folders = new ArrayDeque<>();
+        folders.push(rootFolder);
+        while (!folders.isEmpty()) {
+            final Enumeration<String> paths = bundle.getEntryPaths(folders.pop());
+            while (paths != null && paths.hasMoreElements()) {
+                final String name = paths.nextElement();
+                final String path = name.startsWith("/") ? name : "/".concat(name);
+                // the folder of a root walked before is only added to its parent
+                final boolean walked = builder.hasEntry(path);
+                builder.addEntry(path, null, UNKNOWN_LENGTH);
+                if (!walked && path.endsWith("/")) {
+                    folders.push(path);
+                }
+            }
+        }
+    }
+
+    // ---------- inner classes
+
+    /**
+     * A single indexed bundle entry.
+     */
+    static final class Entry {
+
+        /**
+         * The entry URL, <code>null</code> until first requested
+         */
+        private volatile URL url;
+
+        private final boolean folder;
+
+        /**
+         * The size of the entry, {@link #UNKNOWN_LENGTH} until first requested
+         */
+        private volatile int contentLength;
+
+        Entry(final URL url, final boolean folder, final int contentLength) {
+            this.url = url;
+            this.folder = folder;
+            this.contentLength = contentLength;
+        }
+
+        boolean isFolder() {
+            return folder;
+        }
+
+        /**
+         * Returns the size of the entry, -1 if unknown or a folder or
+         * {@link #UNKNOWN_LENGTH} if not read yet.
+         */
+        int getContentLength() {
+            return contentLength;
+        }
+    }
+
+    /**
+     * Collects the entries of an index, keeping the order in which the
+     * entries are added.
+     */
+    static final class Builder {
+
+        private final Bundle bundle;
+
+        private final List<String> roots = new ArrayList<>();
+
+        private final Map<String, Entry> entries = new LinkedHashMap<>();
+
+        private final Map<String, List<String>> children = new HashMap<>();
+
+        Builder(final Bundle bundle) {
+            this.bundle = bundle;
+        }
+
+        boolean hasRoot(final String root) {
+            return roots.contains(root);
+        }
+
+        boolean hasEntry(final String path) {
+            return entries.containsKey(path);
+        }
+
+        void addRoot(final String root, final URL url) {
+            roots.add(root);
+            entries.put(root.concat("/"), new Entry(url, true, -1));
+        }
+
+        /**
+         * Adds the entry and lists it as child of its parent. An entry
+         * added before is kept and only listed again.
+         */
+        void addEntry(final String path, final URL url, final int contentLength) {
+            final boolean isFolder = path.endsWith("/");
+            if (!entries.containsKey(path)) {
+                entries.put(path, new Entry(url, isFolder, isFolder ? -1 : contentLength));
+            }
+
+            final int nameEnd = isFolder ? path.length() - 1 : path.length();
+            final String parent = path.substring(0, path.lastIndexOf('/', nameEnd - 1) + 1);
+            List<String> list = children.get(parent);
+            if (list == null) {
+                list = new ArrayList<>();
+                children.put(parent, list);
+            }
+            list.add(path);
+        }
+
+        /**
+         * Returns the index or <code>null</code> if no root has been added.
+         */
+        BundleEntryIndex build() {
+            if (roots.isEmpty()) {
+                return null;
+            }
+
+            // freeze the child lists
+            final Map<String, ChildEntries> frozen = new HashMap<>(children.size());
+            for (final Map.Entry<String, List<String>> entry : children.entrySet()) {
+                frozen.put(entry.getKey(), ChildEntries.of(entry.getValue()));
+            }
+            return new BundleEntryIndex(bundle, roots.toArray(new String[0]),
+                    Collections.unmodifiableMap(entries), Collections.unmodifiableMap(frozen));
+        }
+    }
+}
@@ -0,0 +1,283 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.bundleresource.impl;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The <code>BundleEntryIndexStore</code> persists {@link BundleEntryIndex}
+ * instances in the data area of the bundle resource provider bundle, so an
+ * instance restart does not have to walk the entries of unchanged bundles
+ * again.
+ * <p>
+ * There is one file per bundle, named after the bundle id. The file starts
+ * with the bundle id and the last modification time of the bundle and is
+ * only used if both still match. As the index only holds the entries of the
+ * bundle itself, attaching or detaching fragments does not outdate it. The
+ * entries follow as listed by their parents, starting with the children of
+ * the roots, each with its path, folders having a trailing slash, and its
+ * size or {@link BundleEntryIndex#UNKNOWN_LENGTH} if not read yet. Loading
+ * them in this order restores the child entries in their original order,
+ * including the folders of roots nested below other roots. Files are
+ * memory mapped for reading.
+ */
+class BundleEntryIndexStore {
+
+    private static final Logger LOG = LoggerFactory.getLogger(BundleEntryIndexStore.class);
+
+    /**
+     * The folder in the bundle data area holding the index files
+     */
+    private static final String INDEX_FOLDER = "entry-index";
+
+    /**
+     * Marker at the start of each index file ("BRIX")
+     */
+    private static final int MAGIC = 0x42524958;
+
+    /**
+     * The version of the file format, to be changed with any format change.
+     * Version 1 files may contain entries of attached fragments, version 2
+     * files miss the folders of nested roots in the child entries of their
+     * parents.
+     */
+    private static final int VERSION = 3;
+
+    private final File folder;
+
+    private BundleEntryIndexStore(final File folder) {
+        this.folder = folder;
+    }
+
+    /**
+     * Creates the store in the data area of the given bundle context.
+     *
+     * @return The store or <code>null</code> if the framework does not
+     * provide file system support
+     */
+    static BundleEntryIndexStore create(final BundleContext context) {
+        final File folder = context.getDataFile(INDEX_FOLDER);
+        if (folder == null) {
+            LOG.warn("Bundle data area not available, entry indexes are not persisted");
+            return null;
+        }
+        if (!folder.isDirectory() && !folder.mkdirs()) {
+            LOG.warn("Cannot create {}, entry indexes are not persisted", folder);
+            return null;
+        }
+        return new BundleEntryIndexStore(folder);
+    }
+
+    /**
+     * Returns the index of the given bundle, loaded from disk if a file for
+     * the current revision of the bundle exists. Otherwise the index is
+     * built and stored.
+     *
+     * @return The index or <code>null</code> if no root could be indexed
+     */
+    BundleEntryIndex getIndex(final Bundle bundle, final PathMapping[] mappings) {
+        final File file = getFile(bundle.getBundleId());
+        final String[] roots = getRoots(mappings);
+        if (file.isFile()) {
+            try {
+                final BundleEntryIndex index = load(file, bundle, roots);
+                if (index != null) {
+                    LOG.debug("Loaded index of {} entries of bundle {} from {}",
+                            index.size(), bundle.getBundleId(), file);
+                    return index;
+                }
+            } catch (final IOException | RuntimeException e) {
+                LOG.warn("Cannot read entry index {}, rebuilding it", file, e);
+            }
+        }
+
+        final BundleEntryIndex index = BundleEntryIndex.build(bundle, mappings);
+        if (index != null) {
+            try {
+                save(file, bundle, roots, index);
+            } catch (final IOException e) {
+                LOG.warn("Cannot write entry index {}", file, e);
+            }
+        } else if (file.exists() && !file.delete()) {
+            LOG.debug("Cannot delete outdated entry index {}", file);
+        }
+        return index;
+    }
+
+    /**
+     * Removes the index file of the bundle with the given id.
+     */
+    void remove(final long bundleId) {
+        final File file = getFile(bundleId);
+        if (file.exists() && !file.delete()) {
+            LOG.debug("Cannot delete entry index {}", file);
+        }
+    }
+
+    private File getFile(final long bundleId) {
+        return new File(folder, bundleId + ".idx");
+    }
+
+    /**
+     * The entry roots which would be indexed for the mappings, used to
+     * detect changed mappings
+     */
+    private static String[] getRoots(final PathMapping[] mappings) {
+        final String[] roots = new String[mappings.length];
+        for (int i = 0; i < mappings.length; i++) {
+            roots[i] = String.valueOf(BundleEntryIndex.getEntryRoot(mappings[i]));
+        }
+        return roots;
+    }
+
+    private static BundleEntryIndex load(final File file, final Bundle bundle, final String[] roots)
+            throws IOException {
+        final MappedByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+
+        try {
+            if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION
+                    || buffer.getLong() != bundle.getBundleId()
+                    || buffer.getLong() != bundle.getLastModified()) {
+                return null;
+            }
+
+            final String[] storedRoots = new String[buffer.getInt()];
+            for (int i = 0; i < storedRoots.length; i++) {
+                storedRoots[i] = readString(buffer);
+            }
+            if (!Arrays.equals(roots, storedRoots)) {
+                return null;
+            }
+
+            final BundleEntryIndex.Builder builder = new BundleEntryIndex.Builder(bundle);
+            final int indexedRoots = buffer.getInt();
+            for (int i = 0; i < indexedRoots; i++) {
+                builder.addRoot(readString(buffer), null);
+            }
+            final int entries = buffer.getInt();
+            for (int i = 0; i < entries; i++) {
+                final String path = readString(buffer);
+                // the folders of nested roots are added already and only listed as children
+                builder.addEntry(path, null, buffer.getInt());
+            }
+            return builder.build();
+        } catch (final BufferUnderflowException bue) {
+            throw new IOException("Truncated entry index " + file, bue);
+        }
+    }
+
+    private static void save(final File file, final Bundle bundle, final String[] roots,
+                             final BundleEntryIndex index) throws IOException {
+        final File tmp = new File(file.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(bundle.getBundleId());
+            out.writeLong(bundle.getLastModified());
+
+            out.writeInt(roots.length);
+            for (final String root : roots) {
+                writeString(out, root);
+            }
+
+            final String[] indexedRoots = index.getRoots();
+            out.writeInt(indexedRoots.length);
+            for (final String root : indexedRoots) {
+                writeString(out, root);
+            }
+
+            final List<String> paths = getListedPaths(index, indexedRoots);
+            final Map<String, BundleEntryIndex.Entry> entries = index.getEntries();
+            out.writeInt(paths.size());
+            for (final String path : paths) {
+                writeString(out, path);
+                out.writeInt(entries.get(path).getContentLength());
+            }
+        }
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * Returns the paths of all entries listed as child entries below the
+     * given roots, the children of each folder in their listed order.
+     * Root folders are only contained if they are nested below another
+     * root.
+     */
+    private static List<String> getListedPaths(final BundleEntryIndex index, final String[] roots) {
+        final List<String> paths = new ArrayList<>(index.size());
+        final Set<String> visited = new HashSet<>();
+        final Deque<String> folders = new ArrayDeque<>();
+        for (final String root : roots) {
+            folders.push(root.concat("/"));
+        }
+        while (!folders.isEmpty()) {
+            final String folder = folders.pop();
+            final ChildEntries children = index.getChildEntries(folder);
+            if (!visited.add(folder) || children == null) {
+                continue;
+            }
+            for (final String path : children.getPaths()) {
+                paths.add(path);
+                if (path.endsWith("/")) {
+                    folders.push(path);
+                }
+            }
+        }
+        return paths;
+    }
+
+    private static String readString(final MappedByteBuffer buffer) {
+        final byte[] bytes = new byte[buffer.getInt()];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void writeString(final DataOutputStream out, final String value) throws IOException {
+        final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+}
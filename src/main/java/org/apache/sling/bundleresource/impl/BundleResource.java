@@ -23,22 +23,9 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.net.MalformedURLException;
 import java.net.URL;
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.LinkedHashMap;
-import java.util.List;
 import java.util.Map;
 
-import javax.json.Json;
-import javax.json.JsonArray;
-import javax.json.JsonNumber;
-import javax.json.JsonObject;
-import javax.json.JsonReader;
-import javax.json.JsonString;
-import javax.json.JsonValue;
-
 import org.apache.sling.api.resource.AbstractResource;
-import org.apache.sling.api.resource.Resource;
 import org.apache.sling.api.resource.ResourceMetadata;
 import org.apache.sling.api.resource.ResourceResolver;
 import org.apache.sling.api.resource.ValueMap;
@@ -64,27 +51,37 @@ public class BundleResource extends AbstractResource {
 
     private final String path;
 
+    /**
+     * The entry path of this resource, translated on first use. Strings are
+     * immutable, so a race only translates the path twice.
+     */
+    private String entryPath;
+
     private URL resourceUrl;
 
     private final ResourceMetadata metadata;
 
-    private final ValueMap valueMap;
+    private final ContentNode readProps;
 
-    private final Map<String, Map<String, Object>> subResources;
+    /**
+     * The value map and sub-resources, set once loaded. The metadata is
+     * completed before this field is written.
+     */
+    private volatile LoadedContent loaded;
 
     private final boolean isFolder;
 
-    @SuppressWarnings("unchecked")
     public BundleResource(final ResourceResolver resourceResolver,
                           final BundleResourceCache cache,
                           final PathMapping mappedPath,
                           final String resourcePath,
-                          final Map<String, Object> readProps,
+                          final ContentNode readProps,
                           final boolean isFolder) {
 
         this.resourceResolver = resourceResolver;
         this.cache = cache;
         this.mappedPath = mappedPath;
+        this.readProps = readProps;
         this.isFolder = isFolder;
 
         metadata = new ResourceMetadata();
@@ -94,151 +91,82 @@ public class BundleResource extends AbstractResource {
 
         this.path = resourcePath;
 
-        final Map<String, Object> properties = new LinkedHashMap<>();
-        this.valueMap = new ValueMapDecorator(Collections.unmodifiableMap(properties));
-        if (!isFolder) {
-            try {
-                final URL url = this.cache.getEntry(mappedPath.getEntryPath(resourcePath));
-                if (url != null) {
-                    metadata.setContentLength(url.openConnection().getContentLength());
-                }
-            } catch (final Exception e) {
-                // don't care, we just have no content length
-            }
+        if (!cache.isLazyResources()) {
+            getLoadedContent();
         }
+    }
 
-        Map<String, Map<String, Object>> children = null;
-        if (readProps != null) {
-            for (final Map.Entry<String, Object> entry : readProps.entrySet()) {
-                if (entry.getValue() instanceof Map) {
-                    if (children == null) {
-                        children = new LinkedHashMap<>();
-                    }
-                    children.put(entry.getKey(), (Map<String, Object>) entry.getValue());
-                } else {
-                    properties.put(entry.getKey(), entry.getValue());
+    /**
+     * Returns the properties and sub-resources of this resource, reading
+     * them and the content length on first access.
+     */
+    private LoadedContent getLoadedContent() {
+        LoadedContent result = this.loaded;
+        if (result == null) {
+            synchronized (this) {
+                result = this.loaded;
+                if (result == null) {
+                    result = load();
+                    this.loaded = result;
                 }
             }
         }
-        String propsPath = mappedPath.getEntryPath(resourcePath.concat(this.mappedPath.getJSONPropertiesExtension()));
-        if (propsPath == null && resourcePath.equals(mappedPath.getResourceRoot())) {
-            // SLING-10140 - Handle the special case when the resourceRoot points to a file.
-            //   In that case, the JSONProperties sibling entry may still exist
-            //   in the bundle but it would not be contained within the mappedPath set.
-
-            // Start with mapped path for the original resource
-            String entryPath = mappedPath.getEntryPath(resourcePath);
-            if (entryPath != null) {
-                // and then add the extension for the candidate sibling path
-                propsPath = entryPath.concat(this.mappedPath.getJSONPropertiesExtension());
+        return result;
+    }
+
+    private LoadedContent load() {
+        if (!isFolder) {
+            final String entryPath = getEntryPath();
+            final int contentLength = entryPath != null ? this.cache.getContentLength(entryPath) : -1;
+            if (contentLength >= 0) {
+                metadata.setContentLength(contentLength);
             }
         }
+
+        // SLING-10140 - if the resourceRoot points to a file, the JSONProperties sibling
+        //   entry is not contained within the mappedPath set but may still exist in the
+        //   bundle, the extension is appended to the entry path of the root for this case
+        final String propsPath = mappedPath.getEntryPath(path, this.mappedPath.getJSONPropertiesExtension());
+        ContentNode content = null;
         if (propsPath != null) {
             try {
-                URL url = this.cache.getEntry(propsPath);
-                if (url == null) {
-                    url = getFallbackContentUrl(mappedPath, resourcePath);
-                }
-                if (url != null) {
-                    try (JsonReader reader = Json.createReader(url.openStream())) {
-                        final JsonObject obj = reader.readObject();
-                        for (final Map.Entry<String, JsonValue> entry : obj.entrySet()) {
-                            final Object value = getValue(entry.getValue());
-                            if (value != null) {
-                                if (value instanceof Map) {
-                                    if (children == null) {
-                                        children = new LinkedHashMap<>();
-                                    }
-                                    children.put(entry.getKey(), (Map<String, Object>) value);
-                                } else {
-                                    properties.put(entry.getKey(), value);
-                                }
-                            }
-                        }
-                    }
+                // parsed content is shared through the cache, never modify it
+                content = this.cache.getContent(propsPath);
+                if (content == null) {
+                    content = getFallbackContent(mappedPath, path);
                 }
             } catch (final IOException ioe) {
                 log.error(
                         "getInputStream: Cannot get input stream for " + propsPath, ioe);
             }
         }
-        this.subResources = children;
+        content = ContentNode.merge(readProps, content);
+        if (content == null) {
+            content = ContentNode.EMPTY;
+        }
+        return new LoadedContent(new ValueMapDecorator(content.getProperties()),
+                content.getChildren().isEmpty() ? null : content.getChildren());
     }
 
-    private URL getFallbackContentUrl(PathMapping mappedPath, String resourcePath) {
+    private ContentNode getFallbackContent(PathMapping mappedPath, String resourcePath) throws IOException {
         // WS-1963 - Prepare and try to use fallback to .content.json
-        String fallbackPropsPath = mappedPath.getEntryPath(resourcePath.concat("/").concat(this.mappedPath.getJSONPropertiesExtension()));
+        String fallbackPropsPath = mappedPath.getEntryPath(resourcePath, this.mappedPath.getJSONPropertiesFolderSuffix());
         if (fallbackPropsPath != null) {
-            return this.cache.getEntry(fallbackPropsPath);
+            return this.cache.getContent(fallbackPropsPath);
         }
         return null;
     }
 
-    Resource getChildResource(final String path) {
-        Resource result = null;
-        Map<String, Map<String, Object>> resources = this.subResources;
-        String subPath = null;
-        for (String segment : path.split("/")) {
-            if (resources != null) {
-                subPath = subPath == null ? segment : subPath.concat("/").concat(segment);
-                final Map<String, Object> props = resources.get(segment);
-                if (props != null) {
-                    result = new BundleResource(this.resourceResolver, this.cache, this.mappedPath,
-                            this.getPath().concat("/").concat(subPath), props, false);
-                    resources = ((BundleResource) result).subResources;
-                } else {
-                    result = null;
-                    break;
-                }
-            } else {
-                result = null;
-                break;
-            }
-        }
-        return result;
-    }
-
-    private static Object getValue(final JsonValue value) {
-        switch (value.getValueType()) {
-            // type NULL -> return null
-            case NULL:
-                return null;
-            // type TRUE or FALSE -> return boolean
-            case FALSE:
-                return false;
-            case TRUE:
-                return true;
-            // type String -> return String
-            case STRING:
-                return ((JsonString) value).getString();
-            // type Number -> return long or double
-            case NUMBER:
-                final JsonNumber num = (JsonNumber) value;
-                if (num.isIntegral()) {
-                    return num.longValue();
-                }
-                return num.doubleValue();
-            // type ARRAY -> return list and call this method for each value
-            case ARRAY:
-                final List<Object> array = new ArrayList<>();
-                for (final JsonValue x : ((JsonArray) value)) {
-                    array.add(getValue(x));
-                }
-                return array;
-            // type OBJECT -> return map
-            case OBJECT:
-                final Map<String, Object> map = new LinkedHashMap<>();
-                final JsonObject obj = (JsonObject) value;
-                for (final Map.Entry<String, JsonValue> entry : obj.entrySet()) {
-                    map.put(entry.getKey(), getValue(entry.getValue()));
-                }
-                return map;
-        }
-        return null;
+    /**
+     * Returns <code>true</code> if this resource is defined in the JSON
+     * properties file of an ancestor instead of by a bundle entry.
+     */
+    boolean isSubResource() {
+        return readProps != null;
     }
 
-    Map<String, Map<String, Object>> getSubResources() {
-        return this.subResources;
+    Map<String, ContentNode> getSubResources() {
+        return getLoadedContent().subResources;
     }
 
     @Override
@@ -248,7 +176,7 @@ public class BundleResource extends AbstractResource {
 
     @Override
     public String getResourceType() {
-        String resourceType = this.valueMap.get(ResourceResolver.PROPERTY_RESOURCE_TYPE, String.class);
+        String resourceType = getLoadedContent().valueMap.get(ResourceResolver.PROPERTY_RESOURCE_TYPE, String.class);
         if (resourceType == null) {
             resourceType = this.isFolder ? NT_FOLDER : NT_FILE;
         }
@@ -257,11 +185,13 @@ public class BundleResource extends AbstractResource {
 
     @Override
     public String getResourceSuperType() {
-        return this.valueMap.get("sling:resourceSuperType", String.class);
+        return getLoadedContent().valueMap.get("sling:resourceSuperType", String.class);
     }
 
     @Override
     public ResourceMetadata getResourceMetadata() {
+        // the metadata is complete once the content is loaded
+        getLoadedContent();
         return metadata;
     }
 
@@ -278,7 +208,7 @@ public class BundleResource extends AbstractResource {
         } else if (type == URL.class) {
             return (Type) getURL(); // unchecked cast
         } else if (type == ValueMap.class) {
-            return (Type) valueMap; // unchecked cast
+            return (Type) getLoadedContent().valueMap; // unchecked cast
         }
 
         // fall back to adapter factories
@@ -317,12 +247,12 @@ public class BundleResource extends AbstractResource {
 
     private URL getURL() {
         if (resourceUrl == null) {
-            final URL url = this.cache.getEntry(mappedPath.getEntryPath(this.path));
+            final URL url = this.cache.getEntry(getEntryPath());
             if (url != null) {
                 try {
                     resourceUrl = new URL(BundleResourceURLStreamHandler.PROTOCOL, null,
                             -1, path, new BundleResourceURLStreamHandler(
-                            cache.getBundle(), mappedPath.getEntryPath(path)));
+                            cache, getEntryPath()));
                 } catch (MalformedURLException mue) {
                     log.error("getURL: Cannot get URL for " + this, mue);
                 }
@@ -332,6 +262,15 @@ public class BundleResource extends AbstractResource {
         return resourceUrl;
     }
 
+    private String getEntryPath() {
+        String result = this.entryPath;
+        if (result == null) {
+            result = mappedPath.getEntryPath(path);
+            this.entryPath = result;
+        }
+        return result;
+    }
+
     BundleResourceCache getBundle() {
         return cache;
     }
@@ -343,4 +282,18 @@ public class BundleResource extends AbstractResource {
     boolean isFile() {
         return NT_FILE.equals(getResourceType());
     }
+
+    // ---------- inner class
+
+    private static final class LoadedContent {
+
+        final ValueMap valueMap;
+
+        final Map<String, ContentNode> subResources;
+
+        LoadedContent(final ValueMap valueMap, final Map<String, ContentNode> subResources) {
+            this.valueMap = valueMap;
+            this.subResources = subResources;
+        }
+    }
 }
@@ -18,17 +18,16 @@
  */
 package org.apache.sling.bundleresource.impl;
 
-import java.net.MalformedURLException;
+import java.io.IOException;
 import java.net.URL;
-import java.util.Collections;
+import java.util.ArrayList;
 import java.util.Enumeration;
-import java.util.LinkedHashMap;
-import java.util.LinkedList;
 import java.util.List;
-import java.util.Map;
-import java.util.Map.Entry;
+import java.util.concurrent.TimeUnit;
 
 import org.osgi.framework.Bundle;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
  * The <code>BundleResourceCache</code> implements a simple caching for
@@ -36,80 +35,195 @@ import org.osgi.framework.Bundle;
  * instance uses an instance of this class to access the bundle resources (or
  * bundle entries) through the cache.
  * <p>
- * The cache on the one hand caches single entries as URLs. The other part of
+ * The cache on the one hand caches single entries as URLs along with their
+ * size, which is read once when first requested. The other part of
  * the cache is for the child entries of a given bundle entry path. This caches
- * lists of strings (entry path).
+ * {@link ChildEntries}, which are arrays of entry paths along with the child
+ * resource paths derived from them. Finally the parsed contents of JSON
+ * properties files are cached as immutable {@link ContentNode} trees, so
+ * resources of the same entry do not parse the file again.
  * <p>
- * Currently the cache limits are fixed at {@value #CACHE_SIZE} for the entries
- * cache and at {@value #LIST_CACHE_SIZE} for the child entries cache.
+ * All caches are {@link ConcurrentLruCache} instances, so lookups do not
+ * synchronize on the cache even if many threads resolve resources from the
+ * same bundle. Their {@link CacheStatistics} are published per bundle by a
+ * {@link BundleResourceCacheMBean}.
+ * <p>
+ * The cache limits are taken from the {@link BundleResourceConfiguration},
+ * they default to {@value BundleResourceConfiguration#DEFAULT_ENTRY_CACHE_SIZE}
+ * for the entries cache, to
+ * {@value BundleResourceConfiguration#DEFAULT_LIST_CACHE_SIZE} for the child
+ * entries cache and to
+ * {@value BundleResourceConfiguration#DEFAULT_CONTENT_CACHE_SIZE} for the
+ * content cache. If configured as "auto" the limits are computed from the
+ * number of entries below the mapped roots of the bundle.
+ * <p>
+ * If partitioning is enabled and the bundle maps more than one entry root,
+ * each cache is a {@link PartitionedLruCache}, which splits the limit
+ * between the roots by their cache weights, so the entries of one root are
+ * never evicted by lookups below another root.
  */
 class BundleResourceCache {
 
+    private static final Logger LOG = LoggerFactory.getLogger(BundleResourceCache.class);
+
     /**
-     * The maximum size of the single entry cache (value is 50).
+     * The number of entry cache slots reserved per bundle entry if the entry
+     * cache is sized automatically. Resolving a single resource looks up the
+     * folder, the file and the JSON properties entries.
      */
-    private static final int CACHE_SIZE = 50;
+    private static final int AUTO_ENTRIES_PER_BUNDLE_ENTRY = 3;
 
     /**
-     * The maximum size of the child entry cache (value is 20).
+     * Marker for a content length not read yet.
      */
-    private static final int LIST_CACHE_SIZE = 20;
+    private static final int UNKNOWN_LENGTH = -2;
 
     /**
      * Sentinel for the single entry cache representing a missing entry to
      * prevent looking for non-existing bundle entries multiple times (value is
-     * "file:///not_found").
+     * an entry without URL).
      */
-    private static final URL NOT_FOUND_URL;
+    private static final CachedEntry NOT_FOUND_ENTRY = new CachedEntry(null);
 
     /**
      * Sentinel for the child entry cache representing a missing child list for
      * a given path to prevent looking for non-existing bundle entries multiple
-     * times (value is an empty list).
+     * times (value is {@link ChildEntries#EMPTY}).
+     */
+    private static final ChildEntries NOT_FOUND_CHILDREN = ChildEntries.EMPTY;
+
+    /**
+     * Single entry cache. This is a concurrent map with a size limit,
+     * partitioned by entry root if enabled.
      */
-    private static final List<String> NOT_FOUND_CHILDREN = Collections.emptyList();
+    private final PartitionedLruCache<CachedEntry> cache;
 
     /**
-     * Single entry cache. This is a synchronized map with a size limit.
+     * The child entry cache. This is a concurrent map with a size limit,
+     * partitioned by entry root if enabled.
      */
-    private final Map<String, URL> cache;
+    private final PartitionedLruCache<ChildEntries> listCache;
 
     /**
-     * The child entry cache. This is a synchronized map with a size limit.
+     * The cache of parsed JSON properties files. This is a concurrent map
+     * with a size limit, partitioned by entry root if enabled.
      */
-    private final Map<String, List<String>> listCache;
+    private final PartitionedLruCache<ContentNode> contentCache;
+
+    /**
+     * The names and short string values shared by the parsed JSON properties
+     * files of the bundle.
+     */
+    private final StringPool stringPool = new StringPool();
 
     /**
      * The Bundle providing the resource entries.
      */
     private final Bundle bundle;
 
-    // static initializer setting the NOT_FOUND_URL. Because the
-    // constructor may throw an exception we use a static initializer
-    // which fails the class initialization in the unlikely case
-    // of the URL constructor failing.
-    static {
-        try {
-            NOT_FOUND_URL = new URL("file:/not_found");
-        } catch (MalformedURLException mue) {
-            throw new ExceptionInInitializerError(mue);
-        }
-    }
+    /**
+     * The eagerly built index of the entries below the mapped roots or
+     * <code>null</code> if not enabled or already disposed.
+     */
+    private volatile BundleEntryIndex index;
+
+    /**
+     * Whether resources of the bundle load their contents lazily.
+     */
+    private final boolean lazyResources;
+
+    /**
+     * The nanoseconds taken to create and to register the providers of the
+     * bundle, see {@link #recordStartup(long, long)}.
+     */
+    private volatile long preparationTime;
+
+    private volatile long registrationTime;
 
     /**
      * Creates a new instance of this class providing access to the entries in
-     * the given <code>bundle</code>.
+     * the given <code>bundle</code> using the default cache limits.
      *
      * @param bundle
      */
     BundleResourceCache(Bundle bundle) {
+        this(bundle, BundleResourceConfiguration.DEFAULT, new PathMapping[0]);
+    }
+
+    /**
+     * Creates a new instance of this class providing access to the entries in
+     * the given <code>bundle</code>.
+     *
+     * @param bundle The bundle providing the entries
+     * @param config The configuration for the bundle
+     * @param roots  The roots mapped from the bundle, used to build the entry
+     *               index and to compute the cache limits if they are
+     *               configured as "auto"
+     */
+    BundleResourceCache(Bundle bundle, BundleResourceConfiguration config, PathMapping[] roots) {
+        this(bundle, config, roots, null);
+    }
+
+    /**
+     * Creates a new instance of this class providing access to the entries in
+     * the given <code>bundle</code>.
+     *
+     * @param bundle     The bundle providing the entries
+     * @param config     The configuration for the bundle
+     * @param roots      The roots mapped from the bundle, used to build the
+     *                   entry index and to compute the cache limits if they
+     *                   are configured as "auto"
+     * @param indexStore The store to load and save the entry index, may be
+     *                   <code>null</code> to always build the index
+     */
+    BundleResourceCache(Bundle bundle, BundleResourceConfiguration config, PathMapping[] roots,
+                        BundleEntryIndexStore indexStore) {
         this.bundle = bundle;
+        this.lazyResources = config.isLazy();
+        if (config.isIndexEnabled()) {
+            this.index = indexStore != null
+                    ? indexStore.getIndex(bundle, roots)
+                    : BundleEntryIndex.build(bundle, roots);
+        }
+
+        int entryCacheSize = config.getEntryCacheSize();
+        int listCacheSize = config.getListCacheSize();
+        int contentCacheSize = config.getContentCacheSize();
+        if (entryCacheSize == BundleResourceConfiguration.AUTO_SIZE
+                || listCacheSize == BundleResourceConfiguration.AUTO_SIZE
+                || contentCacheSize == BundleResourceConfiguration.AUTO_SIZE) {
+            final BundleEntryIndex entryIndex = this.index;
+            final int[] counts = entryIndex != null
+                    ? countEntries(entryIndex, roots)
+                    : countEntries(bundle, roots);
+            if (entryCacheSize == BundleResourceConfiguration.AUTO_SIZE) {
+                entryCacheSize = autoSize(counts[0] * AUTO_ENTRIES_PER_BUNDLE_ENTRY,
+                        BundleResourceConfiguration.DEFAULT_ENTRY_CACHE_SIZE, config.getAutoCacheMaxSize());
+            }
+            if (listCacheSize == BundleResourceConfiguration.AUTO_SIZE) {
+                listCacheSize = autoSize(counts[1],
+                        BundleResourceConfiguration.DEFAULT_LIST_CACHE_SIZE, config.getAutoCacheMaxSize());
+            }
+            if (contentCacheSize == BundleResourceConfiguration.AUTO_SIZE) {
+                contentCacheSize = autoSize(counts[2],
+                        BundleResourceConfiguration.DEFAULT_CONTENT_CACHE_SIZE, config.getAutoCacheMaxSize());
+            }
+            LOG.debug("Computed cache limits for bundle {}: {} entries, {} lists, {} contents",
+                    bundle.getBundleId(), entryCacheSize, listCacheSize, contentCacheSize);
+        }
 
-        // create the limited maps wrapping in synchronized maps
-        this.cache = Collections.synchronizedMap(new BundleResourceMap<>(
-                CACHE_SIZE));
-        this.listCache = Collections.synchronizedMap(new BundleResourceMap<>(
-                LIST_CACHE_SIZE));
+        // create the limited maps
+        final String[] partitionRoots = new String[config.isPartitioned() ? roots.length : 0];
+        final int[] partitionWeights = new int[partitionRoots.length];
+        for (int i = 0; i < partitionRoots.length; i++) {
+            final String entryRoot = BundleEntryIndex.getEntryRoot(roots[i]);
+            // the root "/" has no root without trailing slash
+            partitionRoots[i] = entryRoot != null ? entryRoot : "";
+            partitionWeights[i] = roots[i].getCacheWeight();
+        }
+        this.cache = new PartitionedLruCache<>(entryCacheSize, partitionRoots, partitionWeights);
+        this.listCache = new PartitionedLruCache<>(listCacheSize, partitionRoots, partitionWeights);
+        this.contentCache = new PartitionedLruCache<>(contentCacheSize, partitionRoots, partitionWeights);
     }
 
     /**
@@ -119,6 +233,14 @@ class BundleResourceCache {
         return bundle;
     }
 
+    /**
+     * Returns <code>true</code> if resources of the bundle are to read their
+     * properties, sub-resources and metadata only when first accessed.
+     */
+    boolean isLazyResources() {
+        return lazyResources;
+    }
+
     /**
      * Returns the entry in the underlying bundle at the given path. This path
      * is assumed to be an absolute path. If relative it is resolved relative to
@@ -132,59 +254,269 @@ class BundleResourceCache {
      * bundle does not contain the request entry.
      */
     URL getEntry(String path) {
-        URL url = cache.get(path);
-        if (url == null) {
-            url = bundle.getEntry(path);
-
-            if (url == null) {
-                url = NOT_FOUND_URL;
-            }
-
-            cache.put(path, url);
+        final BundleEntryIndex entryIndex = this.index;
+        if (entryIndex != null && entryIndex.isIndexed(path)) {
+            return entryIndex.getEntryUrl(path);
         }
 
-        return (url == NOT_FOUND_URL) ? null : url;
+        return getCachedEntry(path).url;
     }
 
     /**
-     * Returns a list of bundle entry paths considered children of the given
+     * Returns the bundle entries considered children of the given
      * <code>parentPath</code>. This parent path is assumed to be an absolute
      * path. If relative it is resolved relative to the bundle root.
      * <p>
      * This method is backed by the <code>Bundle.getEntryPaths(String)</code>
-     * method but returns an <code>Iterator<String></code> instead of an
+     * method but returns immutable {@link ChildEntries} instead of an
      * <code>Enumeration</code> of strings.
      *
      * @param path The path to the parent entry whose child entries are to
      *             be returned.
-     * @return An <code>Iterator<String></code> providing the paths of
-     * entries considered direct children of the <code>parentPath</code>
-     * or <code>null</code> if the parent entry does not exist.
-     */
-    List<String> getEntryPaths(String path) {
-        List<String> list = listCache.get(path);
-        if (list == null) {
-
-            Enumeration<String> entries = bundle.getEntryPaths(path);
-            if (entries != null && entries.hasMoreElements()) {
-                list = new LinkedList<>();
-                while (entries.hasMoreElements()) {
-                    list.add(entries.nextElement());
+     * @return The child entries of the <code>parentPath</code>, which are
+     * empty if the parent entry does not exist.
+     */
+    ChildEntries getChildEntries(String path) {
+        final BundleEntryIndex entryIndex = this.index;
+        if (entryIndex != null && entryIndex.isIndexed(path)) {
+            final ChildEntries children = entryIndex.getChildEntries(path);
+            return children != null ? children : NOT_FOUND_CHILDREN;
+        }
+
+        final ConcurrentLruCache<ChildEntries> partition = listCache.getPartition(path);
+        ChildEntries children = partition.get(path);
+        if (children == null) {
+
+            final long start = System.nanoTime();
+            children = ChildEntries.of(bundle.getEntryPaths(path));
+
+            partition.put(path, children);
+            partition.getStatistics().recordLoad(System.nanoTime() - start);
+        } else if (children == NOT_FOUND_CHILDREN) {
+            partition.getStatistics().recordNegativeHit();
+        }
+
+        return children;
+    }
+
+    /**
+     * Returns the paths of all entries below the given folder, in any depth,
+     * whose name ends with the given suffix. This method is backed by the
+     * entry index if the folder is indexed, otherwise by the
+     * <code>Bundle.findEntries(String, String, boolean)</code> method. The
+     * result is not cached.
+     *
+     * @param folder The path to the folder entry to search
+     * @param suffix The suffix of the entry names to find
+     * @return The paths of the entries found, which may be empty
+     */
+    List<String> findEntryPaths(String folder, String suffix) {
+        final List<String> paths = new ArrayList<>();
+        final BundleEntryIndex entryIndex = this.index;
+        if (entryIndex != null && entryIndex.isIndexed(folder)) {
+            final String prefix = folder.endsWith("/") ? folder : folder.concat("/");
+            for (final String path : entryIndex.getEntries().keySet()) {
+                if (path.startsWith(prefix) && path.endsWith(suffix)) {
+                    paths.add(path);
                 }
             }
+            return paths;
+        }
 
-            if (list == null) {
-                list = NOT_FOUND_CHILDREN;
+        final Enumeration<URL> entries;
+        try {
+            entries = bundle.findEntries(folder, "*".concat(suffix), true);
+        } catch (final IllegalStateException ise) {
+            // bundle has been uninstalled in the meantime
+            return paths;
+        }
+        while (entries != null && entries.hasMoreElements()) {
+            final String path = entries.nextElement().getPath();
+            if (!path.endsWith("/")) {
+                paths.add(path);
             }
+        }
+        return paths;
+    }
+
+    /**
+     * Returns the parsed contents of the JSON properties entry at the given
+     * path. The returned node is shared with all callers asking for the same
+     * entry and is immutable.
+     *
+     * @param path The path to the JSON properties bundle entry
+     * @return The parsed contents or <code>null</code> if the bundle does
+     * not contain the entry.
+     * @throws IOException If the entry cannot be read
+     */
+    ContentNode getContent(String path) throws IOException {
+        final ConcurrentLruCache<ContentNode> partition = contentCache.getPartition(path);
+        ContentNode content = partition.get(path);
+        if (content == null) {
+            final URL url = getEntry(path);
+            if (url == null) {
+                // missing entries are already cached by the entry cache
+                return null;
+            }
+
+            final long start = System.nanoTime();
+            content = ContentNode.parse(url.openStream(), stringPool);
+            partition.put(path, content);
+            partition.getStatistics().recordLoad(System.nanoTime() - start);
+        }
+
+        return content;
+    }
+
+    /**
+     * Returns the parsed contents of the nested object at the given relative
+     * path of the JSON properties entry at the given path. If the whole entry
+     * is not cached, only the nested object is parsed and cached by itself,
+     * see {@link ContentNode#parse(java.io.InputStream, String[], StringPool)}.
+     *
+     * @param path    The path to the JSON properties bundle entry
+     * @param subPath The names of the nested objects leading to the object
+     * @return The parsed contents or <code>null</code> if the bundle does
+     * not contain the entry or the entry does not contain the object.
+     * @throws IOException If the entry cannot be read
+     */
+    ContentNode getContent(String path, String[] subPath) throws IOException {
+        // the key of the nested object starts with the path, so both are in the same partition
+        final ConcurrentLruCache<ContentNode> partition = contentCache.getPartition(path);
+        // only the lookup answering the request is recorded
+        final ContentNode document = partition.peek(path);
+        if (document != null) {
+            partition.getStatistics().recordHit();
+            return document.getDescendant(subPath);
+        }
+
+        // '#' does not occur in entry paths of JSON properties files
+        final String key = path.concat("#").concat(String.join("/", subPath));
+        ContentNode content = partition.get(key);
+        if (content == null) {
+            final URL url = getEntry(path);
+            if (url == null) {
+                return null;
+            }
+
+            final long start = System.nanoTime();
+            content = ContentNode.parse(url.openStream(), subPath, stringPool);
+            if (content == null) {
+                return null;
+            }
+            partition.put(key, content);
+            partition.getStatistics().recordLoad(System.nanoTime() - start);
+        }
+
+        return content;
+    }
+
+    /**
+     * Returns the nested objects of the JSON properties entry at the given
+     * path. The cached contents are returned if available, otherwise the
+     * nested objects are parsed without their properties and not cached.
+     * Neither is recorded in the content cache statistics, which count the
+     * lookups of resource properties only.
+     *
+     * @param path The path to the JSON properties bundle entry
+     * @return The nested objects or <code>null</code> if the bundle does not
+     * contain the entry.
+     * @throws IOException If the entry cannot be read
+     */
+    ContentNode getContentStructure(String path) throws IOException {
+        final ContentNode content = contentCache.getPartition(path).peek(path);
+        if (content != null) {
+            return content;
+        }
+
+        final URL url = getEntry(path);
+        return url != null ? ContentNode.parseStructure(url.openStream(), stringPool) : null;
+    }
+
+    /**
+     * Returns the size of the entry at the given path or -1 if the entry
+     * does not exist or its size is unknown.
+     */
+    int getContentLength(String path) {
+        final BundleEntryIndex entryIndex = this.index;
+        if (entryIndex != null && entryIndex.isIndexed(path)) {
+            return entryIndex.getContentLength(path);
+        }
+
+        final CachedEntry entry = getCachedEntry(path);
+        if (entry.url == null) {
+            return -1;
+        }
 
-            listCache.put(path, list);
+        int contentLength = entry.contentLength;
+        if (contentLength == UNKNOWN_LENGTH) {
+            contentLength = -1;
+            try {
+                contentLength = entry.url.openConnection().getContentLength();
+            } catch (final Exception e) {
+                // don't care, we just have no content length
+            }
+            entry.contentLength = contentLength;
         }
+        return contentLength;
+    }
 
-        return list;
+    /**
+     * Releases the entry index and the cached entries. Called when the
+     * bundle is stopped. Subsequent lookups are served from the bundle.
+     */
+    void dispose() {
+        this.index = null;
+        this.cache.clear();
+        this.listCache.clear();
+        this.contentCache.clear();
+        this.stringPool.clear();
     }
 
     // ---------- Management API
 
+    /**
+     * Records the nanoseconds taken to create this cache and the providers
+     * of the bundle and to register the providers.
+     */
+    void recordStartup(final long preparationNanos, final long registrationNanos) {
+        this.preparationTime = preparationNanos;
+        this.registrationTime = registrationNanos;
+    }
+
+    /**
+     * Returns the milliseconds taken to create this cache and the providers
+     * of the bundle, including indexing the bundle entries.
+     */
+    double getPreparationTime() {
+        return (double) preparationTime / TimeUnit.MILLISECONDS.toNanos(1);
+    }
+
+    /**
+     * Returns the milliseconds taken to register the providers of the bundle
+     * and to schedule reporting their resources as added.
+     */
+    double getRegistrationTime() {
+        return (double) registrationTime / TimeUnit.MILLISECONDS.toNanos(1);
+    }
+
+    /**
+     * Returns the number of strings shared by the parsed JSON properties
+     * files.
+     */
+    int getStringPoolSize() {
+        return stringPool.size();
+    }
+
+    /**
+     * Returns the number of entries in the entry index or -1 if the bundle
+     * entries are not indexed.
+     */
+    int getIndexSize() {
+        final BundleEntryIndex entryIndex = this.index;
+        return entryIndex != null ? entryIndex.size() : -1;
+    }
+
     /**
      * Returns the current number of entries stored in the entry cache. This
      * number includes "negative" entries, which are requested entries not found
@@ -195,11 +527,10 @@ class BundleResourceCache {
     }
 
     /**
-     * Returns the maximum number of entries to be stored in the cache. This
-     * number is currently fixed at {@link #CACHE_SIZE}
+     * Returns the maximum number of entries to be stored in the cache.
      */
     int getEntryCacheMaxSize() {
-        return CACHE_SIZE;
+        return cache.getLimit();
     }
 
     /**
@@ -213,63 +544,170 @@ class BundleResourceCache {
 
     /**
      * Returns the maximum number of list entries to be stored in the cache.
-     * This number is currently fixed at {@link #LIST_CACHE_SIZE}
      */
     int getListCacheMaxSize() {
-        return LIST_CACHE_SIZE;
+        return listCache.getLimit();
     }
 
-    // ---------- inner class
+    /**
+     * Returns the current number of parsed JSON properties files stored in
+     * the content cache.
+     */
+    int getContentCacheSize() {
+        return contentCache.size();
+    }
+
+    /**
+     * Returns the maximum number of parsed JSON properties files to be stored
+     * in the content cache.
+     */
+    int getContentCacheMaxSize() {
+        return contentCache.getLimit();
+    }
+
+    /**
+     * Returns the hit, miss and eviction counts of the entry cache.
+     */
+    CacheStatistics getEntryCacheStatistics() {
+        return cache.getStatistics();
+    }
 
     /**
-     * The <code>BundleResourceMap</code> class extends the
-     * <code>LinkedHashMap</code> class overwriting the
-     * {@link #removeEldestEntry(Entry)} method to implement the size limit,
-     * which is set in the constructor.
-     */
-    private static class BundleResourceMap<V> extends
-            LinkedHashMap<String, V> {
-
-        private static final long serialVersionUID = 7455098291380945276L;
-
-        /**
-         * The default size of a bundle resource cache (value is 20).
-         */
-        private static final int DEFAULT_LIMIT = 20;
-
-        /**
-         * The limit configured for this map.
-         */
-        private final int limit;
-
-        /**
-         * Creates a new instance of this size limited map.
-         *
-         * @param limit The maximum number of entries in this map. If this value
-         *              is less than or equal to zero, the default size of
-         *              {@link #DEFAULT_LIMIT} is used.
-         */
-        BundleResourceMap(int limit) {
-            // deliberately chosen initial size and load factor, but
-            // we need the access-order to implement the LRU mechanism
-            super(8, 0.75f, true);
-
-            // normalize size to a positive number
-            if (limit <= 0) {
-                limit = DEFAULT_LIMIT;
+     * Returns the hit, miss and eviction counts of the list cache.
+     */
+    CacheStatistics getListCacheStatistics() {
+        return listCache.getStatistics();
+    }
+
+    /**
+     * Returns the hit, miss and eviction counts of the content cache.
+     */
+    CacheStatistics getContentCacheStatistics() {
+        return contentCache.getStatistics();
+    }
+
+    /**
+     * Returns <code>true</code> if the caches are partitioned by entry root.
+     */
+    boolean isPartitioned() {
+        return cache.isPartitioned();
+    }
+
+    /**
+     * Returns the entry cache partition of the given mapped root or
+     * <code>null</code> if the caches are not partitioned.
+     */
+    ConcurrentLruCache<?> getEntryCachePartition(final PathMapping root) {
+        return cache.getRootPartition(getPartitionRoot(root));
+    }
+
+    /**
+     * Returns the list cache partition of the given mapped root or
+     * <code>null</code> if the caches are not partitioned.
+     */
+    ConcurrentLruCache<?> getListCachePartition(final PathMapping root) {
+        return listCache.getRootPartition(getPartitionRoot(root));
+    }
+
+    /**
+     * Returns the content cache partition of the given mapped root or
+     * <code>null</code> if the caches are not partitioned.
+     */
+    ConcurrentLruCache<?> getContentCachePartition(final PathMapping root) {
+        return contentCache.getRootPartition(getPartitionRoot(root));
+    }
+
+    // ---------- internal
+
+    private static String getPartitionRoot(final PathMapping root) {
+        final String entryRoot = BundleEntryIndex.getEntryRoot(root);
+        return entryRoot != null ? entryRoot : "";
+    }
+
+    private CachedEntry getCachedEntry(final String path) {
+        final ConcurrentLruCache<CachedEntry> partition = cache.getPartition(path);
+        CachedEntry entry = partition.get(path);
+        if (entry == null) {
+            final long start = System.nanoTime();
+            final URL url = bundle.getEntry(path);
+            entry = url != null ? new CachedEntry(url) : NOT_FOUND_ENTRY;
+            partition.put(path, entry);
+            partition.getStatistics().recordLoad(System.nanoTime() - start);
+        } else if (entry == NOT_FOUND_ENTRY) {
+            partition.getStatistics().recordNegativeHit();
+        }
+        return entry;
+    }
+
+    /**
+     * Counts the entries below the given roots of the bundle. Returns an
+     * array of the number of all entries, the number of folder entries and
+     * the number of JSON properties entries.
+     */
+    private static int[] countEntries(final Bundle bundle, final PathMapping[] roots) {
+        final int[] counts = new int[3];
+        for (final PathMapping root : roots) {
+            final String entryRoot = root.getEntryRoot() != null ? root.getEntryRoot() : root.getResourceRoot();
+            final Enumeration<URL> entries;
+            try {
+                entries = bundle.findEntries(entryRoot, "*", true);
+            } catch (final IllegalStateException ise) {
+                // bundle has been uninstalled in the meantime
+                break;
+            }
+            while (entries != null && entries.hasMoreElements()) {
+                count(counts, entries.nextElement().getPath(), roots);
             }
+        }
+        return counts;
+    }
 
-            this.limit = limit;
+    /**
+     * Counts the entries of the entry index like
+     * {@link #countEntries(Bundle, PathMapping[])} does for the bundle.
+     */
+    private static int[] countEntries(final BundleEntryIndex index, final PathMapping[] roots) {
+        final int[] counts = new int[3];
+        for (final String path : index.getEntries().keySet()) {
+            count(counts, path, roots);
         }
+        return counts;
+    }
 
-        /**
-         * Returns <code>true</code> if the current number of elements in the
-         * map exceeds the configured limit.
-         */
-        @Override
-        protected boolean removeEldestEntry(Entry<String, V> eldest) {
-            return size() > limit;
+    private static void count(final int[] counts, final String path, final PathMapping[] roots) {
+        counts[0]++;
+        if (path.endsWith("/")) {
+            counts[1]++;
+        } else {
+            for (final PathMapping root : roots) {
+                final String extension = root.getJSONPropertiesExtension();
+                if (extension != null && path.endsWith(extension)) {
+                    counts[2]++;
+                    break;
+                }
+            }
         }
     }
 
+    private static int autoSize(final int size, final int min, final int max) {
+        return Math.max(min, Math.min(size, max));
+    }
+
+    // ---------- inner class
+
+    /**
+     * An entry of the single entry cache: the URL of the bundle entry, which
+     * is <code>null</code> for missing entries, and its size, which is read
+     * once when first requested.
+     */
+    private static final class CachedEntry {
+
+        final URL url;
+
+        volatile int contentLength = UNKNOWN_LENGTH;
+
+        CachedEntry(final URL url) {
+            this.url = url;
+        }
+    }
 }
@@ -0,0 +1,80 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.bundleresource.impl;
+
+/**
+ * The <code>BundleResourceCacheMBean</code> publishes the sizes and the
+ * statistics of the caches of a bundle providing resources. Load times are
+ * average times in microseconds, the preparation and registration times of
+ * the providers of the bundle are in milliseconds.
+ */
+public interface BundleResourceCacheMBean {
+
+    long getBundleId();
+
+    String getBundleSymbolicName();
+
+    int getEntryIndexSize();
+
+    int getStringPoolSize();
+
+    double getPreparationTime();
+
+    double getRegistrationTime();
+
+    int getEntryCacheSize();
+
+    int getEntryCacheLimit();
+
+    long getEntryCacheHits();
+
+    long getEntryCacheNegativeHits();
+
+    long getEntryCacheMisses();
+
+    long getEntryCacheEvictions();
+
+    double getEntryCacheAverageLoadTime();
+
+    int getListCacheSize();
+
+    int getListCacheLimit();
+
+    long getListCacheHits();
+
+    long getListCacheNegativeHits();
+
+    long getListCacheMisses();
+
+    long getListCacheEvictions();
+
+    double getListCacheAverageLoadTime();
+
+    int getContentCacheSize();
+
+    int getContentCacheLimit();
+
+    long getContentCacheHits();
+
+    long getContentCacheMisses();
+
+    long getContentCacheEvictions();
+
+    double getContentCacheAverageLoadTime();
+}
@@ -0,0 +1,218 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.bundleresource.impl;
+
+import java.util.Dictionary;
+import java.util.Hashtable;
+
+import javax.management.DynamicMBean;
+import javax.management.NotCompliantMBeanException;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.Constants;
+import org.osgi.framework.ServiceRegistration;
+
+/**
+ * The <code>BundleResourceCacheMBeanImpl</code> exposes a
+ * {@link BundleResourceCache} as {@link BundleResourceCacheMBean}. It is
+ * registered as an OSGi service with a <code>jmx.objectname</code> property,
+ * which a JMX whiteboard picks up to register it with the MBean server.
+ */
+class BundleResourceCacheMBeanImpl extends StandardMBean implements BundleResourceCacheMBean {
+
+    /**
+     * The domain of the object names of the MBeans (value is
+     * "org.apache.sling.bundleresource").
+     */
+    static final String DOMAIN = "org.apache.sling.bundleresource";
+
+    private static final String PROP_OBJECT_NAME = "jmx.objectname";
+
+    private final BundleResourceCache cache;
+
+    private volatile ServiceRegistration<DynamicMBean> serviceRegistration;
+
+    BundleResourceCacheMBeanImpl(final BundleResourceCache cache) throws NotCompliantMBeanException {
+        super(BundleResourceCacheMBean.class);
+        this.cache = cache;
+    }
+
+    /**
+     * Returns the object name of the MBean of the given bundle.
+     */
+    static String getObjectName(final Bundle bundle) {
+        final String name = bundle.getSymbolicName() != null ? bundle.getSymbolicName() : "";
+        return DOMAIN + ":type=BundleResourceCache,bundle=" + ObjectName.quote(name)
+                + ",id=" + bundle.getBundleId();
+    }
+
+    void registerService(final BundleContext context) {
+        final Dictionary<String, Object> props = new Hashtable<>();
+        props.put(Constants.SERVICE_DESCRIPTION,
+                "Cache statistics of bundle resources of bundle " + cache.getBundle().getBundleId());
+        props.put(Constants.SERVICE_VENDOR, "The Apache Software Foundation");
+        props.put(PROP_OBJECT_NAME, getObjectName(cache.getBundle()));
+
+        serviceRegistration = context.registerService(DynamicMBean.class, this, props);
+    }
+
+    void unregisterService() {
+        if (serviceRegistration != null) {
+            try {
+                serviceRegistration.unregister();
+            } catch (final IllegalStateException ise) {
+                // this might happen on shutdown, so ignore
+            }
+            serviceRegistration = null;
+        }
+    }
+
+    @Override
+    public long getBundleId() {
+        return cache.getBundle().getBundleId();
+    }
+
+    @Override
+    public String getBundleSymbolicName() {
+        return cache.getBundle().getSymbolicName();
+    }
+
+    @Override
+    public int getEntryIndexSize() {
+        return cache.getIndexSize();
+    }
+
+    @Override
+    public int getStringPoolSize() {
+        return cache.getStringPoolSize();
+    }
+
+    @Override
+    public double getPreparationTime() {
+        return cache.getPreparationTime();
+    }
+
+    @Override
+    public double getRegistrationTime() {
+        return cache.getRegistrationTime();
+    }
+
+    @Override
+    public int getEntryCacheSize() {
+        return cache.getEntryCacheSize();
+    }
+
+    @Override
+    public int getEntryCacheLimit() {
+        return cache.getEntryCacheMaxSize();
+    }
+
+    @Override
+    public long getEntryCacheHits() {
+        return cache.getEntryCacheStatistics().getHitCount();
+    }
+
+    @Override
+    public long getEntryCacheNegativeHits() {
+        return cache.getEntryCacheStatistics().getNegativeHitCount();
+    }
+
+    @Override
+    public long getEntryCacheMisses() {
+        return cache.getEntryCacheStatistics().getMissCount();
+    }
+
+    @Override
+    public long getEntryCacheEvictions() {
+        return cache.getEntryCacheStatistics().getEvictionCount();
+    }
+
+    @Override
+    public double getEntryCacheAverageLoadTime() {
+        return cache.getEntryCacheStatistics().getAverageLoadTime();
+    }
+
+    @Override
+    public int getListCacheSize() {
+        return cache.getListCacheSize();
+    }
+
+    @Override
+    public int getListCacheLimit() {
+        return cache.getListCacheMaxSize();
+    }
+
+    @Override
+    public long getListCacheHits() {
+        return cache.getListCacheStatistics().getHitCount();
+    }
+
+    @Override
+    public long getListCacheNegativeHits() {
+        return cache.getListCacheStatistics().getNegativeHitCount();
+    }
+
+    @Override
+    public long getListCacheMisses() {
+        return cache.getListCacheStatistics().getMissCount();
+    }
+
+    @Override
+    public long getListCacheEvictions() {
+        return cache.getListCacheStatistics().getEvictionCount();
+    }
+
+    @Override
+    public double getListCacheAverageLoadTime() {
+        return cache.getListCacheStatistics().getAverageLoadTime();
+    }
+
+    @Override
+    public int getContentCacheSize() {
+        return cache.getContentCacheSize();
+    }
+
+    @Override
+    public int getContentCacheLimit() {
+        return cache.getContentCacheMaxSize();
+    }
+
+    @Override
+    public long getContentCacheHits() {
+        return cache.getContentCacheStatistics().getHitCount();
+    }
+
+    @Override
+    public long getContentCacheMisses() {
+        return cache.getContentCacheStatistics().getMissCount();
+    }
+
+    @Override
+    public long getContentCacheEvictions() {
+        return cache.getContentCacheStatistics().getEvictionCount();
+    }
+
+    @Override
+    public double getContentCacheAverageLoadTime() {
+        return cache.getContentCacheStatistics().getAverageLoadTime();
+    }
+}
@@ -0,0 +1,487 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.bundleresource.impl;
+
+import org.apache.sling.bundleresource.impl.reporting.ResourceChangeReporter;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The <code>BundleResourceConfiguration</code> holds the settings of the
+ * bundle resource provider.
+ * <p>
+ * The defaults are read from the framework properties when the provider
+ * bundle is started. A bundle providing resources may overwrite them with the
+ * {@value #BUNDLE_RESOURCE_CACHE} manifest header, which is a comma separated
+ * list of <code>name=value</code> pairs, for example:
+ * <pre>
+ * Sling-Bundle-Resources-Cache: entries=500, lists=auto, content=200, index=true
+ * </pre>
+ */
+class BundleResourceConfiguration {
+
+    /**
+     * The name of the bundle manifest header overwriting the cache settings
+     * for the bundle (value is "Sling-Bundle-Resources-Cache").
+     */
+    static final String BUNDLE_RESOURCE_CACHE = "Sling-Bundle-Resources-Cache";
+
+    /**
+     * Framework property setting the maximum size of the single entry cache.
+     */
+    static final String PROP_ENTRY_CACHE_SIZE = "sling.bundleresource.cache.entries";
+
+    /**
+     * Framework property setting the maximum size of the child entry cache.
+     */
+    static final String PROP_LIST_CACHE_SIZE = "sling.bundleresource.cache.lists";
+
+    /**
+     * Framework property setting the maximum size of the cache of parsed JSON
+     * properties files.
+     */
+    static final String PROP_CONTENT_CACHE_SIZE = "sling.bundleresource.cache.content";
+
+    /**
+     * Framework property setting the maximum number of resource paths per
+     * provider remembered as not existing in the bundle.
+     */
+    static final String PROP_MISS_CACHE_SIZE = "sling.bundleresource.cache.misses";
+
+    /**
+     * Framework property setting the upper bound for cache sizes computed from
+     * the number of bundle entries.
+     */
+    static final String PROP_AUTO_CACHE_MAX_SIZE = "sling.bundleresource.cache.auto.max";
+
+    /**
+     * Framework property enabling the eager {@link BundleEntryIndex} of the
+     * bundle entries.
+     */
+    static final String PROP_INDEX = "sling.bundleresource.index";
+
+    /**
+     * Framework property enabling persisting the {@link BundleEntryIndex} of
+     * bundles with an enabled index in the data area of the provider bundle.
+     */
+    static final String PROP_INDEX_PERSIST = "sling.bundleresource.index.persist";
+
+    /**
+     * Framework property enabling lazy resources, which read their properties
+     * and metadata only when first accessed.
+     */
+    static final String PROP_LAZY = "sling.bundleresource.lazy";
+
+    /**
+     * Framework property enabling partitioning the caches of bundles mapping
+     * several entry roots, each root getting a share of the cache limits.
+     */
+    static final String PROP_CACHE_PARTITIONED = "sling.bundleresource.cache.partitioned";
+
+    /**
+     * Framework property enabling latency metrics per mapped root, which are
+     * published as {@link BundleResourceProviderMBean}.
+     */
+    static final String PROP_METRICS = "sling.bundleresource.metrics";
+
+    /**
+     * Framework property setting the number of threads preparing the
+     * providers of the bundles already active when this bundle is started.
+     */
+    static final String PROP_STARTUP_THREADS = "sling.bundleresource.startup.threads";
+
+    /**
+     * Framework property setting the maximum number of resource changes
+     * reported at once when the resources of a provider are added or
+     * removed.
+     */
+    static final String PROP_CHANGE_BATCH_SIZE = "sling.bundleresource.changes.batch";
+
+    /**
+     * Framework property enabling reporting only the resources changed by a
+     * bundle update instead of all resources as removed and added.
+     */
+    static final String PROP_CHANGE_DIFF = "sling.bundleresource.changes.diff";
+
+    /**
+     * Framework property setting the milliseconds the removal of resources
+     * is delayed to be compared with the resources of the updated bundle,
+     * 0 to report removals right away.
+     */
+    static final String PROP_CHANGE_GRACE_PERIOD = "sling.bundleresource.changes.grace";
+
+    /**
+     * Header attribute overwriting {@link #PROP_ENTRY_CACHE_SIZE}.
+     */
+    static final String ATTR_ENTRIES = "entries";
+
+    /**
+     * Header attribute overwriting {@link #PROP_LIST_CACHE_SIZE}.
+     */
+    static final String ATTR_LISTS = "lists";
+
+    /**
+     * Header attribute overwriting {@link #PROP_CONTENT_CACHE_SIZE}.
+     */
+    static final String ATTR_CONTENT = "content";
+
+    /**
+     * Header attribute overwriting {@link #PROP_MISS_CACHE_SIZE}.
+     */
+    static final String ATTR_MISSES = "misses";
+
+    /**
+     * Header attribute overwriting {@link #PROP_CACHE_PARTITIONED}.
+     */
+    static final String ATTR_PARTITIONED = "partitioned";
+
+    /**
+     * Header attribute overwriting {@link #PROP_INDEX}.
+     */
+    static final String ATTR_INDEX = "index";
+
+    /**
+     * Header attribute overwriting {@link #PROP_LAZY}.
+     */
+    static final String ATTR_LAZY = "lazy";
+
+    /**
+     * Header attribute overwriting {@link #PROP_METRICS}.
+     */
+    static final String ATTR_METRICS = "metrics";
+
+    /**
+     * Value of a cache size setting requesting the size to be computed from
+     * the number of entries in the bundle (value is "auto").
+     */
+    static final String AUTO = "auto";
+
+    /**
+     * Internal representation of the {@link #AUTO} cache size.
+     */
+    static final int AUTO_SIZE = -1;
+
+    static final int DEFAULT_ENTRY_CACHE_SIZE = 50;
+
+    static final int DEFAULT_LIST_CACHE_SIZE = 20;
+
+    static final int DEFAULT_CONTENT_CACHE_SIZE = 50;
+
+    static final int DEFAULT_MISS_CACHE_SIZE = 100;
+
+    static final int DEFAULT_AUTO_CACHE_MAX_SIZE = 10000;
+
+    static final int DEFAULT_STARTUP_THREADS = Math.min(4, Runtime.getRuntime().availableProcessors());
+
+    /**
+     * The configuration used if nothing is configured at all.
+     */
+    static final BundleResourceConfiguration DEFAULT = new BundleResourceConfiguration();
+
+    private static final Logger LOG = LoggerFactory.getLogger(BundleResourceConfiguration.class);
+
+    private int entryCacheSize = DEFAULT_ENTRY_CACHE_SIZE;
+
+    private int listCacheSize = DEFAULT_LIST_CACHE_SIZE;
+
+    private int contentCacheSize = DEFAULT_CONTENT_CACHE_SIZE;
+
+    private int missCacheSize = DEFAULT_MISS_CACHE_SIZE;
+
+    private int autoCacheMaxSize = DEFAULT_AUTO_CACHE_MAX_SIZE;
+
+    private boolean partitioned;
+
+    private boolean indexEnabled;
+
+    private boolean indexPersisted;
+
+    private boolean lazy;
+
+    private boolean metricsEnabled;
+
+    private int startupThreads = DEFAULT_STARTUP_THREADS;
+
+    private int changeBatchSize = ResourceChangeReporter.DEFAULT_BATCH_SIZE;
+
+    private boolean changeDiffEnabled;
+
+    private int changeGracePeriod = (int) ResourceChangeReporter.DEFAULT_GRACE_PERIOD;
+
+    private BundleResourceConfiguration() {
+    }
+
+    private BundleResourceConfiguration(final BundleResourceConfiguration base) {
+        this.entryCacheSize = base.entryCacheSize;
+        this.listCacheSize = base.listCacheSize;
+        this.contentCacheSize = base.contentCacheSize;
+        this.missCacheSize = base.missCacheSize;
+        this.autoCacheMaxSize = base.autoCacheMaxSize;
+        this.partitioned = base.partitioned;
+        this.indexEnabled = base.indexEnabled;
+        this.indexPersisted = base.indexPersisted;
+        this.lazy = base.lazy;
+        this.metricsEnabled = base.metricsEnabled;
+        this.startupThreads = base.startupThreads;
+        this.changeBatchSize = base.changeBatchSize;
+        this.changeDiffEnabled = base.changeDiffEnabled;
+        this.changeGracePeriod = base.changeGracePeriod;
+    }
+
+    /**
+     * Creates the configuration from the framework properties visible to the
+     * given bundle context.
+     */
+    static BundleResourceConfiguration fromContext(final BundleContext context) {
+        final BundleResourceConfiguration config = new BundleResourceConfiguration();
+        config.entryCacheSize = toCacheSize(PROP_ENTRY_CACHE_SIZE,
+                context.getProperty(PROP_ENTRY_CACHE_SIZE), config.entryCacheSize);
+        config.listCacheSize = toCacheSize(PROP_LIST_CACHE_SIZE,
+                context.getProperty(PROP_LIST_CACHE_SIZE), config.listCacheSize);
+        config.contentCacheSize = toCacheSize(PROP_CONTENT_CACHE_SIZE,
+                context.getProperty(PROP_CONTENT_CACHE_SIZE), config.contentCacheSize);
+        config.missCacheSize = toCacheSize(PROP_MISS_CACHE_SIZE,
+                context.getProperty(PROP_MISS_CACHE_SIZE), config.missCacheSize);
+        config.autoCacheMaxSize = toCacheSize(PROP_AUTO_CACHE_MAX_SIZE,
+                context.getProperty(PROP_AUTO_CACHE_MAX_SIZE), config.autoCacheMaxSize);
+        if (config.autoCacheMaxSize == AUTO_SIZE) {
+            config.autoCacheMaxSize = DEFAULT_AUTO_CACHE_MAX_SIZE;
+        }
+        config.partitioned = toBoolean(context.getProperty(PROP_CACHE_PARTITIONED), config.partitioned);
+        config.indexEnabled = toBoolean(context.getProperty(PROP_INDEX), config.indexEnabled);
+        config.indexPersisted = toBoolean(context.getProperty(PROP_INDEX_PERSIST), config.indexPersisted);
+        config.lazy = toBoolean(context.getProperty(PROP_LAZY), config.lazy);
+        config.metricsEnabled = toBoolean(context.getProperty(PROP_METRICS), config.metricsEnabled);
+        config.startupThreads = toPositive(PROP_STARTUP_THREADS,
+                context.getProperty(PROP_STARTUP_THREADS), config.startupThreads);
+        config.changeBatchSize = toPositive(PROP_CHANGE_BATCH_SIZE,
+                context.getProperty(PROP_CHANGE_BATCH_SIZE), config.changeBatchSize);
+        config.changeDiffEnabled = toBoolean(context.getProperty(PROP_CHANGE_DIFF), config.changeDiffEnabled);
+        config.changeGracePeriod = toNonNegative(PROP_CHANGE_GRACE_PERIOD,
+                context.getProperty(PROP_CHANGE_GRACE_PERIOD), config.changeGracePeriod);
+        return config;
+    }
+
+    /**
+     * Returns the configuration to be used for the given bundle, which is this
+     * configuration with the settings from the {@link #BUNDLE_RESOURCE_CACHE}
+     * header of the bundle applied.
+     */
+    BundleResourceConfiguration forBundle(final Bundle bundle) {
+        final String header = bundle.getHeaders().get(BUNDLE_RESOURCE_CACHE);
+        if (header == null || header.trim().isEmpty()) {
+            return this;
+        }
+
+        final BundleResourceConfiguration config = new BundleResourceConfiguration(this);
+        for (final String setting : header.split(",")) {
+            final int sep = setting.indexOf('=');
+            final String name = (sep < 0 ? setting : setting.substring(0, sep)).trim();
+            final String value = sep < 0 ? null : setting.substring(sep + 1).trim();
+            if (ATTR_ENTRIES.equals(name)) {
+                config.entryCacheSize = toCacheSize(name, value, config.entryCacheSize);
+            } else if (ATTR_LISTS.equals(name)) {
+                config.listCacheSize = toCacheSize(name, value, config.listCacheSize);
+            } else if (ATTR_CONTENT.equals(name)) {
+                config.contentCacheSize = toCacheSize(name, value, config.contentCacheSize);
+            } else if (ATTR_MISSES.equals(name)) {
+                config.missCacheSize = toCacheSize(name, value, config.missCacheSize);
+            } else if (ATTR_PARTITIONED.equals(name)) {
+                config.partitioned = toBoolean(value, true);
+            } else if (ATTR_INDEX.equals(name)) {
+                config.indexEnabled = toBoolean(value, true);
+            } else if (ATTR_LAZY.equals(name)) {
+                config.lazy = toBoolean(value, true);
+            } else if (ATTR_METRICS.equals(name)) {
+                config.metricsEnabled = toBoolean(value, true);
+            } else if (!name.isEmpty()) {
+                LOG.warn("Ignoring unknown setting '{}' in {} header of bundle {}",
+                        name, BUNDLE_RESOURCE_CACHE, bundle.getBundleId());
+            }
+        }
+        return config;
+    }
+
+    /**
+     * Returns the maximum size of the single entry cache or {@link #AUTO_SIZE}
+     * if the size is to be computed from the bundle entries.
+     */
+    int getEntryCacheSize() {
+        return entryCacheSize;
+    }
+
+    /**
+     * Returns the maximum size of the child entry cache or {@link #AUTO_SIZE}
+     * if the size is to be computed from the bundle entries.
+     */
+    int getListCacheSize() {
+        return listCacheSize;
+    }
+
+    /**
+     * Returns the maximum size of the cache of parsed JSON properties files or
+     * {@link #AUTO_SIZE} if the size is to be computed from the bundle entries.
+     */
+    int getContentCacheSize() {
+        return contentCacheSize;
+    }
+
+    /**
+     * Returns the maximum number of resource paths per provider remembered as
+     * not existing. This size is not computed from the bundle entries, for
+     * "auto" the default of {@value #DEFAULT_MISS_CACHE_SIZE} is used.
+     */
+    int getMissCacheSize() {
+        return missCacheSize == AUTO_SIZE ? DEFAULT_MISS_CACHE_SIZE : missCacheSize;
+    }
+
+    /**
+     * Returns the upper bound for cache sizes computed from the bundle entries.
+     */
+    int getAutoCacheMaxSize() {
+        return autoCacheMaxSize;
+    }
+
+    /**
+     * Returns <code>true</code> if the caches are to be partitioned between
+     * the entry roots mapped by the bundle.
+     */
+    boolean isPartitioned() {
+        return partitioned;
+    }
+
+    /**
+     * Returns <code>true</code> if the bundle entries are to be indexed
+     * eagerly when the bundle is started.
+     */
+    boolean isIndexEnabled() {
+        return indexEnabled;
+    }
+
+    /**
+     * Returns <code>true</code> if entry indexes are to be persisted. This
+     * is a global setting, which cannot be overwritten per bundle.
+     */
+    boolean isIndexPersisted() {
+        return indexPersisted;
+    }
+
+    /**
+     * Returns <code>true</code> if resources are to read their properties,
+     * sub-resources and metadata only when first accessed.
+     */
+    boolean isLazy() {
+        return lazy;
+    }
+
+    /**
+     * Returns <code>true</code> if the latencies of the providers are to be
+     * recorded.
+     */
+    boolean isMetricsEnabled() {
+        return metricsEnabled;
+    }
+
+    /**
+     * Returns the number of threads preparing the providers of the active
+     * bundles on startup, 1 to prepare them on the starting thread. This is
+     * a global setting, which cannot be overwritten per bundle.
+     */
+    int getStartupThreads() {
+        return startupThreads;
+    }
+
+    /**
+     * Returns the maximum number of resource changes reported at once. This
+     * is a global setting, which cannot be overwritten per bundle.
+     */
+    int getChangeBatchSize() {
+        return changeBatchSize;
+    }
+
+    /**
+     * Returns <code>true</code> if only the resources changed by a bundle
+     * update are to be reported. This is a global setting, which cannot be
+     * overwritten per bundle.
+     */
+    boolean isChangeDiffEnabled() {
+        return changeDiffEnabled;
+    }
+
+    /**
+     * Returns the milliseconds the removal of resources is delayed if only
+     * changed resources are reported. This is a global setting, which
+     * cannot be overwritten per bundle.
+     */
+    int getChangeGracePeriod() {
+        return changeGracePeriod;
+    }
+
+    private static boolean toBoolean(final String value, final boolean defaultValue) {
+        if (value == null || value.trim().isEmpty()) {
+            return defaultValue;
+        }
+        return Boolean.parseBoolean(value.trim());
+    }
+
+    private static int toCacheSize(final String name, final String value, final int defaultValue) {
+        if (value == null || value.trim().isEmpty()) {
+            return defaultValue;
+        }
+        if (AUTO.equalsIgnoreCase(value.trim())) {
+            return AUTO_SIZE;
+        }
+        try {
+            final int size = Integer.parseInt(value.trim());
+            if (size > 0) {
+                return size;
+            }
+        } catch (final NumberFormatException nfe) {
+            // fall through
+        }
+        LOG.warn("Ignoring invalid cache size '{}' for {}, using {}", value, name, defaultValue);
+        return defaultValue;
+    }
+
+    private static int toPositive(final String name, final String value, final int defaultValue) {
+        return toNumber(name, value, defaultValue, 1);
+    }
+
+    private static int toNonNegative(final String name, final String value, final int defaultValue) {
+        return toNumber(name, value, defaultValue, 0);
+    }
+
+    private static int toNumber(final String name, final String value, final int defaultValue, final int minimum) {
+        if (value == null || value.trim().isEmpty()) {
+            return defaultValue;
+        }
+        try {
+            final int number = Integer.parseInt(value.trim());
+            if (number >= minimum) {
+                return number;
+            }
+        } catch (final NumberFormatException nfe) {
+            // fall through
+        }
+        LOG.warn("Ignoring invalid value '{}' for {}, using {}", value, name, defaultValue);
+        return defaultValue;
+    }
+}
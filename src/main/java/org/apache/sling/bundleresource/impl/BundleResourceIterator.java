@@ -18,31 +18,18 @@
  */
 package org.apache.sling.bundleresource.impl;
 
-import java.util.LinkedHashMap;
-import java.util.LinkedHashSet;
 import java.util.Iterator;
-import java.util.Map;
 import java.util.NoSuchElementException;
-import java.util.Set;
 
 import org.apache.sling.api.resource.Resource;
 import org.apache.sling.api.resource.ResourceResolver;
-import org.apache.sling.api.resource.ResourceUtil;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
 
 /**
  * The <code>BundleResourceIterator</code> class is a resource iterator, which
- * returns resources for each Bundle entry of an underlying enumeration of
- * Bundle entry paths.
+ * returns resources for each child of a {@link ChildListing}.
  */
 class BundleResourceIterator implements Iterator<Resource> {
 
-    /**
-     * default log
-     */
-    private final Logger log = LoggerFactory.getLogger(getClass());
-
     /**
      * The bundle resource resolver
      */
@@ -56,79 +43,23 @@ class BundleResourceIterator implements Iterator<Resource> {
     private final PathMapping mappedPath;
 
     /**
-     * Underlying bundle entry path enumeration
-     */
-    private final Iterator<String> entries;
-
-    /**
-     * The length of the parent entry path, see seek()
-     */
-    private final int prefixLength;
-
-    /**
-     * The prefetched next iterator entry, null at the end of iterating
+     * The shared children to iterate, never modified
      */
-    private Resource nextResult;
-
-    private final Map<String, Map<String, Object>> subResources;
+    private final ChildListing children;
 
     /**
-     * Creates an instance using the given parent bundle resource.
+     * The position of the next child to return
      */
-    BundleResourceIterator(final BundleResource parent) {
-        this(parent.getResourceResolver(),
-                parent.getBundle(),
-                parent.getMappedPath(),
-                parent.getPath(),
-                parent.getSubResources());
-    }
+    private int next;
 
     BundleResourceIterator(final ResourceResolver resourceResolver,
                            final BundleResourceCache bundle,
                            final PathMapping mappedPath,
-                           final String parentPath,
-                           final Map<String, Map<String, Object>> subResources) {
-
-        // trailing slash to enumerate children
-        final String parentEntryPath = mappedPath.getEntryPath(parentPath.concat("/"));
-        this.prefixLength = parentEntryPath.length();
-
+                           final ChildListing children) {
         this.resourceResolver = resourceResolver;
         this.cache = bundle;
-        this.subResources = subResources != null ? new LinkedHashMap<>(subResources) : null;
         this.mappedPath = mappedPath;
-        this.entries = getFilteredEntries(parentEntryPath);
-
-        this.nextResult = (entries != null) ? seek() : null;
-    }
-
-    private Iterator<String> getFilteredEntries(final String parentEntryPath) {
-        final Set<String> bundleEntries = new LinkedHashSet<>(cache.getEntryPaths(parentEntryPath));
-        final Set<String> add = new LinkedHashSet<>();
-        final Iterator<String> iter = bundleEntries.iterator();
-        while (iter.hasNext()) {
-            final String path = iter.next();
-            if (path.endsWith("/" + this.mappedPath.getJSONPropertiesExtension())) {
-                // In-place properties definition (like .content.json). It's not a child.
-                iter.remove();
-            } else if (path.endsWith(this.mappedPath.getJSONPropertiesExtension())) {
-                iter.remove();
-                add.add(path.substring(0, path.length() - this.mappedPath.getJSONPropertiesExtension().length()));
-            }
-        }
-        bundleEntries.addAll(add);
-        if (subResources != null) {
-            for (final String name : subResources.keySet()) {
-                final String fullPath = parentEntryPath.concat(name);
-                if (!bundleEntries.contains(fullPath)) {
-                    bundleEntries.add(fullPath);
-                } else {
-                    subResources.remove(name);
-                }
-            }
-        }
-
-        return (bundleEntries.isEmpty() ? null : bundleEntries.iterator());
+        this.children = children;
     }
 
     /**
@@ -136,7 +67,7 @@ class BundleResourceIterator implements Iterator<Resource> {
      */
     @Override
     public boolean hasNext() {
-        return nextResult != null;
+        return next < children.size();
     }
 
     /**
@@ -148,9 +79,11 @@ class BundleResourceIterator implements Iterator<Resource> {
             throw new NoSuchElementException();
         }
 
-        final Resource result = nextResult;
-        nextResult = seek();
-        return result;
+        final int i = next++;
+        return new BundleResource(resourceResolver, cache, mappedPath,
+                children.getPath(i),
+                children.getSubResource(i),
+                children.isFolder(i));
     }
 
     /**
@@ -161,37 +94,4 @@ class BundleResourceIterator implements Iterator<Resource> {
     public void remove() {
         throw new UnsupportedOperationException();
     }
-
-    /**
-     * Scans the entry path enumeration looking for the next entry being a
-     * direct child of the parent resource.
-     */
-    private Resource seek() {
-        while (entries.hasNext()) {
-            String entry = entries.next();
-
-            // require leading slash (sanity check, should always be the case)
-            if (!entry.startsWith("/")) {
-                entry = "/".concat(entry);
-            }
-
-            // another sanity check if the prefix is correct
-            final int slash = entry.indexOf('/', prefixLength);
-            if (slash < 0 || slash == entry.length() - 1) {
-                log.debug("seek: Using entry {}", entry);
-                final boolean isFolder = entry.endsWith("/");
-                final String entryPath = isFolder ? entry.substring(0, entry.length() - 1) : entry;
-                return new BundleResource(resourceResolver, cache, mappedPath,
-                        mappedPath.getResourcePath(entryPath),
-                        this.subResources != null ? this.subResources.get(ResourceUtil.getName(entryPath)) : null,
-                        isFolder);
-            }
-
-            log.debug("seek: Ignoring entry {}", entry);
-        }
-
-        // no more results
-        log.debug("seek: No more nodes, iterator exhausted");
-        return null;
-    }
 }
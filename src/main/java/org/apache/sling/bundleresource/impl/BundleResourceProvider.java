@@ -1,12 +1,32 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
 package org.apache.sling.bundleresource.impl;
 
 import java.net.URL;
+import java.util.ArrayList;
 import java.util.Dictionary;
 import java.util.Hashtable;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
 
 import org.apache.sling.api.resource.Resource;
-import org.apache.sling.api.resource.ResourceUtil;
 import org.apache.sling.spi.resource.provider.ObservationReporter;
 import org.apache.sling.spi.resource.provider.ProviderContext;
 import org.apache.sling.spi.resource.provider.ResolveContext;
@@ -21,6 +41,8 @@ public class BundleResourceProvider extends ResourceProvider<Object> {
 
     public static final String PROP_BUNDLE = BundleResourceProvider.class.getName();
 
+    private static final String[] NO_NAMES = new String[0];
+
     /**
      * The cache with the bundle providing the resources
      */
@@ -31,6 +53,39 @@ public class BundleResourceProvider extends ResourceProvider<Object> {
      */
     private final PathMapping root;
 
+    /**
+     * The resource paths known not to exist in the bundle. Resolving a
+     * missing resource probes several bundle entries and all ancestors, so
+     * the result is remembered as a single entry instead.
+     */
+    private final ConcurrentLruCache<Boolean> missCache;
+
+    /**
+     * The children of the resources below the root listed before, by
+     * resource path. A listing only depends on the bundle contents and the
+     * sub-resources of the parent, so it is built once instead of on every
+     * call to listChildren.
+     */
+    private final ConcurrentLruCache<ChildListing> listingCache;
+
+    /**
+     * The sub-resources defined in JSON properties files below the root,
+     * built by {@link #prepare()} on startup or on first use.
+     */
+    private volatile SubResourceIndex subResourceIndex;
+
+    /**
+     * Set by {@link #dispose()}, after which the resource paths can no
+     * longer be visited.
+     */
+    private volatile boolean disposed;
+
+    /**
+     * The latency metrics of this provider or <code>null</code> if metrics
+     * are disabled.
+     */
+    private final BundleResourceProviderMetrics metrics;
+
     @SuppressWarnings("rawtypes")
     private volatile ServiceRegistration<ResourceProvider> serviceRegistration;
 
@@ -40,8 +95,43 @@ public class BundleResourceProvider extends ResourceProvider<Object> {
      * comma (and whitespace) separated list of absolute paths.
      */
     public BundleResourceProvider(final BundleResourceCache cache, final PathMapping root) {
+        this(cache, root, BundleResourceConfiguration.DEFAULT_MISS_CACHE_SIZE);
+    }
+
+    /**
+     * Creates Bundle resource provider accessing entries in the given Bundle
+     * below the given root, remembering up to <code>missCacheSize</code>
+     * resource paths not existing in the bundle.
+     */
+    BundleResourceProvider(final BundleResourceCache cache, final PathMapping root, final int missCacheSize) {
+        this(cache, root, missCacheSize, null);
+    }
+
+    /**
+     * Creates Bundle resource provider accessing entries in the given Bundle
+     * below the given root, remembering up to <code>missCacheSize</code>
+     * resource paths not existing in the bundle and recording its latencies
+     * in the given metrics unless they are <code>null</code>.
+     */
+    BundleResourceProvider(final BundleResourceCache cache, final PathMapping root, final int missCacheSize,
+                           final BundleResourceProviderMetrics metrics) {
         this.cache = cache;
         this.root = root;
+        this.missCache = new ConcurrentLruCache<>(missCacheSize);
+        this.listingCache = new ConcurrentLruCache<>(cache.getListCacheMaxSize());
+        this.metrics = metrics;
+    }
+
+    /**
+     * Builds the index of the sub-resources defined in JSON properties files
+     * below the root, which parses the structure of all of these files.
+     * Called on the startup threads when the providers of the bundles
+     * active on startup are prepared in parallel, so no resource lookup has
+     * to wait for the index. The providers of bundles started later build
+     * the index on first use, keeping this work off the bundle events.
+     */
+    void prepare() {
+        getSubResourceIndex();
     }
 
     //---------- Service Registration
@@ -56,10 +146,16 @@ public class BundleResourceProvider extends ResourceProvider<Object> {
         props.put(PROP_BUNDLE, bundle.getBundleId());
 
         serviceRegistration = bundle.getBundleContext().registerService(ResourceProvider.class, this, props);
+        if (metrics != null) {
+            metrics.registerService(bundle.getBundleContext());
+        }
         return (Long) serviceRegistration.getReference().getProperty(Constants.SERVICE_ID);
     }
 
     void unregisterService() {
+        if (metrics != null) {
+            metrics.unregisterService();
+        }
         if (serviceRegistration != null) {
             try {
                 serviceRegistration.unregister();
@@ -70,6 +166,17 @@ public class BundleResourceProvider extends ResourceProvider<Object> {
         }
     }
 
+    /**
+     * Drops the remembered missing resource paths, the child listings and
+     * the sub-resource index. Called when the bundle is stopped.
+     */
+    void dispose() {
+        disposed = true;
+        missCache.clear();
+        listingCache.clear();
+        subResourceIndex = null;
+    }
+
     // ---------- ResourceProvider interface
 
     /**
@@ -81,24 +188,40 @@ public class BundleResourceProvider extends ResourceProvider<Object> {
                                 final String resourcePath,
                                 final ResourceContext resourceContext,
                                 final Resource parent) {
+        final BundleResourceProviderMetrics providerMetrics = this.metrics;
+        if (providerMetrics == null) {
+            return resolveResource(ctx, resourcePath);
+        }
+
+        final long start = System.nanoTime();
+        final Resource resource = resolveResource(ctx, resourcePath);
+        providerMetrics.recordGetResource(resource, System.nanoTime() - start);
+        return resource;
+    }
+
+    private Resource resolveResource(final ResolveContext<Object> ctx, final String resourcePath) {
+        if (missCache.get(resourcePath) != null) {
+            return null;
+        }
+
         final PathMapping mappedPath = getMappedPath(resourcePath);
         if (mappedPath != null) {
-            final String entryPath = mappedPath.getEntryPath(resourcePath);
-
             // first try, whether the bundle has an entry with a trailing slash
             // which would be a folder. In this case we check whether the
             // repository contains an item with the same path. If so, we
             // don't create a BundleResource but instead return null to be
             // able to return an item-based resource
-            URL entry = cache.getEntry(entryPath.concat("/"));
+            // The entry paths are translated together with their suffix into a
+            // single string each and only when needed
+            URL entry = cache.getEntry(mappedPath.getEntryPath(resourcePath, "/"));
             final boolean isFolder = entry != null;
 
             // if there is no entry with a trailing slash, try plain name
             // which would then of course be a file
             if (entry == null) {
-                entry = cache.getEntry(entryPath);
+                entry = cache.getEntry(mappedPath.getEntryPath(resourcePath));
                 if (entry == null) {
-                    entry = cache.getEntry(entryPath + this.root.getJSONPropertiesExtension());
+                    entry = cache.getEntry(mappedPath.getEntryPath(resourcePath, this.root.getJSONPropertiesExtension()));
                 }
             }
 
@@ -106,9 +229,10 @@ public class BundleResourceProvider extends ResourceProvider<Object> {
             // or a bundle file
             if (entry != null) {
                 // check if a JSON props file is directly requested
-                // if so, we deny the access
+                // if so, we deny the access. The mapping only replaces the
+                // root, so the entry path ends like the resource path
                 if (this.root.getJSONPropertiesExtension() == null
-                        || !entryPath.endsWith(this.root.getJSONPropertiesExtension())) {
+                        || !resourcePath.endsWith(this.root.getJSONPropertiesExtension())) {
 
                     return new BundleResource(ctx.getResourceResolver(),
                             cache,
@@ -120,21 +244,18 @@ public class BundleResourceProvider extends ResourceProvider<Object> {
             }
 
             // the bundle does not contain the path
-            // if JSON is enabled check for any parent
-            String parentPath = ResourceUtil.getParent(resourcePath);
-            while (parentPath != null) {
-                final Resource rsrc = getResource(ctx, parentPath, resourceContext, null);
-                if (rsrc != null) {
-                    final Resource childResource = ((BundleResource) rsrc).getChildResource(resourcePath.substring(parentPath.length() + 1));
-                    if (childResource != null) {
-                        return childResource;
-                    }
-                }
-                parentPath = ResourceUtil.getParent(parentPath);
-                if (parentPath != null && this.getMappedPath(parentPath) == null) {
-                    parentPath = null;
-                }
+            // if JSON is enabled check for a sub-resource defined by any parent
+            final ContentNode subResource = getSubResourceIndex().get(resourcePath);
+            if (subResource != null) {
+                return new BundleResource(ctx.getResourceResolver(),
+                        cache,
+                        mappedPath,
+                        resourcePath,
+                        subResource,
+                        false);
             }
+
+            missCache.put(resourcePath, Boolean.TRUE);
         }
 
         return null;
@@ -142,10 +263,24 @@ public class BundleResourceProvider extends ResourceProvider<Object> {
 
     @Override
     public Iterator<Resource> listChildren(final ResolveContext<Object> ctx, final Resource parent) {
+        final BundleResourceProviderMetrics providerMetrics = this.metrics;
+        if (providerMetrics == null) {
+            return createChildIterator(parent);
+        }
+
+        final long start = System.nanoTime();
+        final Iterator<Resource> children = createChildIterator(parent);
+        providerMetrics.recordListChildren(System.nanoTime() - start);
+        return children;
+    }
+
+    private Iterator<Resource> createChildIterator(final Resource parent) {
         if (parent instanceof BundleResource && ((BundleResource) parent).getBundle() == this.cache) {
             // bundle resources can handle this request directly when the parent
             // resource is in the same bundle as this provider.
-            return new BundleResourceIterator((BundleResource) parent);
+            final BundleResource bundleParent = (BundleResource) parent;
+            return new BundleResourceIterator(parent.getResourceResolver(),
+                    cache, bundleParent.getMappedPath(), getChildListing(bundleParent));
         }
 
         // ensure this provider may have children of the parent
@@ -153,7 +288,7 @@ public class BundleResourceProvider extends ResourceProvider<Object> {
         PathMapping mappedPath = getMappedPath(parentPath);
         if (mappedPath != null) {
             return new BundleResourceIterator(parent.getResourceResolver(),
-                    cache, mappedPath, parentPath, null);
+                    cache, mappedPath, ChildListing.build(cache, mappedPath, parentPath, null));
         }
 
         // the parent resource cannot have children in this provider,
@@ -171,18 +306,236 @@ public class BundleResourceProvider extends ResourceProvider<Object> {
         return null;
     }
 
+    // ---------- Path enumeration
+
+    /**
+     * Receives the resource paths visited by
+     * {@link BundleResourceProvider#visitResourcePaths(PathVisitor)}.
+     */
+    public interface PathVisitor {
+
+        /**
+         * Called for each resource of the provider.
+         *
+         * @param path   The resource path
+         * @param folder <code>true</code> if the resource is a folder entry
+         *               of the bundle, <code>false</code> for files and
+         *               resources defined in JSON properties files
+         */
+        void visit(String path, boolean folder);
+    }
+
+    /**
+     * Visits the paths of all resources of this provider depth first in tree
+     * order, starting with the root, without creating any resources or
+     * parsing any JSON properties files. The children of a resource are read
+     * from the child entries of the bundle, answered by the entry index if
+     * the bundle is indexed, and the names of the sub-resources defined in
+     * JSON properties files from the sub-resource index. Apart from the path
+     * strings, only one frame per level of the tree is allocated.
+     * <p>
+     * The paths are the ones resolved by {@link #getResource(ResolveContext,
+     * String, ResourceContext, Resource)}, so a sub-resource with the name of
+     * a bundle entry is not visited.
+     *
+     * <p>
+     * The paths of a removed provider have to be visited before it is
+     * disposed, as the bundle may be updated or uninstalled afterwards.
+     *
+     * @param visitor The visitor called for each resource
+     * @return The number of visited resources
+     * @throws IllegalStateException if this provider has been disposed
+     */
+    public int visitResourcePaths(final PathVisitor visitor) {
+        if (disposed) {
+            throw new IllegalStateException("Provider of " + root.getResourceRoot() + " from bundle "
+                    + cache.getBundle().getBundleId() + " has been disposed");
+        }
+        final String rootPath = root.getResourceRoot();
+        final String rootEntry = root.getEntryPath(rootPath);
+        final String extension = root.getJSONPropertiesExtension();
+        final String rootFolderEntry = rootEntry.concat("/");
+        final boolean rootIsFolder = cache.getEntry(rootFolderEntry) != null;
+        if (!rootIsFolder && (rootEntry.endsWith(extension)
+                || (cache.getEntry(rootEntry) == null && cache.getEntry(rootEntry.concat(extension)) == null))) {
+            return 0;
+        }
+
+        final SubResourceIndex subResources = getSubResourceIndex();
+        final StringBuilder builder = new StringBuilder();
+        final List<PathFrame> frames = new ArrayList<>();
+        frames.add(new PathFrame());
+        frames.get(0).open(rootPath, rootFolderEntry, extension, subResources);
+        visitor.visit(rootPath, rootIsFolder);
+
+        int visited = 1;
+        int depth = 0;
+        while (depth >= 0) {
+            final PathFrame frame = frames.get(depth);
+            final String path;
+            final boolean isFolder;
+            final String childEntryPrefix;
+            if (frame.entry < frame.entries.length) {
+                final String entry = frame.entries[frame.entry++];
+                final int prefixLength = frame.entryPrefix.length();
+                // sanity check if the prefix is correct, see ChildListing
+                final int slash = entry.indexOf('/', prefixLength);
+                if (slash >= 0 && slash != entry.length() - 1) {
+                    continue;
+                }
+                isFolder = slash >= 0;
+                path = childPath(builder, frame.path, entry, prefixLength, isFolder ? slash : entry.length());
+                childEntryPrefix = isFolder ? entry : entry.concat("/");
+            } else if (frame.subResource < frame.subResources.length) {
+                final String name = frame.subResources[frame.subResource++];
+                if (frame.entryPrefix != null && containsEntry(frame.entries, frame.entryPrefix, name)) {
+                    // the bundle entry wins
+                    continue;
+                }
+                isFolder = false;
+                path = childPath(builder, frame.path, name, 0, name.length());
+                childEntryPrefix = null;
+            } else {
+                depth--;
+                continue;
+            }
+
+            visitor.visit(path, isFolder);
+            visited++;
+            depth++;
+            if (depth == frames.size()) {
+                frames.add(new PathFrame());
+            }
+            frames.get(depth).open(path, childEntryPrefix, extension, subResources);
+        }
+        return visited;
+    }
+
+    private static String childPath(final StringBuilder builder, final String parentPath,
+                                    final String name, final int start, final int end) {
+        builder.setLength(0);
+        builder.append(parentPath);
+        if (!parentPath.endsWith("/")) {
+            builder.append('/');
+        }
+        return builder.append(name, start, end).toString();
+    }
+
+    /**
+     * Returns <code>true</code> if the entries contain a file or folder with
+     * the given name below the prefix.
+     */
+    private static boolean containsEntry(final String[] entries, final String prefix, final String name) {
+        final int nameStart = prefix.length();
+        final int nameEnd = nameStart + name.length();
+        for (final String entry : entries) {
+            if ((entry.length() == nameEnd || (entry.length() == nameEnd + 1 && entry.charAt(nameEnd) == '/'))
+                    && entry.startsWith(name, nameStart) && entry.startsWith(prefix)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     // ---------- Web Console plugin support
 
     BundleResourceCache getBundleResourceCache() {
         return cache;
     }
 
+    /**
+     * Returns the current number of resource paths remembered as missing.
+     */
+    int getMissCacheSize() {
+        return missCache.size();
+    }
+
+    /**
+     * Returns the maximum number of resource paths remembered as missing.
+     */
+    int getMissCacheMaxSize() {
+        return missCache.getLimit();
+    }
+
+    /**
+     * Returns the current number of cached child listings.
+     */
+    int getListingCacheSize() {
+        return listingCache.size();
+    }
+
+    /**
+     * Returns the maximum number of cached child listings.
+     */
+    int getListingCacheMaxSize() {
+        return listingCache.getLimit();
+    }
+
+    /**
+     * Returns the hit, miss and eviction counts of the child listing cache.
+     */
+    CacheStatistics getListingCacheStatistics() {
+        return listingCache.getStatistics();
+    }
+
+    /**
+     * Returns the latency metrics of this provider or <code>null</code> if
+     * metrics are disabled.
+     */
+    BundleResourceProviderMetrics getMetrics() {
+        return metrics;
+    }
+
     public PathMapping getMappedPath() {
         return root;
     }
 
+    public Bundle getBundle() {
+        return cache.getBundle();
+    }
+
     // ---------- internal
 
+    /**
+     * Returns the children of the given resource, cached unless the resource
+     * belongs to another root of the bundle.
+     */
+    private ChildListing getChildListing(final BundleResource parent) {
+        if (parent.getMappedPath() != this.root) {
+            return ChildListing.build(cache, parent.getMappedPath(), parent.getPath(), parent.getSubResources());
+        }
+
+        // a listing cached for another instance of the parent only answers
+        // the request if it has been built from the same sub-resources
+        final Map<String, ContentNode> subResources = parent.getSubResources();
+        ChildListing listing = listingCache.peek(parent.getPath());
+        if (listing != null && listing.isBuiltFrom(subResources)) {
+            listingCache.getStatistics().recordHit();
+        } else {
+            listingCache.getStatistics().recordMiss();
+            final long start = System.nanoTime();
+            listing = ChildListing.build(cache, root, parent.getPath(), subResources);
+            listingCache.put(parent.getPath(), listing);
+            listingCache.getStatistics().recordLoad(System.nanoTime() - start);
+        }
+        return listing;
+    }
+
+    private SubResourceIndex getSubResourceIndex() {
+        SubResourceIndex index = this.subResourceIndex;
+        if (index == null) {
+            // providers not prepared on startup build the index on first use
+            synchronized (this) {
+                index = this.subResourceIndex;
+                if (index == null) {
+                    index = SubResourceIndex.build(cache, root);
+                    this.subResourceIndex = index;
+                }
+            }
+        }
+        return index;
+    }
+
     private PathMapping getMappedPath(final String resourcePath) {
         if (this.root.isChild(resourcePath)) {
             return root;
@@ -190,4 +543,41 @@ public class BundleResourceProvider extends ResourceProvider<Object> {
 
         return null;
     }
+
+    // ---------- inner class
+
+    /**
+     * The children of a resource still to be visited by
+     * {@link #visitResourcePaths(PathVisitor)}, reused for all resources on
+     * the same level.
+     */
+    private final class PathFrame {
+
+        String path;
+
+        /**
+         * The entry path of the resource with a trailing slash or
+         * <code>null</code> for sub-resources, which have no child entries
+         */
+        String entryPrefix;
+
+        String[] entries;
+
+        int entry;
+
+        String[] subResources;
+
+        int subResource;
+
+        void open(final String resourcePath, final String entryPrefix, final String extension,
+                  final SubResourceIndex subResourceIndex) {
+            this.path = resourcePath;
+            this.entryPrefix = entryPrefix;
+            this.entries = entryPrefix != null ? cache.getChildEntries(entryPrefix).getChildren(extension) : NO_NAMES;
+            this.entry = 0;
+            final String[] names = subResourceIndex.getChildNames(resourcePath);
+            this.subResources = names != null ? names : NO_NAMES;
+            this.subResource = 0;
+        }
+    }
 }
@@ -0,0 +1,65 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.bundleresource.impl;
+
+/**
+ * The <code>BundleResourceProviderMBean</code> publishes the call counts and
+ * latencies of a provider of a mapped root. Resolved resources are counted
+ * separately as hits of bundle entries, misses and sub-resources defined in
+ * JSON properties files. Times are in microseconds, percentiles are the upper
+ * bounds of the histogram buckets, which are powers of two nanoseconds.
+ */
+public interface BundleResourceProviderMBean {
+
+    long getBundleId();
+
+    String getRoot();
+
+    long getResourceHitCount();
+
+    double getResourceHitMeanTime();
+
+    double getResourceHitTime99thPercentile();
+
+    long[] getResourceHitHistogram();
+
+    long getResourceMissCount();
+
+    double getResourceMissMeanTime();
+
+    double getResourceMissTime99thPercentile();
+
+    long[] getResourceMissHistogram();
+
+    long getSubResourceCount();
+
+    double getSubResourceMeanTime();
+
+    double getSubResourceTime99thPercentile();
+
+    long[] getSubResourceHistogram();
+
+    long getListChildrenCount();
+
+    double getListChildrenMeanTime();
+
+    double getListChildrenTime99thPercentile();
+
+    long[] getListChildrenHistogram();
+}
@@ -0,0 +1,221 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.bundleresource.impl;
+
+import java.util.Dictionary;
+import java.util.Hashtable;
+
+import javax.management.DynamicMBean;
+import javax.management.NotCompliantMBeanException;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+
+import org.apache.sling.api.resource.Resource;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.Constants;
+import org.osgi.framework.ServiceRegistration;
+
+/**
+ * The <code>BundleResourceProviderMetrics</code> record the latencies of
+ * the calls to a {@link BundleResourceProvider} and expose them as
+ * {@link BundleResourceProviderMBean}. They are only created if metrics are
+ * enabled in the {@link BundleResourceConfiguration}.
+ */
+class BundleResourceProviderMetrics extends StandardMBean implements BundleResourceProviderMBean {
+
+    private static final String PROP_OBJECT_NAME = "jmx.objectname";
+
+    private final Bundle bundle;
+
+    private final PathMapping root;
+
+    private final LatencyHistogram resourceHits = new LatencyHistogram();
+
+    private final LatencyHistogram resourceMisses = new LatencyHistogram();
+
+    private final LatencyHistogram subResources = new LatencyHistogram();
+
+    private final LatencyHistogram listChildren = new LatencyHistogram();
+
+    private volatile ServiceRegistration<DynamicMBean> serviceRegistration;
+
+    BundleResourceProviderMetrics(final Bundle bundle, final PathMapping root) throws NotCompliantMBeanException {
+        super(BundleResourceProviderMBean.class);
+        this.bundle = bundle;
+        this.root = root;
+    }
+
+    /**
+     * Records a call to <code>getResource</code> which took the given number
+     * of nanoseconds and returned the given resource.
+     */
+    void recordGetResource(final Resource resource, final long nanos) {
+        if (resource == null) {
+            resourceMisses.record(nanos);
+        } else if (resource instanceof BundleResource && ((BundleResource) resource).isSubResource()) {
+            subResources.record(nanos);
+        } else {
+            resourceHits.record(nanos);
+        }
+    }
+
+    /**
+     * Records a call to <code>listChildren</code> which took the given number
+     * of nanoseconds.
+     */
+    void recordListChildren(final long nanos) {
+        listChildren.record(nanos);
+    }
+
+    void registerService(final BundleContext context) {
+        final Dictionary<String, Object> props = new Hashtable<>();
+        props.put(Constants.SERVICE_DESCRIPTION,
+                "Metrics of bundle resources of bundle " + bundle.getBundleId() + " below " + root.getResourceRoot());
+        props.put(Constants.SERVICE_VENDOR, "The Apache Software Foundation");
+        props.put(PROP_OBJECT_NAME, BundleResourceCacheMBeanImpl.DOMAIN
+                + ":type=BundleResourceProvider,bundle="
+                + ObjectName.quote(bundle.getSymbolicName() != null ? bundle.getSymbolicName() : "")
+                + ",id=" + bundle.getBundleId()
+                + ",root=" + ObjectName.quote(root.getResourceRoot()));
+
+        serviceRegistration = context.registerService(DynamicMBean.class, this, props);
+    }
+
+    void unregisterService() {
+        if (serviceRegistration != null) {
+            try {
+                serviceRegistration.unregister();
+            } catch (final IllegalStateException ise) {
+                // this might happen on shutdown, so ignore
+            }
+            serviceRegistration = null;
+        }
+    }
+
+    // ---------- Web Console plugin support
+
+    LatencyHistogram getResourceHits() {
+        return resourceHits;
+    }
+
+    LatencyHistogram getResourceMisses() {
+        return resourceMisses;
+    }
+
+    LatencyHistogram getSubResources() {
+        return subResources;
+    }
+
+    LatencyHistogram getListChildren() {
+        return listChildren;
+    }
+
+    // ---------- BundleResourceProviderMBean
+
+    @Override
+    public long getBundleId() {
+        return bundle.getBundleId();
+    }
+
+    @Override
+    public String getRoot() {
+        return root.getResourceRoot();
+    }
+
+    @Override
+    public long getResourceHitCount() {
+        return resourceHits.getCount();
+    }
+
+    @Override
+    public double getResourceHitMeanTime() {
+        return resourceHits.getMeanTime();
+    }
+
+    @Override
+    public double getResourceHitTime99thPercentile() {
+        return resourceHits.getPercentileTime(99);
+    }
+
+    @Override
+    public long[] getResourceHitHistogram() {
+        return resourceHits.getBuckets();
+    }
+
+    @Override
+    public long getResourceMissCount() {
+        return resourceMisses.getCount();
+    }
+
+    @Override
+    public double getResourceMissMeanTime() {
+        return resourceMisses.getMeanTime();
+    }
+
+    @Override
+    public double getResourceMissTime99thPercentile() {
+        return resourceMisses.getPercentileTime(99);
+    }
+
+    @Override
+    public long[] getResourceMissHistogram() {
+        return resourceMisses.getBuckets();
+    }
+
+    @Override
+    public long getSubResourceCount() {
+        return subResources.getCount();
+    }
+
+    @Override
+    public double getSubResourceMeanTime() {
+        return subResources.getMeanTime();
+    }
+
+    @Override
+    public double getSubResourceTime99thPercentile() {
+        return subResources.getPercentileTime(99);
+    }
+
+    @Override
+    public long[] getSubResourceHistogram() {
+        return subResources.getBuckets();
+    }
+
+    @Override
+    public long getListChildrenCount() {
+        return listChildren.getCount();
+    }
+
+    @Override
+    public double getListChildrenMeanTime() {
+        return listChildren.getMeanTime();
+    }
+
+    @Override
+    public double getListChildrenTime99thPercentile() {
+        return listChildren.getPercentileTime(99);
+    }
+
+    @Override
+    public long[] getListChildrenHistogram() {
+        return listChildren.getBuckets();
+    }
+}
@@ -23,8 +23,6 @@ import java.io.InputStream;
 import java.net.URL;
 import java.net.URLConnection;
 
-import org.osgi.framework.Bundle;
-
 /**
  * A Bundle based <code>UIRLConnection</code> which uses the bundle's last
  * modification time as the last modification time of the URL in contrast to the
@@ -34,9 +32,9 @@ import org.osgi.framework.Bundle;
 public class BundleResourceURLConnection extends URLConnection {
 
     /**
-     * The bundle owning the resource underlying the URLConnection
+     * The cache of the bundle owning the resource underlying the URLConnection
      */
-    private final Bundle bundle;
+    private final BundleResourceCache cache;
 
     private final String bundlePath;
 
@@ -45,10 +43,10 @@ public class BundleResourceURLConnection extends URLConnection {
      */
     private URLConnection delegatee;
 
-    protected BundleResourceURLConnection(Bundle bundle, String bundlePath, URL url) {
+    protected BundleResourceURLConnection(BundleResourceCache cache, String bundlePath, URL url) {
         super(url);
 
-        this.bundle = bundle;
+        this.cache = cache;
         this.bundlePath = bundlePath;
     }
 
@@ -58,10 +56,10 @@ public class BundleResourceURLConnection extends URLConnection {
      */
     public synchronized void connect() throws IOException {
         if (!connected) {
-            URL url = bundle.getEntry(bundlePath);
+            URL url = cache.getEntry(bundlePath);
             if (url == null) {
                 throw new IOException("Cannot find entry " + bundlePath
-                        + " in bundle " + bundle + " for URL " + url);
+                        + " in bundle " + cache.getBundle() + " for URL " + url);
             }
 
             delegatee = url.openConnection();
@@ -81,17 +79,12 @@ public class BundleResourceURLConnection extends URLConnection {
     }
 
     /**
-     * Returns the content length of the Bundle provided URLConnection
+     * Returns the content length of the bundle entry as known to the cache,
+     * which does not require to connect to the entry
      */
     @Override
     public int getContentLength() {
-        try {
-            connect();
-        } catch (IOException ex) {
-            return -1;
-        }
-
-        return delegatee.getContentLength();
+        return cache.getContentLength(bundlePath);
     }
 
     /**
@@ -105,7 +98,7 @@ public class BundleResourceURLConnection extends URLConnection {
             return 0;
         }
 
-        return bundle.getLastModified();
+        return cache.getBundle().getLastModified();
     }
 
     /**
@@ -23,18 +23,16 @@ import java.net.URL;
 import java.net.URLConnection;
 import java.net.URLStreamHandler;
 
-import org.osgi.framework.Bundle;
-
 class BundleResourceURLStreamHandler extends URLStreamHandler {
 
     static final String PROTOCOL = "bundle";
 
-    private final Bundle bundle;
+    private final BundleResourceCache cache;
 
     private final String bundlePath;
 
-    BundleResourceURLStreamHandler(Bundle bundle, String bundlePath) {
-        this.bundle = bundle;
+    BundleResourceURLStreamHandler(BundleResourceCache cache, String bundlePath) {
+        this.cache = cache;
         this.bundlePath = bundlePath;
     }
 
@@ -45,7 +43,7 @@ class BundleResourceURLStreamHandler extends URLStreamHandler {
                     + ", wrong protocol");
         }
 
-        return new BundleResourceURLConnection(bundle, bundlePath, u);
+        return new BundleResourceURLConnection(cache, bundlePath, u);
     }
 
 }
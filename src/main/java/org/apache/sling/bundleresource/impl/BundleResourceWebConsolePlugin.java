@@ -45,6 +45,8 @@ class BundleResourceWebConsolePlugin extends HttpServlet {
 
     private static final String LABEL = "bundleresources";
 
+    private static final String PARAM_PATH = "path";
+
     private volatile ServiceRegistration<Servlet> serviceRegistration;
 
     @SuppressWarnings("rawtypes")
@@ -52,13 +54,15 @@ class BundleResourceWebConsolePlugin extends HttpServlet {
 
     private final List<BundleResourceProvider> provider = new ArrayList<>();
 
+    private final ProviderRegistry registry;
+
     //--------- setup and shutdown
 
     private static BundleResourceWebConsolePlugin INSTANCE;
 
-    static void initPlugin(BundleContext context) {
+    static void initPlugin(BundleContext context, ProviderRegistry registry) {
         if (INSTANCE == null) {
-            BundleResourceWebConsolePlugin tmp = new BundleResourceWebConsolePlugin();
+            BundleResourceWebConsolePlugin tmp = new BundleResourceWebConsolePlugin(registry);
             tmp.activate(context);
             INSTANCE = tmp;
         }
@@ -75,7 +79,8 @@ class BundleResourceWebConsolePlugin extends HttpServlet {
     }
 
     // private constructor to force using static setup and shutdown
-    private BundleResourceWebConsolePlugin() {
+    private BundleResourceWebConsolePlugin(ProviderRegistry registry) {
+        this.registry = registry;
     }
 
     @Override
@@ -89,6 +94,8 @@ class BundleResourceWebConsolePlugin extends HttpServlet {
         pw.println("<th colspan='2' class='content container'>Bundle Resource Provider</th>");
         pw.println("</tr>");
 
+        printOwner(pw, req.getParameter(PARAM_PATH));
+
         BundleResourceProvider[] brp = provider.toArray(new BundleResourceProvider[provider.size()]);
         for (BundleResourceProvider bundleResourceProvider : brp) {
 
@@ -125,18 +132,83 @@ class BundleResourceWebConsolePlugin extends HttpServlet {
             pw.println("</td>");
             pw.println("</tr>");
 
+            final BundleResourceProvider owner = registry.getProvider(path.getResourceRoot());
+            if (owner != null && owner != bundleResourceProvider) {
+                pw.println("<tr>");
+                pw.println("<td>Shadowed By</td>");
+                pw.println("<td>");
+                pw.print(owner.getBundle().getBundleId());
+                pw.print(" ");
+                pw.print(getName(owner.getBundle()));
+                pw.println("</td>");
+                pw.println("</tr>");
+            }
+
+            pw.println("<tr>");
+            pw.println("<td>Startup</td>");
+            pw.printf("<td>Preparation: %.1f ms, Registration: %.1f ms</td>%n",
+                    cache.getPreparationTime(), cache.getRegistrationTime());
+            pw.println("</tr>");
+
+            pw.println("<tr>");
+            pw.println("<td>Entry Index</td>");
+            if (cache.getIndexSize() < 0) {
+                pw.println("<td>Disabled</td>");
+            } else {
+                pw.printf("<td>Entries: %d</td>%n", cache.getIndexSize());
+            }
+            pw.println("</tr>");
+
+            pw.println("<tr>");
+            pw.println("<td>String Pool</td>");
+            pw.printf("<td>Size: %d, Limit: %d</td>%n", cache.getStringPoolSize(), StringPool.MAX_SIZE);
+            pw.println("</tr>");
+
             pw.println("<tr>");
             pw.println("<td>Entry Cache</td>");
-            pw.printf("<td>Size: %d, Limit: %d</td>%n",
-                    cache.getEntryCacheSize(), cache.getEntryCacheMaxSize());
+            pw.printf("<td>Size: %d, Limit: %d<br>%s</td>%n",
+                    cache.getEntryCacheSize(), cache.getEntryCacheMaxSize(), cache.getEntryCacheStatistics());
             pw.println("</tr>");
 
             pw.println("<tr>");
             pw.println("<td>List Cache</td>");
+            pw.printf("<td>Size: %d, Limit: %d<br>%s</td>%n",
+                    cache.getListCacheSize(), cache.getListCacheMaxSize(), cache.getListCacheStatistics());
+            pw.println("</tr>");
+
+            pw.println("<tr>");
+            pw.println("<td>Content Cache</td>");
+            pw.printf("<td>Size: %d, Limit: %d<br>%s</td>%n",
+                    cache.getContentCacheSize(), cache.getContentCacheMaxSize(), cache.getContentCacheStatistics());
+            pw.println("</tr>");
+
+            if (cache.isPartitioned()) {
+                printPartition(pw, "Entry Cache Partition", cache.getEntryCachePartition(path));
+                printPartition(pw, "List Cache Partition", cache.getListCachePartition(path));
+                printPartition(pw, "Content Cache Partition", cache.getContentCachePartition(path));
+            }
+
+            pw.println("<tr>");
+            pw.println("<td>Listing Cache</td>");
+            pw.printf("<td>Size: %d, Limit: %d<br>%s</td>%n",
+                    bundleResourceProvider.getListingCacheSize(), bundleResourceProvider.getListingCacheMaxSize(),
+                    bundleResourceProvider.getListingCacheStatistics());
+            pw.println("</tr>");
+
+            pw.println("<tr>");
+            pw.println("<td>Miss Cache</td>");
             pw.printf("<td>Size: %d, Limit: %d</td>%n",
-                    cache.getListCacheSize(), cache.getListCacheMaxSize());
+                    bundleResourceProvider.getMissCacheSize(), bundleResourceProvider.getMissCacheMaxSize());
             pw.println("</tr>");
 
+            final BundleResourceProviderMetrics metrics = bundleResourceProvider.getMetrics();
+            if (metrics != null) {
+                printHistogram(pw, "Resource Hits", metrics.getResourceHits());
+                printHistogram(pw, "Resource Misses", metrics.getResourceMisses());
+                printHistogram(pw, "Sub-Resources", metrics.getSubResources());
+                printHistogram(pw, "List Children", metrics.getListChildren());
+            }
+
             pw.println("</table>");
 
             pw.println("</td>");
@@ -199,6 +271,91 @@ class BundleResourceWebConsolePlugin extends HttpServlet {
         }
     }
 
+    private void printHistogram(final PrintWriter pw, final String label, final LatencyHistogram histogram) {
+        pw.println("<tr>");
+        pw.printf("<td>%s</td>%n", label);
+        pw.printf("<td>%s</td>%n", histogram);
+        pw.println("</tr>");
+    }
+
+    /**
+     * Prints a form to look up the provider owning a resource path and the
+     * provider and cache found for the given path, if any.
+     */
+    private void printOwner(final PrintWriter pw, final String resourcePath) {
+        final String path = resourcePath != null ? resourcePath.trim() : "";
+        pw.println("<tr class='content'>");
+        pw.println("<td class='content'>Resource Path</td>");
+        pw.println("<td class='content'>");
+        pw.printf("<form method='get'><input type='text' name='%s' value='%s' size='60'>", PARAM_PATH, escape(path));
+        pw.println(" <input type='submit' value='Find Owner'></form>");
+        pw.println("</td>");
+        pw.println("</tr>");
+        if (path.isEmpty()) {
+            return;
+        }
+
+        pw.println("<tr class='content'>");
+        pw.println("<td class='content'>Owner</td>");
+        pw.println("<td class='content'>");
+        final BundleResourceProvider owner = registry.getProvider(path);
+        final BundleResourceCache cache = registry.getCache(path);
+        if (owner == null || cache == null) {
+            pw.println("No bundle resource provider");
+        } else {
+            final PathMapping mapping = owner.getMappedPath();
+            pw.print(cache.getBundle().getBundleId());
+            pw.print(" ");
+            pw.print(getName(cache.getBundle()));
+            pw.print("<br>");
+            pw.print(escape(mapping.getResourceRoot()));
+            final String entryPath = mapping.getEntryPath(path);
+            if (entryPath != null) {
+                pw.print(" ==> ");
+                pw.print(escape(entryPath));
+            }
+            pw.printf("<br>Entry Cache: %s<br>Content Cache: %s%n",
+                    cache.getEntryCacheStatistics(), cache.getContentCacheStatistics());
+        }
+        pw.println("</td>");
+        pw.println("</tr>");
+    }
+
+    private static String escape(final String value) {
+        final StringBuilder builder = new StringBuilder(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            final char c = value.charAt(i);
+            switch (c) {
+                case '<':
+                    builder.append("&lt;");
+                    break;
+                case '>':
+                    builder.append("&gt;");
+                    break;
+                case '&':
+                    builder.append("&amp;");
+                    break;
+                case '\'':
+                    builder.append("&#39;");
+                    break;
+                case '"':
+                    builder.append("&quot;");
+                    break;
+                default:
+                    builder.append(c);
+            }
+        }
+        return builder.toString();
+    }
+
+    private void printPartition(final PrintWriter pw, final String label, final ConcurrentLruCache<?> partition) {
+        pw.println("<tr>");
+        pw.printf("<td>%s</td>%n", label);
+        pw.printf("<td>Size: %d, Limit: %d<br>%s</td>%n",
+                partition.size(), partition.getLimit(), partition.getStatistics());
+        pw.println("</tr>");
+    }
+
     private String getName(final Bundle bundle) {
         String name = bundle.getHeaders().get(Constants.BUNDLE_NAME);
         if (name == null) {
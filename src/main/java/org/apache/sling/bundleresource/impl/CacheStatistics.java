@@ -0,0 +1,125 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.bundleresource.impl;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The <code>CacheStatistics</code> count the hits, misses and evictions of a
+ * {@link ConcurrentLruCache} and the time spent loading the missing values.
+ * <p>
+ * The counters are <code>LongAdder</code> instances, which are striped
+ * across threads, so recording does not contend even if many threads hit
+ * the same cache. Reading the counters while they are updated returns
+ * approximate values.
+ */
+final class CacheStatistics {
+
+    private final LongAdder hits = new LongAdder();
+
+    private final LongAdder negativeHits = new LongAdder();
+
+    private final LongAdder misses = new LongAdder();
+
+    private final LongAdder evictions = new LongAdder();
+
+    private final LongAdder loads = new LongAdder();
+
+    private final LongAdder loadTime = new LongAdder();
+
+    void recordHit() {
+        hits.increment();
+    }
+
+    /**
+     * Records a hit of a value representing a missing bundle entry. Negative
+     * hits are counted as hits, too.
+     */
+    void recordNegativeHit() {
+        negativeHits.increment();
+    }
+
+    void recordMiss() {
+        misses.increment();
+    }
+
+    void recordEviction() {
+        evictions.increment();
+    }
+
+    /**
+     * Records loading a missing value which took the given number of
+     * nanoseconds.
+     */
+    void recordLoad(final long nanos) {
+        loads.increment();
+        loadTime.add(nanos);
+    }
+
+    /**
+     * Adds the current counts of the given statistics to these statistics.
+     */
+    void add(final CacheStatistics other) {
+        hits.add(other.hits.sum());
+        negativeHits.add(other.negativeHits.sum());
+        misses.add(other.misses.sum());
+        evictions.add(other.evictions.sum());
+        loads.add(other.loads.sum());
+        loadTime.add(other.loadTime.sum());
+    }
+
+    long getHitCount() {
+        return hits.sum();
+    }
+
+    long getNegativeHitCount() {
+        return negativeHits.sum();
+    }
+
+    long getMissCount() {
+        return misses.sum();
+    }
+
+    long getEvictionCount() {
+        return evictions.sum();
+    }
+
+    long getLoadCount() {
+        return loads.sum();
+    }
+
+    /**
+     * Returns the average time of loading a missing value in microseconds or
+     * zero if no value has been loaded yet.
+     */
+    double getAverageLoadTime() {
+        final long count = loads.sum();
+        if (count == 0) {
+            return 0;
+        }
+        return (double) loadTime.sum() / count / TimeUnit.MICROSECONDS.toNanos(1);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("Hits: %d (negative: %d), Misses: %d, Evictions: %d, Average Load: %.1f \u00b5s",
+                getHitCount(), getNegativeHitCount(), getMissCount(), getEvictionCount(), getAverageLoadTime());
+    }
+}
@@ -0,0 +1,170 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.bundleresource.impl;
+
+import java.util.Collection;
+import java.util.Enumeration;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * The <code>ChildEntries</code> are the immutable child entry paths of a
+ * bundle folder entry, as cached by the {@link BundleResourceCache} and held
+ * by the {@link BundleEntryIndex}. All paths start with a slash, folder
+ * paths end with a slash.
+ * <p>
+ * The paths of the child resources, which are the entry paths with the
+ * JSON properties files of the folder itself removed and the JSON
+ * properties files of the children replaced by the entry path they define
+ * properties for, are computed once and kept along with the entries. As
+ * all mappings of a bundle usually share the JSON properties extension,
+ * only the result for the last requested extension is kept.
+ * <p>
+ * The returned arrays are shared and must never be modified.
+ */
+final class ChildEntries {
+
+    /**
+     * The child entries of a missing or empty folder.
+     */
+    static final ChildEntries EMPTY = new ChildEntries(new String[0]);
+
+    private final String[] paths;
+
+    private volatile Children children;
+
+    private ChildEntries(final String[] paths) {
+        this.paths = paths;
+    }
+
+    /**
+     * Returns the child entries with the given paths or {@link #EMPTY} if
+     * there are none.
+     */
+    static ChildEntries of(final Collection<String> paths) {
+        if (paths == null || paths.isEmpty()) {
+            return EMPTY;
+        }
+
+        final String[] array = new String[paths.size()];
+        int i = 0;
+        for (final String path : paths) {
+            array[i++] = toAbsolute(path);
+        }
+        return new ChildEntries(array);
+    }
+
+    /**
+     * Returns the child entries with the paths of the given enumeration as
+     * returned by <code>Bundle.getEntryPaths</code> or {@link #EMPTY} if
+     * there are none.
+     */
+    static ChildEntries of(final Enumeration<String> paths) {
+        if (paths == null || !paths.hasMoreElements()) {
+            return EMPTY;
+        }
+
+        String[] array = new String[16];
+        int size = 0;
+        while (paths.hasMoreElements()) {
+            if (size == array.length) {
+                final String[] grown = new String[size * 2];
+                System.arraycopy(array, 0, grown, 0, size);
+                array = grown;
+            }
+            array[size++] = toAbsolute(paths.nextElement());
+        }
+        if (size < array.length) {
+            final String[] trimmed = new String[size];
+            System.arraycopy(array, 0, trimmed, 0, size);
+            array = trimmed;
+        }
+        return new ChildEntries(array);
+    }
+
+    /**
+     * Returns the child entry paths.
+     */
+    String[] getPaths() {
+        return paths;
+    }
+
+    /**
+     * Returns the entry paths of the child resources for the given JSON
+     * properties extension. Entries are returned in bundle order, followed
+     * by the resources only defined by a JSON properties file.
+     */
+    String[] getChildren(final String extension) {
+        final Children current = this.children;
+        if (current != null && current.extension.equals(extension)) {
+            return current.paths;
+        }
+
+        final String[] filtered = filter(extension);
+        this.children = new Children(extension, filtered);
+        return filtered;
+    }
+
+    private String[] filter(final String extension) {
+        final String folderExtension = "/".concat(extension);
+        boolean unfiltered = true;
+        for (final String path : paths) {
+            if (path.endsWith(extension)) {
+                unfiltered = false;
+                break;
+            }
+        }
+        if (unfiltered) {
+            return paths;
+        }
+
+        final Set<String> entries = new LinkedHashSet<>();
+        final Set<String> defined = new LinkedHashSet<>();
+        for (final String path : paths) {
+            if (path.endsWith(folderExtension)) {
+                // In-place properties definition (like .content.json). It's not a child.
+                continue;
+            } else if (path.endsWith(extension)) {
+                defined.add(path.substring(0, path.length() - extension.length()));
+            } else {
+                entries.add(path);
+            }
+        }
+        entries.addAll(defined);
+        return entries.toArray(new String[0]);
+    }
+
+    private static String toAbsolute(final String path) {
+        return path.startsWith("/") ? path : "/".concat(path);
+    }
+
+    // ---------- inner class
+
+    private static final class Children {
+
+        final String extension;
+
+        final String[] paths;
+
+        Children(final String extension, final String[] paths) {
+            this.extension = extension;
+            this.paths = paths;
+        }
+    }
+}
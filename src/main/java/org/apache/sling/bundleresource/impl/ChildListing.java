@@ -0,0 +1,218 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.bundleresource.impl;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.sling.api.resource.ResourceUtil;
+
+/**
+ * The <code>ChildListing</code> is the immutable, ordered list of the
+ * children of a resource: the resource path of each child, whether it is a
+ * folder and the properties defined for it in the JSON properties file of
+ * the parent, if any.
+ * <p>
+ * The children are the {@link ChildEntries#getChildren(String) child
+ * entries} of the parent entry in bundle order, followed by the
+ * sub-resources of the parent which are not also bundle entries. As the
+ * listing only depends on the bundle contents and the sub-resources of the
+ * parent, a {@link BundleResourceProvider} caches it per parent resource
+ * and checks with {@link #isBuiltFrom(Map)} that the sub-resources of a
+ * parent instance are the ones the listing has been built from. They
+ * differ for instances of the same path if one has been loaded from its
+ * own JSON properties file and the other as sub-resource of its parent.
+ */
+final class ChildListing {
+
+    private static final String[] NO_PATHS = new String[0];
+
+    private static final boolean[] NO_FOLDERS = new boolean[0];
+
+    private static final ContentNode[] NO_SUB_RESOURCES = new ContentNode[0];
+
+    private final String[] paths;
+
+    private final boolean[] folders;
+
+    private final ContentNode[] subResources;
+
+    /**
+     * The sub-resources of the parent the listing has been built from
+     */
+    private final Map<String, ContentNode> source;
+
+    private ChildListing(final String[] paths, final boolean[] folders, final ContentNode[] subResources,
+                         final Map<String, ContentNode> source) {
+        this.paths = paths;
+        this.folders = folders;
+        this.subResources = subResources;
+        this.source = source;
+    }
+
+    /**
+     * Lists the children of the resource with the given path.
+     *
+     * @param cache        The cache of the bundle providing the resource
+     * @param mappedPath   The mapping of the resource
+     * @param parentPath   The path of the resource
+     * @param subResources The sub-resources of the resource defined in its
+     *                     JSON properties file or <code>null</code>
+     */
+    static ChildListing build(final BundleResourceCache cache,
+                              final PathMapping mappedPath,
+                              final String parentPath,
+                              final Map<String, ContentNode> subResources) {
+        // trailing slash to enumerate children
+        final String parentEntryPath = mappedPath.getEntryPath(parentPath, "/");
+        final String[] entries = cache.getChildEntries(parentEntryPath)
+                .getChildren(mappedPath.getJSONPropertiesExtension());
+
+        final Builder builder = new Builder(mappedPath, parentEntryPath.length(), subResources);
+        for (final String entry : entries) {
+            builder.add(entry, getSubResource(entries, parentEntryPath, entry, subResources));
+        }
+        if (subResources != null) {
+            for (final Map.Entry<String, ContentNode> subResource : subResources.entrySet()) {
+                final String entry = parentEntryPath.concat(subResource.getKey());
+                if (!contains(entries, entry)) {
+                    builder.add(entry, subResource.getValue());
+                }
+            }
+        }
+        return builder.build();
+    }
+
+    /**
+     * Returns <code>true</code> if the listing has been built from the
+     * given sub-resources of the parent, which are compared by identity.
+     */
+    boolean isBuiltFrom(final Map<String, ContentNode> parentSubResources) {
+        return source == parentSubResources;
+    }
+
+    /**
+     * Returns the number of children.
+     */
+    int size() {
+        return paths.length;
+    }
+
+    /**
+     * Returns the resource path of the child at the given position.
+     */
+    String getPath(final int i) {
+        return paths[i];
+    }
+
+    /**
+     * Returns <code>true</code> if the child at the given position is a
+     * folder entry.
+     */
+    boolean isFolder(final int i) {
+        return folders[i];
+    }
+
+    /**
+     * Returns the properties defined for the child at the given position in
+     * the JSON properties file of the parent or <code>null</code>.
+     */
+    ContentNode getSubResource(final int i) {
+        return subResources[i];
+    }
+
+    /**
+     * Returns the sub-resource with the name of the given entry unless an
+     * entry with the path of the sub-resource exists.
+     */
+    private static ContentNode getSubResource(final String[] entries,
+                                              final String parentEntryPath,
+                                              final String entry,
+                                              final Map<String, ContentNode> subResources) {
+        if (subResources == null) {
+            return null;
+        }
+        final String entryPath = entry.endsWith("/") ? entry.substring(0, entry.length() - 1) : entry;
+        final String name = ResourceUtil.getName(entryPath);
+        final ContentNode subResource = subResources.get(name);
+        if (subResource == null || contains(entries, parentEntryPath.concat(name))) {
+            return null;
+        }
+        return subResource;
+    }
+
+    private static boolean contains(final String[] entries, final String path) {
+        for (final String entry : entries) {
+            if (entry.equals(path)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // ---------- inner class
+
+    private static final class Builder {
+
+        private final PathMapping mappedPath;
+
+        /**
+         * The length of the parent entry path, see add()
+         */
+        private final int prefixLength;
+
+        private final List<String> paths = new ArrayList<>();
+
+        private final List<Boolean> folders = new ArrayList<>();
+
+        private final List<ContentNode> subResources = new ArrayList<>();
+
+        private final Map<String, ContentNode> source;
+
+        Builder(final PathMapping mappedPath, final int prefixLength, final Map<String, ContentNode> source) {
+            this.mappedPath = mappedPath;
+            this.prefixLength = prefixLength;
+            this.source = source;
+        }
+
+        void add(final String entry, final ContentNode subResource) {
+            // sanity check if the prefix is correct
+            final int slash = entry.indexOf('/', prefixLength);
+            if (slash < 0 || slash == entry.length() - 1) {
+                final boolean isFolder = entry.endsWith("/");
+                paths.add(mappedPath.getResourcePath(entry, isFolder ? entry.length() - 1 : entry.length()));
+                folders.add(isFolder);
+                subResources.add(subResource);
+            }
+        }
+
+        ChildListing build() {
+            if (paths.isEmpty()) {
+                return new ChildListing(NO_PATHS, NO_FOLDERS, NO_SUB_RESOURCES, source);
+            }
+            final boolean[] folderFlags = new boolean[folders.size()];
+            for (int i = 0; i < folderFlags.length; i++) {
+                folderFlags[i] = folders.get(i);
+            }
+            return new ChildListing(paths.toArray(new String[0]), folderFlags,
+                    subResources.toArray(new ContentNode[0]), source);
+        }
+    }
+}
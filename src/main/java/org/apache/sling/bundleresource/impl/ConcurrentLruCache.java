@@ -0,0 +1,231 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.bundleresource.impl;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * The <code>ConcurrentLruCache</code> is a size limited map of string keys
+ * which may be used concurrently without any global lock.
+ * <p>
+ * Lookups are plain reads of a <code>ConcurrentHashMap</code>. Instead of
+ * maintaining a strict access order, which would require every read to
+ * modify a shared list, each entry carries a "referenced" flag which is set
+ * on access. Eviction uses the CLOCK (second chance) approximation of LRU:
+ * entries are visited in insertion order, referenced entries get their flag
+ * cleared and are queued again, unreferenced entries are removed. Only one
+ * thread evicts at any time; other writers do not wait for it, so the cache
+ * may briefly hold a few entries more than its limit.
+ * <p>
+ * Hits, misses and evictions are counted in the {@link CacheStatistics} of
+ * the cache, loading values is recorded there by the users of the cache.
+ */
+class ConcurrentLruCache<V> {
+
+    /**
+     * The default size of a cache (value is 20).
+     */
+    static final int DEFAULT_LIMIT = 20;
+
+    private final ConcurrentHashMap<String, Node<V>> map;
+
+    /**
+     * The clock of entries in insertion order, which may also contain
+     * entries already evicted or removed from the map. Replacing the value
+     * of a key keeps its entry, so the clock holds at most one entry per
+     * key in the map plus the ones removed since the last eviction.
+     */
+    private final ConcurrentLinkedQueue<Node<V>> clock = new ConcurrentLinkedQueue<>();
+
+    private final ReentrantLock evictionLock = new ReentrantLock();
+
+    /**
+     * The limit configured for this cache.
+     */
+    private final int limit;
+
+    private final CacheStatistics statistics = new CacheStatistics();
+
+    /**
+     * Creates a new instance of this size limited cache.
+     *
+     * @param limit The maximum number of entries in this cache. If this value
+     *              is less than or equal to zero, the default size of
+     *              {@link #DEFAULT_LIMIT} is used.
+     */
+    ConcurrentLruCache(int limit) {
+        // normalize size to a positive number
+        if (limit <= 0) {
+            limit = DEFAULT_LIMIT;
+        }
+
+        this.limit = limit;
+        this.map = new ConcurrentHashMap<>(Math.min(limit, 256));
+    }
+
+    /**
+     * Returns the value cached for the key or <code>null</code> if there
+     * is none.
+     */
+    V get(final String key) {
+        final Node<V> node = map.get(key);
+        if (node == null) {
+            statistics.recordMiss();
+            return null;
+        }
+
+        statistics.recordHit();
+        // only write the flag if required to not contend on hot entries
+        if (!node.referenced) {
+            node.referenced = true;
+        }
+        return node.value;
+    }
+
+    /**
+     * Returns the value cached for the key or <code>null</code> if there
+     * is none, without recording a hit or miss. Used for lookups which only
+     * answer a request if they find a value, the lookup answering the
+     * request otherwise records the outcome.
+     */
+    V peek(final String key) {
+        final Node<V> node = map.get(key);
+        if (node == null) {
+            return null;
+        }
+
+        if (!node.referenced) {
+            node.referenced = true;
+        }
+        return node.value;
+    }
+
+    /**
+     * Caches the value for the key, replacing any value already cached and
+     * evicting entries if the limit is exceeded. A replaced value keeps the
+     * position of its key in the clock and counts as an access.
+     */
+    void put(final String key, final V value) {
+        final Node<V> node = new Node<>(key, value);
+        while (true) {
+            final Node<V> existing = map.putIfAbsent(key, node);
+            if (existing == null) {
+                clock.add(node);
+                if (map.size() > limit) {
+                    evict();
+                }
+                return;
+            }
+
+            existing.value = value;
+            existing.referenced = true;
+            if (map.get(key) == existing) {
+                return;
+            }
+            // the entry has been evicted or removed meanwhile, add it again
+        }
+    }
+
+    /**
+     * Removes all entries from the cache.
+     */
+    void clear() {
+        map.clear();
+        clock.clear();
+    }
+
+    /**
+     * Returns the current number of entries in the cache.
+     */
+    int size() {
+        return map.size();
+    }
+
+    /**
+     * Returns the maximum number of entries in the cache.
+     */
+    int getLimit() {
+        return limit;
+    }
+
+    /**
+     * Returns the statistics of this cache.
+     */
+    CacheStatistics getStatistics() {
+        return statistics;
+    }
+
+    private void evict() {
+        // if another thread is already evicting, don't wait for it
+        while (evictionLock.tryLock()) {
+            boolean exhausted = false;
+            try {
+                // each entry is given a second chance at most once per sweep,
+                // after that entries are evicted regardless of being referenced
+                int secondChances = limit + 1;
+                while (map.size() > limit) {
+                    final Node<V> node = clock.poll();
+                    if (node == null) {
+                        // the entries missing in the clock are just being
+                        // added, their writers will evict on their own
+                        exhausted = true;
+                        break;
+                    }
+                    if (map.get(node.key) != node) {
+                        // stale clock entry, the key has been replaced or removed
+                        continue;
+                    }
+                    if (node.referenced && secondChances > 0) {
+                        secondChances--;
+                        node.referenced = false;
+                        clock.add(node);
+                    } else if (map.remove(node.key, node)) {
+                        statistics.recordEviction();
+                    }
+                }
+            } finally {
+                evictionLock.unlock();
+            }
+
+            // writers failing to get the lock before it was released rely on
+            // this thread to evict their entries, so check the size again
+            if (exhausted || map.size() <= limit) {
+                return;
+            }
+        }
+    }
+
+    // ---------- inner class
+
+    private static final class Node<V> {
+
+        final String key;
+
+        volatile V value;
+
+        volatile boolean referenced;
+
+        Node(final String key, final V value) {
+            this.key = key;
+            this.value = value;
+        }
+    }
+}
@@ -0,0 +1,360 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.bundleresource.impl;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.json.Json;
+import javax.json.JsonException;
+import javax.json.stream.JsonParser;
+import javax.json.stream.JsonParserFactory;
+
+/**
+ * The <code>ContentNode</code> is the immutable, parsed form of a JSON
+ * properties file. Nested JSON objects are child nodes, defining the
+ * sub-resources of the resource, all other values are properties.
+ * <p>
+ * Nodes are shared between all resources created from the same JSON file
+ * through the {@link BundleResourceCache}, so neither the node nor any of
+ * its maps, lists or values may be modified.
+ * <p>
+ * Files are read with a streaming <code>JsonParser</code>, which creates the
+ * final maps and lists in a single pass without an intermediate
+ * <code>JsonObject</code> tree. Names and short string values are shared
+ * through the {@link StringPool} of the bundle and the properties are kept
+ * in a compact {@link PropertyMap}. The parser may also skip everything but a single nested
+ * object or read only the nested objects without any properties, see
+ * {@link #parse(InputStream, String[], StringPool)} and
+ * {@link #parseStructure(InputStream, StringPool)}.
+ */
+final class ContentNode {
+
+    static final ContentNode EMPTY = new ContentNode(
+            Collections.<String, Object>emptyMap(), Collections.<String, ContentNode>emptyMap());
+
+    private static volatile JsonParserFactory parserFactory;
+
+    private final Map<String, Object> properties;
+
+    private final Map<String, ContentNode> children;
+
+    private ContentNode(final Map<String, Object> properties, final Map<String, ContentNode> children) {
+        this.properties = properties;
+        this.children = children;
+    }
+
+    /**
+     * Parses the JSON object read from the stream, which is closed
+     * afterwards.
+     */
+    static ContentNode parse(final InputStream in, final StringPool pool) throws IOException {
+        try (JsonParser parser = getParserFactory().createParser(in)) {
+            if (!parser.hasNext() || parser.next() != JsonParser.Event.START_OBJECT) {
+                throw new JsonException("Expected a JSON object");
+            }
+            // null values are ignored on the top level only
+            return readNode(parser, false, pool);
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Parses only the nested object at the given relative path of the JSON
+     * object read from the stream, which is closed afterwards. All other
+     * members are skipped without creating any values. If there is more than
+     * one member with the same name, the last one is used, like
+     * {@link #parse(InputStream, StringPool)} does.
+     *
+     * @param in   The JSON properties file
+     * @param path The names of the nested objects leading to the object to
+     *             parse, must not be empty
+     * @param pool The pool of the names and values
+     * @return The node of the nested object or <code>null</code> if the
+     * path does not exist.
+     */
+    static ContentNode parse(final InputStream in, final String[] path, final StringPool pool)
+            throws IOException {
+        try (JsonParser parser = getParserFactory().createParser(in)) {
+            if (!parser.hasNext() || parser.next() != JsonParser.Event.START_OBJECT) {
+                throw new JsonException("Expected a JSON object");
+            }
+            return readDescendant(parser, path, 0, pool);
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Parses the nested objects of the JSON object read from the stream,
+     * which is closed afterwards, skipping all properties. The returned nodes
+     * only have children.
+     */
+    static ContentNode parseStructure(final InputStream in, final StringPool pool) throws IOException {
+        try (JsonParser parser = getParserFactory().createParser(in)) {
+            if (!parser.hasNext() || parser.next() != JsonParser.Event.START_OBJECT) {
+                throw new JsonException("Expected a JSON object");
+            }
+            return readStructure(parser, false, pool);
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Returns the descendant node at the given relative path or
+     * <code>null</code> if there is none.
+     */
+    ContentNode getDescendant(final String[] path) {
+        ContentNode node = this;
+        for (int i = 0; node != null && i < path.length; i++) {
+            node = node.getChild(path[i]);
+        }
+        return node;
+    }
+
+    /**
+     * Merges the two nodes, properties and children of the
+     * <code>overlay</code> replace the ones of the <code>base</code>.
+     */
+    static ContentNode merge(final ContentNode base, final ContentNode overlay) {
+        if (base == null || base.isEmpty()) {
+            return overlay;
+        }
+        if (overlay == null || overlay.isEmpty()) {
+            return base;
+        }
+
+        final Map<String, Object> properties = new LinkedHashMap<>(base.properties);
+        properties.putAll(overlay.properties);
+        final Map<String, ContentNode> children = new LinkedHashMap<>(base.children);
+        children.putAll(overlay.children);
+        return new ContentNode(PropertyMap.of(properties), Collections.unmodifiableMap(children));
+    }
+
+    /**
+     * Returns the unmodifiable properties of this node.
+     */
+    Map<String, Object> getProperties() {
+        return properties;
+    }
+
+    /**
+     * Returns the unmodifiable child nodes of this node by name.
+     */
+    Map<String, ContentNode> getChildren() {
+        return children;
+    }
+
+    /**
+     * Returns the named child node or <code>null</code>.
+     */
+    ContentNode getChild(final String name) {
+        return children.get(name);
+    }
+
+    boolean isEmpty() {
+        return properties.isEmpty() && children.isEmpty();
+    }
+
+    private static JsonParserFactory getParserFactory() {
+        JsonParserFactory factory = parserFactory;
+        if (factory == null) {
+            factory = Json.createParserFactory(null);
+            parserFactory = factory;
+        }
+        return factory;
+    }
+
+    /**
+     * Reads the members of the current object up to its end.
+     */
+    private static ContentNode readNode(final JsonParser parser, final boolean keepNull, final StringPool pool) {
+        Map<String, Object> properties = null;
+        Map<String, ContentNode> children = null;
+        JsonParser.Event event;
+        while ((event = parser.next()) != JsonParser.Event.END_OBJECT) {
+            final String name = readName(parser, event, pool);
+            event = parser.next();
+            if (event == JsonParser.Event.START_OBJECT) {
+                if (children == null) {
+                    children = new LinkedHashMap<>();
+                }
+                children.put(name, readNode(parser, true, pool));
+                if (properties != null) {
+                    // the last member with the same name wins
+                    properties.remove(name);
+                }
+            } else if (keepNull || event != JsonParser.Event.VALUE_NULL) {
+                if (properties == null) {
+                    properties = new LinkedHashMap<>();
+                }
+                properties.put(name, readValue(parser, event, pool));
+                if (children != null) {
+                    children.remove(name);
+                }
+            }
+        }
+
+        if (properties == null && children == null) {
+            return EMPTY;
+        }
+        return new ContentNode(
+                properties == null ? Collections.<String, Object>emptyMap() : PropertyMap.of(properties),
+                children == null ? Collections.<String, ContentNode>emptyMap() : Collections.unmodifiableMap(children));
+    }
+
+    /**
+     * Reads the members of the current object up to its end, parsing only
+     * the last nested object named like the path element at the given depth
+     * and within it the descendants at the remaining path.
+     */
+    private static ContentNode readDescendant(final JsonParser parser, final String[] path, final int depth,
+                                              final StringPool pool) {
+        ContentNode found = null;
+        JsonParser.Event event;
+        while ((event = parser.next()) != JsonParser.Event.END_OBJECT) {
+            final String name = readName(parser, event, pool);
+            event = parser.next();
+            if (!name.equals(path[depth])) {
+                skip(parser, event);
+            } else if (event == JsonParser.Event.START_OBJECT) {
+                found = depth == path.length - 1
+                        ? readNode(parser, true, pool)
+                        : readDescendant(parser, path, depth + 1, pool);
+            } else if (depth > 0 || event != JsonParser.Event.VALUE_NULL) {
+                // a later property replaces the object, except for null
+                // values on the top level, which are ignored
+                found = null;
+                skip(parser, event);
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Reads the nested objects of the current object up to its end. Like for
+     * {@link #readNode(JsonParser, boolean, StringPool)}, null values only
+     * replace an object of the same name if they are kept.
+     */
+    private static ContentNode readStructure(final JsonParser parser, final boolean keepNull,
+                                             final StringPool pool) {
+        Map<String, ContentNode> children = null;
+        JsonParser.Event event;
+        while ((event = parser.next()) != JsonParser.Event.END_OBJECT) {
+            final String name = readName(parser, event, pool);
+            event = parser.next();
+            if (event == JsonParser.Event.START_OBJECT) {
+                if (children == null) {
+                    children = new LinkedHashMap<>();
+                }
+                children.put(name, readStructure(parser, true, pool));
+            } else {
+                if (children != null && (keepNull || event != JsonParser.Event.VALUE_NULL)) {
+                    // the last member with the same name wins
+                    children.remove(name);
+                }
+                skip(parser, event);
+            }
+        }
+
+        if (children == null) {
+            return EMPTY;
+        }
+        return new ContentNode(Collections.<String, Object>emptyMap(), Collections.unmodifiableMap(children));
+    }
+
+    /**
+     * Skips the value started by the given event.
+     */
+    private static void skip(final JsonParser parser, final JsonParser.Event event) {
+        if (event != JsonParser.Event.START_OBJECT && event != JsonParser.Event.START_ARRAY) {
+            return;
+        }
+        int depth = 1;
+        while (depth > 0) {
+            switch (parser.next()) {
+                case START_OBJECT:
+                case START_ARRAY:
+                    depth++;
+                    break;
+                case END_OBJECT:
+                case END_ARRAY:
+                    depth--;
+                    break;
+                default:
+                    break;
+            }
+        }
+    }
+
+    private static String readName(final JsonParser parser, final JsonParser.Event event, final StringPool pool) {
+        if (event != JsonParser.Event.KEY_NAME) {
+            throw new JsonException("Expected a member name but got " + event);
+        }
+        return pool.intern(parser.getString());
+    }
+
+    private static Object readValue(final JsonParser parser, final JsonParser.Event event, final StringPool pool) {
+        switch (event) {
+            // type NULL -> return null
+            case VALUE_NULL:
+                return null;
+            // type TRUE or FALSE -> return boolean
+            case VALUE_FALSE:
+                return false;
+            case VALUE_TRUE:
+                return true;
+            // type String -> return String
+            case VALUE_STRING:
+                return pool.intern(parser.getString());
+            // type Number -> return long or double
+            case VALUE_NUMBER:
+                if (parser.isIntegralNumber()) {
+                    return parser.getLong();
+                }
+                return parser.getBigDecimal().doubleValue();
+            // type ARRAY -> return list and call this method for each value
+            case START_ARRAY:
+                final List<Object> array = new ArrayList<>();
+                JsonParser.Event item;
+                while ((item = parser.next()) != JsonParser.Event.END_ARRAY) {
+                    array.add(readValue(parser, item, pool));
+                }
+                return Collections.unmodifiableList(array);
+            // type OBJECT -> return map
+            case START_OBJECT:
+                final Map<String, Object> map = new LinkedHashMap<>();
+                JsonParser.Event member;
+                while ((member = parser.next()) != JsonParser.Event.END_OBJECT) {
+                    final String name = readName(parser, member, pool);
+                    map.put(name, readValue(parser, parser.next(), pool));
+                }
+                return PropertyMap.of(map);
+            default:
+                throw new JsonException("Unexpected " + event);
+        }
+    }
+}
@@ -0,0 +1,128 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.bundleresource.impl;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The <code>LatencyHistogram</code> counts durations in buckets of powers
+ * of two nanoseconds: bucket <code>i</code> counts durations of at least
+ * <code>2^i</code> and less than <code>2^(i+1)</code> nanoseconds, the last
+ * bucket counts all longer durations.
+ * <p>
+ * Like the {@link CacheStatistics} the buckets are <code>LongAdder</code>
+ * instances, so recording does not contend between threads.
+ */
+final class LatencyHistogram {
+
+    /**
+     * The number of buckets, the last bucket starts at about 1.1 seconds.
+     */
+    static final int BUCKETS = 31;
+
+    private final LongAdder[] buckets = new LongAdder[BUCKETS];
+
+    private final LongAdder totalTime = new LongAdder();
+
+    LatencyHistogram() {
+        for (int i = 0; i < BUCKETS; i++) {
+            buckets[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * Records a duration of the given number of nanoseconds.
+     */
+    void record(final long nanos) {
+        final int bucket = 63 - Long.numberOfLeadingZeros(Math.max(nanos, 1));
+        buckets[Math.min(bucket, BUCKETS - 1)].increment();
+        totalTime.add(nanos);
+    }
+
+    /**
+     * Returns the number of recorded durations.
+     */
+    long getCount() {
+        long count = 0;
+        for (final LongAdder bucket : buckets) {
+            count += bucket.sum();
+        }
+        return count;
+    }
+
+    /**
+     * Returns the counts of the buckets.
+     */
+    long[] getBuckets() {
+        final long[] counts = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] = buckets[i].sum();
+        }
+        return counts;
+    }
+
+    /**
+     * Returns the mean duration in microseconds or zero if nothing has been
+     * recorded yet.
+     */
+    double getMeanTime() {
+        final long count = getCount();
+        if (count == 0) {
+            return 0;
+        }
+        return (double) totalTime.sum() / count / TimeUnit.MICROSECONDS.toNanos(1);
+    }
+
+    /**
+     * Returns the upper bound in microseconds of the bucket containing the
+     * given percentile of the recorded durations or zero if nothing has been
+     * recorded yet.
+     *
+     * @param percentile The percentile, between 0 and 100
+     */
+    double getPercentileTime(final double percentile) {
+        final long[] counts = getBuckets();
+        long count = 0;
+        for (final long bucket : counts) {
+            count += bucket;
+        }
+        if (count == 0) {
+            return 0;
+        }
+
+        final long rank = Math.max(1, (long) Math.ceil(count * percentile / 100));
+        long seen = 0;
+        int bucket = 0;
+        while (bucket < BUCKETS - 1) {
+            seen += counts[bucket];
+            if (seen >= rank) {
+                break;
+            }
+            bucket++;
+        }
+        return (double) (1L << (bucket + 1)) / TimeUnit.MICROSECONDS.toNanos(1);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("Count: %d, Mean: %.1f \u00b5s, 50%%: < %.1f \u00b5s, 99%%: < %.1f \u00b5s",
+                getCount(), getMeanTime(), getPercentileTime(50), getPercentileTime(99));
+    }
+}
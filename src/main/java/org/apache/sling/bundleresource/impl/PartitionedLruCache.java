@@ -0,0 +1,195 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.bundleresource.impl;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * The <code>PartitionedLruCache</code> splits the limit of a cache between
+ * several {@link ConcurrentLruCache} partitions, one per entry root, in
+ * proportion to the weights of the roots. The entries of a root only compete
+ * with each other, so a busy root cannot evict the entries of the other roots
+ * of the same bundle.
+ * <p>
+ * A key belongs to the partition with the longest entry root being the key
+ * or one of its ancestors, keys matching no root belong to the partition of the first root.
+ * Without roots there is a single partition, which is used for all keys.
+ */
+final class PartitionedLruCache<V> {
+
+    /**
+     * The entry roots of the partitions, longest first
+     */
+    private final String[] roots;
+
+    private final ConcurrentLruCache<V>[] partitions;
+
+    /**
+     * The partition of keys matching no root
+     */
+    private final ConcurrentLruCache<V> fallback;
+
+    /**
+     * Creates a cache with a single partition of the given limit.
+     */
+    PartitionedLruCache(final int limit) {
+        this(limit, new String[0], new int[0]);
+    }
+
+    /**
+     * Creates a cache with a partition per distinct entry root. The weights
+     * of roots given more than once are added.
+     *
+     * @param limit   The limit of all partitions together
+     * @param roots   The entry roots, without trailing slash
+     * @param weights The positive weight of each root
+     */
+    @SuppressWarnings("unchecked")
+    PartitionedLruCache(final int limit, final String[] roots, final int[] weights) {
+        final List<String> distinctRoots = new ArrayList<>();
+        final List<Integer> distinctWeights = new ArrayList<>();
+        int totalWeight = 0;
+        for (int i = 0; i < roots.length; i++) {
+            final int index = distinctRoots.indexOf(roots[i]);
+            if (index < 0) {
+                distinctRoots.add(roots[i]);
+                distinctWeights.add(weights[i]);
+            } else {
+                distinctWeights.set(index, distinctWeights.get(index) + weights[i]);
+            }
+            totalWeight += weights[i];
+        }
+
+        if (distinctRoots.size() < 2) {
+            this.roots = new String[0];
+            this.partitions = new ConcurrentLruCache[] {new ConcurrentLruCache<V>(limit)};
+            this.fallback = partitions[0];
+            return;
+        }
+
+        final int normalizedLimit = limit > 0 ? limit : ConcurrentLruCache.DEFAULT_LIMIT;
+        final Integer[] order = new Integer[distinctRoots.size()];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(final Integer i1, final Integer i2) {
+                return Integer.compare(distinctRoots.get(i2).length(), distinctRoots.get(i1).length());
+            }
+        });
+
+        this.roots = new String[order.length];
+        this.partitions = new ConcurrentLruCache[order.length];
+        ConcurrentLruCache<V> first = null;
+        for (int i = 0; i < order.length; i++) {
+            final int root = order[i];
+            final long share = (long) normalizedLimit * distinctWeights.get(root) / totalWeight;
+            this.roots[i] = distinctRoots.get(root);
+            this.partitions[i] = new ConcurrentLruCache<>((int) Math.max(1, share));
+            if (root == 0) {
+                first = this.partitions[i];
+            }
+        }
+        this.fallback = first;
+    }
+
+    /**
+     * Returns the partition caching the given key.
+     */
+    ConcurrentLruCache<V> getPartition(final String key) {
+        for (int i = 0; i < roots.length; i++) {
+            final String root = roots[i];
+            if (key.startsWith(root) && (key.length() == root.length() || key.charAt(root.length()) == '/')) {
+                return partitions[i];
+            }
+        }
+        return fallback;
+    }
+
+    /**
+     * Returns the partition of the given entry root or <code>null</code> if
+     * the cache is not partitioned by this root.
+     */
+    ConcurrentLruCache<V> getRootPartition(final String root) {
+        for (int i = 0; i < roots.length; i++) {
+            if (roots[i].equals(root)) {
+                return partitions[i];
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns <code>true</code> if the cache has more than one partition.
+     */
+    boolean isPartitioned() {
+        return partitions.length > 1;
+    }
+
+    /**
+     * Removes all entries from all partitions.
+     */
+    void clear() {
+        for (final ConcurrentLruCache<V> partition : partitions) {
+            partition.clear();
+        }
+    }
+
+    /**
+     * Returns the current number of entries in all partitions.
+     */
+    int size() {
+        int size = 0;
+        for (final ConcurrentLruCache<V> partition : partitions) {
+            size += partition.size();
+        }
+        return size;
+    }
+
+    /**
+     * Returns the maximum number of entries in all partitions.
+     */
+    int getLimit() {
+        int limit = 0;
+        for (final ConcurrentLruCache<V> partition : partitions) {
+            limit += partition.getLimit();
+        }
+        return limit;
+    }
+
+    /**
+     * Returns the statistics of the cache, which are the statistics of the
+     * single partition or the sum of the statistics of all partitions at the
+     * time of the call.
+     */
+    CacheStatistics getStatistics() {
+        if (partitions.length == 1) {
+            return partitions[0].getStatistics();
+        }
+        final CacheStatistics sum = new CacheStatistics();
+        for (final ConcurrentLruCache<V> partition : partitions) {
+            sum.add(partition.getStatistics());
+        }
+        return sum;
+    }
+}
@@ -27,6 +27,7 @@ public class PathMapping {
 
     public static final String DIR_PATH = "path";
     public static final String DIR_JSON = "propsJSON";
+    public static final String DIR_CACHE_WEIGHT = "cacheWeight";
     public static final String DEFAULT_JSON_DIR = ".content.json";
 
     private static final char prefixSeparatorChar = '!';
@@ -37,6 +38,18 @@ public class PathMapping {
 
     private final String jsonExpandExtension;
 
+    /**
+     * The path of the JSON properties file of a folder relative to the
+     * folder, e.g. "/.content.json"
+     */
+    private final String jsonFolderSuffix;
+
+    /**
+     * The share of this root in the caches of the bundle, if the caches are
+     * partitioned between the roots
+     */
+    private final int cacheWeight;
+
     public static PathMapping[] getRoots(final String rootList) {
         List<PathMapping> prefixList = new ArrayList<>();
 
@@ -45,10 +58,11 @@ public class PathMapping {
             final String resourceRoot = entry.getValue();
             final String pathDirective = entry.getDirectiveValue(DIR_PATH);
             final String expandDirective = entry.getDirectiveValue(DIR_JSON);
+            final int cacheWeight = toCacheWeight(entry.getDirectiveValue(DIR_CACHE_WEIGHT));
             if (pathDirective != null) {
-                prefixList.add(new PathMapping(resourceRoot, pathDirective, expandDirective));
+                prefixList.add(new PathMapping(resourceRoot, pathDirective, expandDirective, cacheWeight));
             } else {
-                prefixList.add(PathMapping.create(resourceRoot, expandDirective));
+                prefixList.add(PathMapping.create(resourceRoot, expandDirective, cacheWeight));
             }
         }
         return prefixList.toArray(new PathMapping[prefixList.size()]);
@@ -57,6 +71,12 @@ public class PathMapping {
 
     static PathMapping create(final String configPath,
                               final String expandDirective) {
+        return create(configPath, expandDirective, 1);
+    }
+
+    static PathMapping create(final String configPath,
+                              final String expandDirective,
+                              final int cacheWeight) {
         String resourceRoot;
         String entryRoot;
         int prefixSep = configPath.indexOf(prefixSeparatorChar);
@@ -67,12 +87,19 @@ public class PathMapping {
             resourceRoot = configPath;
             entryRoot = null;
         }
-        return new PathMapping(resourceRoot, entryRoot, expandDirective);
+        return new PathMapping(resourceRoot, entryRoot, expandDirective, cacheWeight);
     }
 
     PathMapping(final String resourceRoot,
                 final String entryRoot,
                 final String expandDirective) {
+        this(resourceRoot, entryRoot, expandDirective, 1);
+    }
+
+    PathMapping(final String resourceRoot,
+                final String entryRoot,
+                final String expandDirective,
+                final int cacheWeight) {
         this.resourceRoot = ensureNoTrailingSlash(resourceRoot);
         this.resourceRootPrefix = ensureTrailingSlash(resourceRoot);
         this.entryRoot = ensureLeadingSlash(ensureNoTrailingSlash(entryRoot));
@@ -82,38 +109,77 @@ public class PathMapping {
         } else {
             this.jsonExpandExtension = ensureLeadingDot(expandDirective);
         }
+        this.jsonFolderSuffix = "/".concat(this.jsonExpandExtension);
+        this.cacheWeight = cacheWeight > 0 ? cacheWeight : 1;
     }
 
     String getJSONPropertiesExtension() {
         return this.jsonExpandExtension;
     }
 
+    /**
+     * Returns the path of the JSON properties file defined inside a folder
+     * relative to the folder, which is the extension with a leading slash.
+     */
+    String getJSONPropertiesFolderSuffix() {
+        return this.jsonFolderSuffix;
+    }
+
+    /**
+     * Returns the weight of the share of this root in the caches of the
+     * bundle, 1 unless set with the {@value #DIR_CACHE_WEIGHT} directive.
+     */
+    int getCacheWeight() {
+        return this.cacheWeight;
+    }
+
     boolean isChild(final String resourcePath) {
         return resourcePath.startsWith(resourceRootPrefix)
                 || resourcePath.equals(resourceRoot);
     }
 
     String getEntryPath(final String resourcePath) {
+        return getEntryPath(resourcePath, "");
+    }
+
+    /**
+     * Returns the entry path of the given resource path with the suffix
+     * appended, e.g. a trailing slash or the JSON properties extension, or
+     * <code>null</code> if the resource path is not mapped. Only the
+     * resulting string is created, without intermediate strings, and none
+     * at all if the root is not mapped to another entry root and the suffix
+     * is empty.
+     */
+    String getEntryPath(final String resourcePath, final String suffix) {
         if (entryRootPrefix == null) {
-            return resourcePath;
+            return resourcePath.concat(suffix);
         }
 
         if (resourcePath.startsWith(resourceRootPrefix)) {
-            return entryRootPrefix.concat(resourcePath.substring(resourceRootPrefix.length()));
+            return join(entryRootPrefix, resourcePath, resourceRootPrefix.length(), resourcePath.length(), suffix);
         } else if (resourcePath.equals(resourceRoot)) {
-            return entryRoot;
+            return entryRoot.concat(suffix);
         }
 
         return null;
     }
 
     String getResourcePath(final String entryPath) {
+        return getResourcePath(entryPath, entryPath.length());
+    }
+
+    /**
+     * Returns the resource path of the entry path up to the given end, e.g.
+     * to drop the trailing slash of a folder entry, or <code>null</code> if
+     * the entry path is not mapped. Only the resulting string is created.
+     */
+    String getResourcePath(final String entryPath, final int end) {
         if (entryRootPrefix == null) {
-            return entryPath;
+            return end == entryPath.length() ? entryPath : entryPath.substring(0, end);
         }
-        if (entryPath.startsWith(entryRootPrefix)) {
-            return resourceRootPrefix.concat(entryPath.substring(entryRootPrefix.length()));
-        } else if (entryPath.equals(entryRoot)) {
+        if (end >= entryRootPrefix.length() && entryPath.startsWith(entryRootPrefix)) {
+            return join(resourceRootPrefix, entryPath, entryRootPrefix.length(), end, "");
+        } else if (end == entryRoot.length() && entryPath.startsWith(entryRoot)) {
             return resourceRoot;
         }
         return null;
@@ -135,6 +201,34 @@ public class PathMapping {
         return entryRootPrefix;
     }
 
+    /**
+     * Returns the prefix followed by the characters of the source between
+     * start and end and the suffix as a single new string.
+     */
+    private static String join(final String prefix, final String source, final int start, final int end,
+                               final String suffix) {
+        final int length = end - start;
+        final char[] chars = new char[prefix.length() + length + suffix.length()];
+        prefix.getChars(0, prefix.length(), chars, 0);
+        source.getChars(start, end, chars, prefix.length());
+        suffix.getChars(0, suffix.length(), chars, prefix.length() + length);
+        return new String(chars);
+    }
+
+    /**
+     * Parses the cache weight directive, missing or invalid weights are 1.
+     */
+    private static int toCacheWeight(final String directive) {
+        if (directive != null) {
+            try {
+                return Math.max(1, Integer.parseInt(directive.trim()));
+            } catch (final NumberFormatException nfe) {
+                // fall through
+            }
+        }
+        return 1;
+    }
+
     private static String ensureLeadingDot(final String path) {
         if (!path.startsWith(".")) {
             return ".".concat(path);
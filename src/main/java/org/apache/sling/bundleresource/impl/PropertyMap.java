@@ -0,0 +1,140 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.bundleresource.impl;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * The <code>PropertyMap</code> is the immutable map of the properties of a
+ * {@link ContentNode}. The names and values are kept in a single array in
+ * their original order, which takes a fraction of the memory of a
+ * <code>LinkedHashMap</code> with its entry objects. Lookups scan the
+ * names, which is as fast as hashing for the few properties most resources
+ * have, so only maps of up to {@link #MAX_SIZE} properties are compact.
+ */
+final class PropertyMap extends AbstractMap<String, Object> {
+
+    /**
+     * The maximum number of properties kept in a compact map.
+     */
+    static final int MAX_SIZE = 16;
+
+    /**
+     * The names at even and the values at odd indexes.
+     */
+    private final Object[] table;
+
+    private PropertyMap(final Object[] table) {
+        this.table = table;
+    }
+
+    /**
+     * Returns an immutable map with the properties of the given map. The
+     * given map must not be modified afterwards, larger maps are wrapped
+     * instead of copied.
+     */
+    static Map<String, Object> of(final Map<String, Object> properties) {
+        if (properties.isEmpty()) {
+            return Collections.emptyMap();
+        }
+        if (properties.size() > MAX_SIZE) {
+            return Collections.unmodifiableMap(properties);
+        }
+
+        final Object[] table = new Object[properties.size() * 2];
+        int i = 0;
+        for (final Map.Entry<String, Object> property : properties.entrySet()) {
+            table[i++] = property.getKey();
+            table[i++] = property.getValue();
+        }
+        return new PropertyMap(table);
+    }
+
+    @Override
+    public int size() {
+        return table.length / 2;
+    }
+
+    @Override
+    public boolean containsKey(final Object name) {
+        return indexOf(name) >= 0;
+    }
+
+    @Override
+    public Object get(final Object name) {
+        final int i = indexOf(name);
+        return i >= 0 ? table[i + 1] : null;
+    }
+
+    @Override
+    public Set<Map.Entry<String, Object>> entrySet() {
+        return new AbstractSet<Map.Entry<String, Object>>() {
+            @Override
+            public Iterator<Map.Entry<String, Object>> iterator() {
+                return new Iterator<Map.Entry<String, Object>>() {
+                    private int next;
+
+                    @Override
+                    public boolean hasNext() {
+                        return next < table.length;
+                    }
+
+                    @Override
+                    public Map.Entry<String, Object> next() {
+                        if (next >= table.length) {
+                            throw new NoSuchElementException();
+                        }
+                        final Map.Entry<String, Object> entry = new SimpleImmutableEntry<>(
+                                (String) table[next], table[next + 1]);
+                        next += 2;
+                        return entry;
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return PropertyMap.this.size();
+            }
+        };
+    }
+
+    private int indexOf(final Object name) {
+        // names are mostly pooled, so try identity first
+        for (int i = 0; i < table.length; i += 2) {
+            if (table[i] == name) {
+                return i;
+            }
+        }
+        if (name != null) {
+            for (int i = 0; i < table.length; i += 2) {
+                if (name.equals(table[i])) {
+                    return i;
+                }
+            }
+        }
+        return -1;
+    }
+}
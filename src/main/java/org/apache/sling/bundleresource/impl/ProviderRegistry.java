@@ -0,0 +1,286 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.bundleresource.impl;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The <code>ProviderRegistry</code> maps resource paths to the registered
+ * {@link BundleResourceProvider} owning them, which is the provider with the
+ * longest root being the path or one of its ancestors. If several bundles
+ * provide the same root, the provider registered first owns it, like the
+ * provider with the lowest service id is used by the resource resolver.
+ * <p>
+ * The roots are kept in a trie with a node per path segment, so a lookup
+ * walks the segments of the path once, whatever the number of roots, and
+ * does not allocate. The trie is immutable and replaced on every change,
+ * copying only the nodes from the trie root to the changed root, so
+ * lookups never lock.
+ */
+final class ProviderRegistry {
+
+    private static final BundleResourceProvider[] NO_PROVIDERS = new BundleResourceProvider[0];
+
+    private volatile Node root = Node.EMPTY;
+
+    /**
+     * Adds the provider as the last provider of its root.
+     */
+    synchronized void add(final BundleResourceProvider provider) {
+        root = root.with(getSegments(provider.getMappedPath().getResourceRoot()), 0, provider);
+    }
+
+    /**
+     * Removes the provider, if it has been added.
+     */
+    synchronized void remove(final BundleResourceProvider provider) {
+        final Node changed = root.without(getSegments(provider.getMappedPath().getResourceRoot()), 0, provider);
+        root = changed != null ? changed : Node.EMPTY;
+    }
+
+    /**
+     * Removes all providers.
+     */
+    synchronized void clear() {
+        root = Node.EMPTY;
+    }
+
+    /**
+     * Returns the provider owning the resource with the given absolute path
+     * or <code>null</code> if no root is the path or one of its ancestors.
+     */
+    BundleResourceProvider getProvider(final String path) {
+        if (path == null || !path.startsWith("/")) {
+            return null;
+        }
+
+        Node node = this.root;
+        BundleResourceProvider owner = node.getOwner();
+        int start = 1;
+        while (start < path.length()) {
+            int end = path.indexOf('/', start);
+            if (end < 0) {
+                end = path.length();
+            }
+            // empty segments of duplicate slashes are ignored
+            if (end > start) {
+                final int i = node.find(path, start, end);
+                if (i < 0) {
+                    break;
+                }
+                node = node.children[i];
+                if (node.providers.length > 0) {
+                    owner = node.providers[0];
+                }
+            }
+            start = end + 1;
+        }
+        return owner;
+    }
+
+    /**
+     * Returns the cache of the bundle owning the resource with the given
+     * absolute path or <code>null</code> if no root is the path or one of
+     * its ancestors.
+     */
+    BundleResourceCache getCache(final String path) {
+        final BundleResourceProvider provider = getProvider(path);
+        return provider != null ? provider.getBundleResourceCache() : null;
+    }
+
+    private static String[] getSegments(final String resourceRoot) {
+        if (resourceRoot == null) {
+            // the mapping of "/" has no resource root without trailing slash
+            return new String[0];
+        }
+        final List<String> segments = new ArrayList<>();
+        int start = 0;
+        while (start < resourceRoot.length()) {
+            int end = resourceRoot.indexOf('/', start);
+            if (end < 0) {
+                end = resourceRoot.length();
+            }
+            if (end > start) {
+                segments.add(resourceRoot.substring(start, end));
+            }
+            start = end + 1;
+        }
+        return segments.toArray(new String[0]);
+    }
+
+    // ---------- inner class
+
+    /**
+     * An immutable node of the trie, its children sorted by segment name.
+     */
+    private static final class Node {
+
+        static final Node EMPTY = new Node(new String[0], new Node[0], NO_PROVIDERS);
+
+        final String[] names;
+
+        final Node[] children;
+
+        /**
+         * The providers of the root ending at this node, the first one owns it
+         */
+        final BundleResourceProvider[] providers;
+
+        Node(final String[] names, final Node[] children, final BundleResourceProvider[] providers) {
+            this.names = names;
+            this.children = children;
+            this.providers = providers;
+        }
+
+        BundleResourceProvider getOwner() {
+            return providers.length > 0 ? providers[0] : null;
+        }
+
+        /**
+         * Returns the index of the child named like the segment of the path
+         * between start and end or a negative value if there is no such
+         * child, as <code>Arrays.binarySearch</code> does.
+         */
+        int find(final String path, final int start, final int end) {
+            int low = 0;
+            int high = names.length - 1;
+            while (low <= high) {
+                final int mid = (low + high) >>> 1;
+                final int cmp = compare(names[mid], path, start, end);
+                if (cmp < 0) {
+                    low = mid + 1;
+                } else if (cmp > 0) {
+                    high = mid - 1;
+                } else {
+                    return mid;
+                }
+            }
+            return -(low + 1);
+        }
+
+        /**
+         * Returns a copy of this node with the provider added below the
+         * remaining segments.
+         */
+        Node with(final String[] segments, final int depth, final BundleResourceProvider provider) {
+            if (depth == segments.length) {
+                final BundleResourceProvider[] added = Arrays.copyOf(providers, providers.length + 1);
+                added[providers.length] = provider;
+                return new Node(names, children, added);
+            }
+
+            final String name = segments[depth];
+            final int i = find(name, 0, name.length());
+            if (i >= 0) {
+                final Node[] changed = children.clone();
+                changed[i] = children[i].with(segments, depth + 1, provider);
+                return new Node(names, changed, providers);
+            }
+
+            // insert a new child keeping the names sorted
+            final int insert = -(i + 1);
+            final String[] grownNames = new String[names.length + 1];
+            final Node[] grownChildren = new Node[children.length + 1];
+            System.arraycopy(names, 0, grownNames, 0, insert);
+            System.arraycopy(children, 0, grownChildren, 0, insert);
+            grownNames[insert] = name;
+            grownChildren[insert] = EMPTY.with(segments, depth + 1, provider);
+            System.arraycopy(names, insert, grownNames, insert + 1, names.length - insert);
+            System.arraycopy(children, insert, grownChildren, insert + 1, children.length - insert);
+            return new Node(grownNames, grownChildren, providers);
+        }
+
+        /**
+         * Returns a copy of this node with the provider removed below the
+         * remaining segments, this node if the provider has not been found
+         * or <code>null</code> if the node is empty afterwards.
+         */
+        Node without(final String[] segments, final int depth, final BundleResourceProvider provider) {
+            if (depth == segments.length) {
+                final int i = indexOf(providers, provider);
+                if (i < 0) {
+                    return this;
+                }
+                final BundleResourceProvider[] removed = new BundleResourceProvider[providers.length - 1];
+                System.arraycopy(providers, 0, removed, 0, i);
+                System.arraycopy(providers, i + 1, removed, i, removed.length - i);
+                return prune(names, children, removed);
+            }
+
+            final String name = segments[depth];
+            final int i = find(name, 0, name.length());
+            if (i < 0) {
+                return this;
+            }
+            final Node child = children[i].without(segments, depth + 1, provider);
+            if (child == children[i]) {
+                return this;
+            }
+            if (child != null) {
+                final Node[] changed = children.clone();
+                changed[i] = child;
+                return new Node(names, changed, providers);
+            }
+
+            // drop the empty child
+            final String[] shrunkNames = new String[names.length - 1];
+            final Node[] shrunkChildren = new Node[children.length - 1];
+            System.arraycopy(names, 0, shrunkNames, 0, i);
+            System.arraycopy(children, 0, shrunkChildren, 0, i);
+            System.arraycopy(names, i + 1, shrunkNames, i, shrunkNames.length - i);
+            System.arraycopy(children, i + 1, shrunkChildren, i, shrunkChildren.length - i);
+            return prune(shrunkNames, shrunkChildren, providers);
+        }
+
+        private static Node prune(final String[] names, final Node[] children,
+                                  final BundleResourceProvider[] providers) {
+            if (children.length == 0 && providers.length == 0) {
+                return null;
+            }
+            return new Node(names, children, providers);
+        }
+
+        private static int indexOf(final BundleResourceProvider[] providers, final BundleResourceProvider provider) {
+            for (int i = 0; i < providers.length; i++) {
+                if (providers[i] == provider) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        /**
+         * Compares the name with the segment of the path between start and
+         * end like <code>String.compareTo</code>.
+         */
+        private static int compare(final String name, final String path, final int start, final int end) {
+            final int length = end - start;
+            final int common = Math.min(name.length(), length);
+            for (int i = 0; i < common; i++) {
+                final int cmp = name.charAt(i) - path.charAt(start + i);
+                if (cmp != 0) {
+                    return cmp;
+                }
+            }
+            return name.length() - length;
+        }
+    }
+}
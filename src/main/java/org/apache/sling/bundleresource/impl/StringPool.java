@@ -0,0 +1,99 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.bundleresource.impl;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The <code>StringPool</code> shares equal property names and short string
+ * values between the JSON properties files of a bundle, which repeat the
+ * same resource types, primary types and flags over and over. Like the
+ * caches, a pool is kept per bundle by the {@link BundleResourceCache} and
+ * dropped with it.
+ * <p>
+ * Only strings of up to {@link #MAX_LENGTH} characters are pooled, longer
+ * strings like descriptions are rarely repeated. Once the pool holds
+ * {@link #MAX_SIZE} strings, further strings are returned as they are.
+ */
+final class StringPool {
+
+    /**
+     * The maximum length of pooled strings.
+     */
+    static final int MAX_LENGTH = 64;
+
+    /**
+     * The maximum number of pooled strings.
+     */
+    static final int MAX_SIZE = 10000;
+
+    /**
+     * Property names occurring in most JSON properties files, which are
+     * shared by all pools.
+     */
+    private static final Map<String, String> COMMON_NAMES = new HashMap<>();
+
+    static {
+        for (final String name : new String[]{
+                "sling:resourceType", "sling:resourceSuperType", "jcr:primaryType", "jcr:mixinTypes",
+                "jcr:title", "jcr:description", "jcr:created", "jcr:createdBy", "jcr:lastModified",
+                "jcr:lastModifiedBy", "jcr:content", "jcr:data", "jcr:mimeType"}) {
+            COMMON_NAMES.put(name, name);
+        }
+    }
+
+    private final ConcurrentHashMap<String, String> strings = new ConcurrentHashMap<>();
+
+    /**
+     * Returns the pooled instance equal to the given string, adding the
+     * string to the pool if there is none.
+     */
+    String intern(final String value) {
+        final String common = COMMON_NAMES.get(value);
+        if (common != null) {
+            return common;
+        }
+        if (value.length() > MAX_LENGTH) {
+            return value;
+        }
+
+        final String pooled = strings.get(value);
+        if (pooled != null) {
+            return pooled;
+        }
+        if (strings.size() >= MAX_SIZE) {
+            return value;
+        }
+        final String previous = strings.putIfAbsent(value, value);
+        return previous != null ? previous : value;
+    }
+
+    /**
+     * Returns the number of pooled strings, not counting the common names.
+     */
+    int size() {
+        return strings.size();
+    }
+
+    void clear() {
+        strings.clear();
+    }
+}
@@ -0,0 +1,225 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.bundleresource.impl;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The <code>SubResourceIndex</code> maps the resource paths of all
+ * sub-resources defined in the JSON properties files below a mapped root to
+ * the file and the nested object defining them, so a
+ * {@link BundleResourceProvider} finds such a resource, or finds it to be
+ * missing, with a single lookup instead of resolving all ancestors of the
+ * path.
+ * <p>
+ * Building the index only parses the nested objects of the files, not their
+ * properties. The node of a sub-resource is parsed on demand, skipping all
+ * other members of the file unless the whole file is already cached, see
+ * {@link BundleResourceCache#getContent(String, String[])}. The names of the
+ * sub-resources are also kept per parent resource path, in the order of the
+ * file, to enumerate the resource paths without parsing any file, see
+ * {@link BundleResourceProvider#visitResourcePaths(BundleResourceProvider.PathVisitor)}.
+ * <p>
+ * If a sub-resource is defined by more than one JSON properties file, the
+ * file of the deepest resource wins and replaces the whole subtree. Like for
+ * the properties of a resource, a <code>name/.json</code> file is ignored if
+ * a <code>name.json</code> file exists.
+ * Bundle entries always take precedence over sub-resources, so the index is
+ * only consulted for paths not found in the bundle.
+ */
+final class SubResourceIndex {
+
+    private static final Logger LOG = LoggerFactory.getLogger(SubResourceIndex.class);
+
+    private final BundleResourceCache cache;
+
+    private final Map<String, Location> locations;
+
+    /**
+     * The names of the sub-resources by parent resource path
+     */
+    private final Map<String, String[]> childNames;
+
+    private SubResourceIndex(final BundleResourceCache cache,
+                             final Map<String, Location> locations,
+                             final Map<String, String[]> childNames) {
+        this.cache = cache;
+        this.locations = locations;
+        this.childNames = childNames;
+    }
+
+    /**
+     * Builds the index of the sub-resources defined below the root of the
+     * given mapping.
+     */
+    static SubResourceIndex build(final BundleResourceCache cache, final PathMapping mapping) {
+        final String extension = mapping.getJSONPropertiesExtension();
+        final String folderExtension = "/".concat(extension);
+        final String entryRoot = BundleEntryIndex.getEntryRoot(mapping);
+
+        final List<String> propsPaths = cache.findEntryPaths(entryRoot != null ? entryRoot : "/", extension);
+        if (entryRoot != null && cache.getEntry(entryRoot.concat(extension)) != null) {
+            // SLING-10140 - the properties of a root mapped to a file are a sibling entry
+            propsPaths.add(entryRoot.concat(extension));
+        }
+
+        final Map<String, Definer> definersByOwner = new HashMap<>();
+        for (final String propsPath : propsPaths) {
+            final boolean folderForm = propsPath.endsWith(folderExtension);
+            final String ownerEntry = propsPath.substring(0,
+                    propsPath.length() - (folderForm ? folderExtension : extension).length());
+            final String owner = mapping.getResourcePath(ownerEntry.isEmpty() ? "/" : ownerEntry);
+            if (owner != null && (!folderForm || !definersByOwner.containsKey(owner))) {
+                // WS-1963 - the folder form is only a fallback
+                definersByOwner.put(owner, new Definer(owner, propsPath));
+            }
+        }
+
+        // shallow definers first, so deeper definers replace their nodes
+        final List<Definer> definers = new ArrayList<>(definersByOwner.values());
+        Collections.sort(definers, new Comparator<Definer>() {
+            @Override
+            public int compare(final Definer d1, final Definer d2) {
+                return Integer.compare(d1.depth, d2.depth);
+            }
+        });
+
+        final TreeMap<String, Location> locations = new TreeMap<>();
+        final TreeMap<String, String[]> childNames = new TreeMap<>();
+        for (final Definer definer : definers) {
+            try {
+                final ContentNode structure = cache.getContentStructure(definer.propsPath);
+                if (structure != null) {
+                    addChildren(locations, childNames, definer.owner, structure, definer.propsPath, new String[0]);
+                }
+            } catch (final IOException | RuntimeException e) {
+                LOG.error("Cannot read sub-resources from {}", definer.propsPath, e);
+            }
+        }
+        return new SubResourceIndex(cache, new HashMap<>(locations), new HashMap<>(childNames));
+    }
+
+    /**
+     * Returns the node of the sub-resource with the given path or
+     * <code>null</code> if no JSON properties file defines it.
+     */
+    ContentNode get(final String resourcePath) {
+        final Location location = locations.get(resourcePath);
+        if (location == null) {
+            return null;
+        }
+        try {
+            return cache.getContent(location.propsPath, location.path);
+        } catch (final IOException | RuntimeException e) {
+            LOG.error("Cannot read sub-resource {} from {}", resourcePath, location.propsPath, e);
+            return null;
+        }
+    }
+
+    /**
+     * Returns the names of the sub-resources of the resource with the given
+     * path in the order of the defining JSON properties file or
+     * <code>null</code> if it has none.
+     */
+    String[] getChildNames(final String resourcePath) {
+        return childNames.get(resourcePath);
+    }
+
+    /**
+     * Returns the number of indexed sub-resources.
+     */
+    int size() {
+        return locations.size();
+    }
+
+    private static void addChildren(final TreeMap<String, Location> locations,
+                                    final TreeMap<String, String[]> childNames, final String path,
+                                    final ContentNode node, final String propsPath, final String[] nodePath) {
+        final String prefix = path.endsWith("/") ? path : path.concat("/");
+        if (node.getChildren().isEmpty()) {
+            childNames.remove(path);
+        } else {
+            childNames.put(path, node.getChildren().keySet().toArray(new String[0]));
+        }
+        for (final Map.Entry<String, ContentNode> child : node.getChildren().entrySet()) {
+            final String childPath = prefix.concat(child.getKey());
+            final String[] childNodePath = Arrays.copyOf(nodePath, nodePath.length + 1);
+            childNodePath[nodePath.length] = child.getKey();
+            if (locations.put(childPath, new Location(propsPath, childNodePath)) != null) {
+                // replacing a node of a shallower definer replaces its subtree
+                locations.subMap(childPath.concat("/"), childPath.concat("0")).clear();
+                childNames.subMap(childPath.concat("/"), childPath.concat("0")).clear();
+            }
+            addChildren(locations, childNames, childPath, child.getValue(), propsPath, childNodePath);
+        }
+    }
+
+    // ---------- inner class
+
+    private static final class Location {
+
+        /**
+         * The path of the JSON properties file
+         */
+        final String propsPath;
+
+        /**
+         * The names of the nested objects leading to the sub-resource
+         */
+        final String[] path;
+
+        Location(final String propsPath, final String[] path) {
+            this.propsPath = propsPath;
+            this.path = path;
+        }
+    }
+
+    private static final class Definer {
+
+        final String owner;
+
+        final String propsPath;
+
+        final int depth;
+
+        Definer(final String owner, final String propsPath) {
+            this.owner = owner;
+            this.propsPath = propsPath;
+
+            int slashes = 0;
+            for (int i = 0; i < owner.length(); i++) {
+                if (owner.charAt(i) == '/') {
+                    slashes++;
+                }
+            }
+            this.depth = slashes;
+        }
+    }
+}
@@ -1,10 +1,38 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
 package org.apache.sling.bundleresource.impl.reporting;
 
 import static org.apache.sling.api.resource.observation.ResourceChange.ChangeType;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 
 import org.apache.sling.api.resource.Resource;
 import org.apache.sling.api.resource.observation.ResourceChange;
@@ -14,44 +42,469 @@ import org.apache.sling.spi.resource.provider.ResourceContext;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+/**
+ * Reports the resources of a provider as added or removed. The resource paths
+ * are enumerated on a single background thread, so framework events never
+ * wait for it, without creating any resources, see
+ * {@link BundleResourceProvider#visitResourcePaths(BundleResourceProvider.PathVisitor)},
+ * and the changes are reported in batches of at most the configured size
+ * while enumerating, so without diffing the memory used does not depend on
+ * the number of resources. Reports which have not started yet are coalesced per bundle and
+ * root, see {@link #reportResourceChanges(BundleResourceProvider, ChangeType, ObservationReporter)}.
+ * <p>
+ * A removed provider is still read when its removal is reported, so it may
+ * only be disposed afterwards, see
+ * {@link #runAfterRemoval(BundleResourceProvider, Runnable)}.
+ * <p>
+ * With diffing enabled, a snapshot of the resources with their properties
+ * and content is taken on the background thread before the removed provider
+ * is released, and removals are delayed by the grace period. If the bundle
+ * is started again with changed contents within the grace period, only the
+ * resources which have been added, changed or removed by the update are
+ * reported. The snapshot holds the path and a checksum of every removed
+ * resource until then, so unlike without diffing, the memory used grows
+ * with the number of resources of the roots removed within the grace period.
+ */
 public class ResourceChangeReporter {
 
+    public static final int DEFAULT_BATCH_SIZE = 1000;
+
+    public static final long DEFAULT_GRACE_PERIOD = 5000;
+
+    // Pending reports are completed on close for up to this many seconds
+    private static final long CLOSE_TIMEOUT = 10;
+
     private final Logger log = LoggerFactory.getLogger(getClass());
 
+    private final int batchSize;
+
+    private final boolean diff;
+
+    private final long gracePeriod;
+
+    private final ScheduledThreadPoolExecutor executor;
+
+    // Reports not started yet by bundle and root, guarded by itself
+    private final Map<String, Report> pending = new HashMap<>();
+
+    // The actions to run once removed providers are no longer read, guarded by the pending map
+    private final Map<BundleResourceProvider, List<Runnable>> removals = new IdentityHashMap<>();
+
+    public ResourceChangeReporter() {
+        this(DEFAULT_BATCH_SIZE, false, 0);
+    }
+
+    public ResourceChangeReporter(int batchSize) {
+        this(batchSize, false, 0);
+    }
+
+    /**
+     * @param batchSize   The maximum number of changes reported at once
+     * @param diff        Whether to report only the changed resources on
+     *                    bundle updates
+     * @param gracePeriod The milliseconds removals are delayed to be diffed
+     *                    against the restarted bundle, ignored unless
+     *                    diffing is enabled
+     */
+    public ResourceChangeReporter(int batchSize, boolean diff, long gracePeriod) {
+        this.batchSize = batchSize > 0 ? batchSize : DEFAULT_BATCH_SIZE;
+        this.diff = diff;
+        this.gracePeriod = diff ? Math.max(0, gracePeriod) : 0;
+        this.executor = new ScheduledThreadPoolExecutor(1, runnable -> {
+            final Thread thread = new Thread(runnable, "Bundle Resource Change Reporter");
+            thread.setDaemon(true);
+            return thread;
+        });
+        // cancelled delayed removals must not keep the executor from terminating on close
+        this.executor.setRemoveOnCancelPolicy(true);
+    }
+
+    /**
+     * Schedules reporting all resources of the provider with the given change
+     * type. A pending report of the same bundle and root is coalesced with
+     * the new one: reporting the resources of a provider as added and then
+     * as removed reports nothing, as does reporting them as removed and then
+     * as added again for an unmodified bundle, which happens if the bundle is
+     * restarted. With diffing enabled, reporting the resources as removed
+     * and then as added again for a modified bundle only reports the
+     * differences.
+     */
     public void reportResourceChanges(BundleResourceProvider provider, ChangeType changeType, ObservationReporter fallbackReporter) {
+        final Report requested = new Report(provider, changeType, fallbackReporter, null);
+        Report report = requested;
+        synchronized (pending) {
+            if (changeType == ChangeType.REMOVED) {
+                if (removals.containsKey(provider)) {
+                    log.debug("Dropping duplicate report for {} [{}]", requested.key, changeType);
+                    return;
+                }
+                removals.put(provider, new ArrayList<>());
+            }
+            final Report previous = pending.get(report.key);
+            if (previous != null) {
+                report = coalesce(previous, report);
+            }
+            if (report != null) {
+                pending.put(report.key, report);
+            }
+            if (report != requested) {
+                requested.cancelled = true;
+            }
+        }
+        if (changeType == ChangeType.REMOVED && diff) {
+            // the snapshot to compare the updated bundle with is taken before the provider is released
+            captureLater(requested);
+        } else if (changeType == ChangeType.REMOVED && report != requested) {
+            // the provider is not read by the removal report, release it after the reports queued before
+            releaseLater(provider);
+        }
+        if (report != null) {
+            schedule(report);
+        }
+    }
+
+    /**
+     * Runs the action once the provider, whose resources are reported as
+     * removed, is no longer read by this reporter, on the background thread.
+     * Runs it right away if no removal of the provider is pending.
+     */
+    public void runAfterRemoval(BundleResourceProvider provider, Runnable action) {
+        synchronized (pending) {
+            final List<Runnable> actions = removals.get(provider);
+            if (actions != null) {
+                actions.add(action);
+                return;
+            }
+        }
+        action.run();
+    }
+
+    private void schedule(Report report) {
+        try {
+            if (report.changeType == ChangeType.REMOVED && gracePeriod > 0) {
+                final ScheduledFuture<?> delayed = executor.schedule(report, gracePeriod, TimeUnit.MILLISECONDS);
+                synchronized (pending) {
+                    report.delayed = delayed;
+                }
+            } else {
+                executor.execute(report);
+            }
+        } catch (RejectedExecutionException ree) {
+            synchronized (pending) {
+                pending.remove(report.key, report);
+            }
+            log.debug("Reporter closed, not reporting changes for {} [{}]", report.key, report.changeType);
+            if (report.changeType == ChangeType.REMOVED) {
+                release(report.provider);
+            }
+        }
+    }
+
+    private void captureLater(Report report) {
+        try {
+            executor.execute(() -> capture(report));
+        } catch (RejectedExecutionException ree) {
+            release(report.provider);
+        }
+    }
+
+    private void releaseLater(BundleResourceProvider provider) {
+        try {
+            executor.execute(() -> release(provider));
+        } catch (RejectedExecutionException ree) {
+            release(provider);
+        }
+    }
+
+    // Runs the actions waiting for the removed provider to be no longer read
+    private void release(BundleResourceProvider provider) {
+        final List<Runnable> actions;
+        synchronized (pending) {
+            actions = removals.remove(provider);
+        }
+        if (actions != null) {
+            for (Runnable action : actions) {
+                try {
+                    action.run();
+                } catch (RuntimeException e) {
+                    log.warn("Cannot release the removed provider of {}", provider.getMappedPath().getResourceRoot(), e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Completes the pending reports, waiting for a limited time, and stops
+     * the background thread.
+     */
+    public void close() {
+        synchronized (pending) {
+            for (Report report : pending.values()) {
+                if (report.delayed != null && report.delayed.cancel(false)) {
+                    // report delayed removals now
+                    executor.execute(report);
+                }
+            }
+        }
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(CLOSE_TIMEOUT, TimeUnit.SECONDS)) {
+                log.warn("Pending resource changes not reported within {} seconds", CLOSE_TIMEOUT);
+                executor.shutdownNow();
+            }
+        } catch (InterruptedException ie) {
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+        } finally {
+            // release the providers whose removals have not been reported
+            final List<BundleResourceProvider> providers;
+            synchronized (pending) {
+                providers = new ArrayList<>(removals.keySet());
+            }
+            providers.forEach(this::release);
+        }
+    }
+
+    // Returns the report to schedule instead of the new one or null if nothing is to be scheduled
+    private Report coalesce(Report previous, Report report) {
+        if (previous.changeType == report.changeType) {
+            if (previous.provider == report.provider) {
+                log.debug("Dropping duplicate report for {} [{}]", report.key, report.changeType);
+                return null;
+            }
+            return report;
+        }
+
+        if (previous.changeType == ChangeType.ADDED) {
+            if (previous.provider != report.provider) {
+                return report;
+            }
+            // the provider is gone before its resources were reported
+            cancel(previous, report);
+            if (previous.replaced != null) {
+                // only the provider of the updated bundle is gone, the previous one is still to be removed
+                previous.replaced.cancelled = false;
+                return previous.replaced;
+            }
+            return null;
+        }
+
+        if (previous.lastModified == report.lastModified) {
+            // the bundle is back with the same resources
+            cancel(previous, report);
+            return null;
+        }
+        if (diff) {
+            // the bundle is back with changed resources
+            cancel(previous, report);
+            previous.update = new Report(report.provider, ChangeType.ADDED, previous.fallbackReporter, previous);
+            return previous.update;
+        }
+        return report;
+    }
+
+    private void cancel(Report previous, Report report) {
+        previous.cancelled = true;
+        if (previous.delayed != null) {
+            previous.delayed.cancel(false);
+        }
+        pending.remove(previous.key);
+        log.debug("Coalesced {} and {} reports for {}", previous.changeType, report.changeType, report.key);
+    }
+
+    // Takes the snapshot of the resources to be reported as removed with diffing enabled and releases the provider,
+    // it runs before the removal and any update replacing it are reported
+    private void capture(Report report) {
+        try {
+            synchronized (pending) {
+                if (report.cancelled && report.update == null) {
+                    // restarted without changes or never reported as added
+                    return;
+                }
+            }
+            final String resourceRoot = report.provider.getMappedPath().getResourceRoot();
+            final ResourceSnapshot snapshot = new ResourceSnapshot();
+            walk(report.provider, resourceRoot, snapshot::add);
+            report.snapshot = snapshot;
+            log.debug("Collected {} removed resources of {}", snapshot.size(), resourceRoot);
+        } catch (RuntimeException e) {
+            // e.g. the bundle has been uninstalled already
+            log.warn("Cannot collect the removed resources of {}", report.key, e);
+        } finally {
+            release(report.provider);
+        }
+    }
+
+    private void report(Report report) {
+        final BundleResourceProvider provider = report.provider;
         final String resourceRoot = provider.getMappedPath().getResourceRoot();
-        final Resource root = provider.getResource(SimpleResolveContext.INSTANCE, resourceRoot, ResourceContext.EMPTY_CONTEXT, null);
-        final ObservationReporter reporter = provider.getObservationReporter();
-        if (reporter != null) {
-            int counter = reportChange(root, changeType, provider, reporter);
-            log.debug("Actual reporter reported: {} changes for {} [{}]", counter, resourceRoot, changeType);
-        } else if (fallbackReporter != null) {
-            int counter = reportChange(root, changeType, provider, fallbackReporter);
-            log.debug("Fallback reporter reported {} changes for {} [{}]", counter, resourceRoot, changeType);
+        ObservationReporter reporter = provider.getObservationReporter();
+        String kind = "Actual";
+        if (reporter == null) {
+            reporter = report.fallbackReporter;
+            kind = "Fallback";
+        }
+        if (reporter == null) {
+            log.warn("getObservationReporter is null and no fallback reporter is available for: {} [{}]", resourceRoot, report.changeType);
+            return;
+        }
+
+        final Batch batch = new Batch(reporter);
+        if (report.changeType == ChangeType.REMOVED) {
+            if (diff) {
+                // the resources as they were when the provider was removed
+                if (report.snapshot != null) {
+                    report.snapshot.getPaths().forEach(path -> batch.add(ChangeType.REMOVED, path));
+                }
+            } else {
+                visitPaths(provider, ChangeType.REMOVED, batch);
+            }
+        } else if (report.replaced != null) {
+            final ResourceSnapshot previous = report.replaced.snapshot;
+            if (previous == null) {
+                // nothing to compare with, the previous provider's resources are unknown
+                visitPaths(provider, ChangeType.ADDED, batch);
+            } else {
+                final ResourceSnapshot current = new ResourceSnapshot();
+                walk(provider, resourceRoot, current::add);
+                for (String path : current.getPaths()) {
+                    if (!previous.contains(path)) {
+                        batch.add(ChangeType.ADDED, path);
+                    } else if (!current.isUnchanged(path, previous)) {
+                        batch.add(ChangeType.CHANGED, path);
+                    }
+                }
+                for (String path : previous.getPaths()) {
+                    if (!current.contains(path)) {
+                        batch.add(ChangeType.REMOVED, path);
+                    }
+                }
+                log.debug("Compared {} previous with {} current resources for {}", previous.size(), current.size(), resourceRoot);
+            }
         } else {
-            log.warn("getObservationReporter is null and no fallback reporter is available for: {} [{}]", resourceRoot, changeType);
+            visitPaths(provider, ChangeType.ADDED, batch);
         }
+        batch.flush();
+        log.debug("{} reporter reported {} changes in {} batches for {} [{}]",
+                kind, batch.total, batch.batches, resourceRoot, report.replaced != null ? "UPDATED" : report.changeType);
+    }
+
+    private void visitPaths(BundleResourceProvider provider, ChangeType changeType, Batch batch) {
+        final int visited = provider.visitResourcePaths((path, folder) -> batch.add(changeType, path));
+        log.debug("Visited {} resource paths of {} [{}]", visited, provider.getMappedPath().getResourceRoot(), changeType);
     }
 
-    private int reportChange(final Resource root, final ChangeType changeType,
-                             final BundleResourceProvider provider, final ObservationReporter reporter) {
-        if (log.isDebugEnabled()) {
-            log.debug("Detected change for resource {} : {}", root.getPath(), changeType);
+    private void walk(BundleResourceProvider provider, String resourceRoot, Consumer<Resource> visitor) {
+        final Resource root = provider.getResource(SimpleResolveContext.INSTANCE, resourceRoot, ResourceContext.EMPTY_CONTEXT, null);
+        if (root == null) {
+            log.debug("No resources found for {}", resourceRoot);
+            return;
         }
+        log.debug("Detected change for resource {}", resourceRoot);
+        walk(provider, root, visitor);
+    }
+
+    // Visits the resources depth first in tree order to take snapshots, which need their properties and content.
+    // Only the child iterators of the ancestors of the current resource are kept, so neither memory nor stack
+    // grow with the size or depth of the tree
+    private void walk(BundleResourceProvider provider, Resource root, Consumer<Resource> visitor) {
+        final Deque<Iterator<Resource>> ancestors = new ArrayDeque<>();
+        Resource resource = root;
+        while (resource != null) {
+            visitor.accept(resource);
+            final Iterator<Resource> children = provider.listChildren(SimpleResolveContext.INSTANCE, resource);
+            if (children != null && children.hasNext()) {
+                ancestors.push(children);
+            }
+            resource = null;
+            while (resource == null && !ancestors.isEmpty()) {
+                final Iterator<Resource> siblings = ancestors.peek();
+                if (siblings.hasNext()) {
+                    resource = siblings.next();
+                } else {
+                    ancestors.pop();
+                }
+            }
+        }
+    }
+
+    private class Report implements Runnable {
 
-        final List<ResourceChange> allChanges = new ArrayList<>();
-        collectResourceChanges(root, changeType, provider, allChanges);
-        reporter.reportChanges(allChanges, false);
+        final BundleResourceProvider provider;
+        final ChangeType changeType;
+        final ObservationReporter fallbackReporter;
+        // The removal of the provider replaced by an update of the bundle, reported as the differences to it
+        final Report replaced;
+        final String key;
+        final long lastModified;
+        // Set while pending, guarded by the pending map
+        boolean cancelled;
+        // The delayed run of a removal, guarded by the pending map
+        ScheduledFuture<?> delayed;
+        // The update replacing a removal, guarded by the pending map
+        Report update;
+        // The removed resources with their fingerprints, taken on the reporting thread with diffing enabled
+        ResourceSnapshot snapshot;
 
-        return allChanges.size();
+        Report(BundleResourceProvider provider, ChangeType changeType, ObservationReporter fallbackReporter,
+               Report replaced) {
+            this.provider = provider;
+            this.changeType = changeType;
+            this.fallbackReporter = fallbackReporter;
+            this.replaced = replaced;
+            this.key = provider.getBundle().getBundleId() + ":" + provider.getMappedPath().getResourceRoot();
+            this.lastModified = provider.getBundle().getLastModified();
+        }
+
+        @Override
+        public void run() {
+            try {
+                synchronized (pending) {
+                    if (cancelled) {
+                        return;
+                    }
+                    // run once only, a removal coalesced with an update may be scheduled again
+                    cancelled = true;
+                    pending.remove(key, this);
+                }
+                report(this);
+            } catch (RuntimeException e) {
+                // e.g. the bundle has been uninstalled in the meantime
+                log.warn("Cannot report changes for {} [{}]", key, changeType, e);
+            } finally {
+                if (changeType == ChangeType.REMOVED && !diff) {
+                    // the removed resources have been reported, cancelled or not
+                    release(provider);
+                }
+            }
+        }
     }
 
-    private void collectResourceChanges(final Resource resource, final ResourceChange.ChangeType changeType,
-                                        BundleResourceProvider provider, List<ResourceChange> changes) {
-        changes.add(new ResourceChange(changeType, resource.getPath(), false));
-        Iterator<Resource> children = provider.listChildren(SimpleResolveContext.INSTANCE, resource);
-        if (children != null) {
-            children.forEachRemaining(child -> collectResourceChanges(child, changeType, provider, changes));
+    private class Batch {
+
+        private final ObservationReporter reporter;
+        private List<ResourceChange> changes = new ArrayList<>();
+        int total;
+        int batches;
+
+        Batch(ObservationReporter reporter) {
+            this.reporter = reporter;
+        }
+
+        void add(ChangeType changeType, String path) {
+            changes.add(new ResourceChange(changeType, path, false));
+            if (changes.size() >= batchSize) {
+                flush();
+            }
+        }
+
+        void flush() {
+            if (!changes.isEmpty()) {
+                reporter.reportChanges(changes, false);
+                total += changes.size();
+                batches++;
+                changes = new ArrayList<>();
+            }
         }
     }
 }
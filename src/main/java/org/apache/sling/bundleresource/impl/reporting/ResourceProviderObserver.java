@@ -1,3 +1,21 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
 package org.apache.sling.bundleresource.impl.reporting;
 
 import java.util.List;
@@ -19,13 +37,19 @@ import org.slf4j.LoggerFactory;
 public class ResourceProviderObserver {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(ResourceProviderObserver.class);
-    private final ResourceChangeReporter reporter = new ResourceChangeReporter();
+    private final ResourceChangeReporter reporter;
     // List of observers registered by this bundle, one per each providers
     private final List<FallbackReporterServiceListener> observers = new CopyOnWriteArrayList<>();
     // Listen for the `ResourceChangeListener` changes to refresh the fallback reporter in each FallbackReporterServiceListeners
     private FallbackRefreshServiceListener refreshServiceListener;
 
     public ResourceProviderObserver(BundleContext bundleContext) throws InvalidSyntaxException {
+        this(bundleContext, new ResourceChangeReporter());
+    }
+
+    public ResourceProviderObserver(BundleContext bundleContext, ResourceChangeReporter reporter) throws InvalidSyntaxException {
+        // Changes are reported asynchronously by the given reporter, which is closed with this observer
+        this.reporter = reporter;
         // Listen for ResourceChangeListener services which may affect reporter configuration
         // Try to refresh ObservationReporter with the fresh one from resource provider
         refreshServiceListener = new FallbackRefreshServiceListener();
@@ -45,6 +69,14 @@ public class ResourceProviderObserver {
         bundleContext.addServiceListener(observer, "(" + Constants.SERVICE_ID + "=" + serviceId + ")");
     }
 
+    /**
+     * Runs the action once the removed resources of the unregistered provider
+     * have been reported, see {@link ResourceChangeReporter#runAfterRemoval(BundleResourceProvider, Runnable)}.
+     */
+    public void afterRemoval(BundleResourceProvider provider, Runnable action) {
+        reporter.runAfterRemoval(provider, action);
+    }
+
     public void close(BundleContext bundleContext) {
         for (FallbackReporterServiceListener observer : observers) {
             bundleContext.removeServiceListener(observer);
@@ -52,6 +84,8 @@ public class ResourceProviderObserver {
         if (refreshServiceListener != null) {
             bundleContext.removeServiceListener(refreshServiceListener);
         }
+        // Complete the reports of the providers removed on stop
+        reporter.close();
     }
 
     private class FallbackRefreshServiceListener implements ServiceListener {
@@ -0,0 +1,92 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.bundleresource.impl.reporting;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.CRC32;
+
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.api.resource.ValueMap;
+
+/**
+ * The paths of the resources of a provider, each with a fingerprint of its
+ * properties and content. Comparing the snapshot taken when the provider
+ * of a bundle is removed with the one of the provider of the updated
+ * bundle yields the paths which really changed.
+ */
+final class ResourceSnapshot {
+
+    // The fingerprint of a resource whose content cannot be read, never unchanged
+    static final long UNREADABLE = Long.MIN_VALUE;
+
+    // Fingerprints by resource path, in tree order
+    private final Map<String, Long> fingerprints = new LinkedHashMap<>();
+
+    void add(Resource resource) {
+        fingerprints.put(resource.getPath(), fingerprint(resource));
+    }
+
+    Set<String> getPaths() {
+        return fingerprints.keySet();
+    }
+
+    boolean contains(String path) {
+        return fingerprints.containsKey(path);
+    }
+
+    /**
+     * Returns true if the resource with the given path has the same
+     * fingerprint in both snapshots.
+     */
+    boolean isUnchanged(String path, ResourceSnapshot other) {
+        final Long fingerprint = fingerprints.get(path);
+        return fingerprint != null && fingerprint != UNREADABLE && fingerprint.equals(other.fingerprints.get(path));
+    }
+
+    int size() {
+        return fingerprints.size();
+    }
+
+    // The hash code of the properties in the upper and the CRC32 of the content in the lower half
+    static long fingerprint(Resource resource) {
+        final ValueMap properties = resource.adaptTo(ValueMap.class);
+        final long propertiesHash = properties != null ? properties.hashCode() : 0;
+
+        long contentCrc = 0;
+        final InputStream content = resource.adaptTo(InputStream.class);
+        if (content != null) {
+            final CRC32 crc = new CRC32();
+            final byte[] buffer = new byte[8192];
+            try (InputStream in = content) {
+                int read;
+                while ((read = in.read(buffer)) > 0) {
+                    crc.update(buffer, 0, read);
+                }
+                contentCrc = crc.getValue();
+            } catch (IOException ioe) {
+                return UNREADABLE;
+            }
+        }
+        return propertiesHash << 32 | (contentCrc & 0xffffffffL);
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.bundleresource.impl;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.Dictionary;
+import java.util.Hashtable;
+
+import javax.management.DynamicMBean;
+
+import org.apache.sling.spi.resource.provider.ResourceProvider;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.BundleEvent;
+import org.osgi.framework.Constants;
+import org.osgi.framework.ServiceListener;
+import org.osgi.framework.ServiceReference;
+import org.osgi.framework.ServiceRegistration;
+
+public class ActivatorTest {
+
+    private final Activator activator = new Activator();
+
+    private BundleContext context;
+
+    @Before
+    public void setup() throws Exception {
+        context = mock(BundleContext.class);
+        when(context.getBundles()).thenReturn(new Bundle[0]);
+        activator.start(context);
+    }
+
+    @After
+    public void finish() {
+        activator.stop(context);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static ServiceRegistration<ResourceProvider> registration(final long serviceId) {
+        final ServiceReference<ResourceProvider> reference = mock(ServiceReference.class);
+        when(reference.getProperty(Constants.SERVICE_ID)).thenReturn(serviceId);
+        final ServiceRegistration<ResourceProvider> registration = mock(ServiceRegistration.class);
+        when(registration.getReference()).thenReturn(reference);
+        return registration;
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testStoppedWhileRegistering() throws Exception {
+        final Bundle bundle = mock(Bundle.class);
+        final BundleContext bundleContext = mock(BundleContext.class);
+        final Dictionary<String, String> headers = new Hashtable<>();
+        headers.put(Activator.BUNDLE_RESOURCE_ROOTS, "/libs/a,/libs/b");
+        when(bundle.getBundleId()).thenReturn(42L);
+        when(bundle.getHeaders()).thenReturn(headers);
+        when(bundle.getState()).thenReturn(Bundle.ACTIVE);
+        when(bundle.getBundleContext()).thenReturn(bundleContext);
+
+        // the bundle is stopped once the first provider is registered
+        final ServiceRegistration<ResourceProvider> registration = registration(1L);
+        when(bundleContext.registerService(eq(ResourceProvider.class), any(ResourceProvider.class),
+                any(Dictionary.class))).thenAnswer(new Answer<ServiceRegistration<ResourceProvider>>() {
+                    @Override
+                    public ServiceRegistration<ResourceProvider> answer(final InvocationOnMock invocation) {
+                        when(bundle.getState()).thenReturn(Bundle.RESOLVED);
+                        activator.bundleChanged(new BundleEvent(BundleEvent.STOPPED, bundle));
+                        return registration;
+                    }
+                });
+
+        activator.bundleChanged(new BundleEvent(BundleEvent.STARTED, bundle));
+
+        // the registering thread unregisters the first provider and skips the others
+        verify(bundleContext, times(1)).registerService(eq(ResourceProvider.class), any(ResourceProvider.class),
+                any(Dictionary.class));
+        verify(registration).unregister();
+        verify(bundleContext, never()).addServiceListener(any(ServiceListener.class), anyString());
+        verify(context, never()).registerService(eq(DynamicMBean.class), any(DynamicMBean.class),
+                any(Dictionary.class));
+    }
+}
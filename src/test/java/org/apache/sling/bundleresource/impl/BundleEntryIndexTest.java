@@ -0,0 +1,295 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.bundleresource.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.anyBoolean;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.reset;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.IOException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Dictionary;
+import java.util.HashMap;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.bundleresource.impl.url.ResourceURLStreamHandler;
+import org.apache.sling.bundleresource.impl.url.ResourceURLStreamHandlerFactory;
+import org.apache.sling.spi.resource.provider.ResolveContext;
+import org.apache.sling.spi.resource.provider.ResourceContext;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+
+public class BundleEntryIndexTest {
+
+    private final List<URL> entries = new ArrayList<>();
+
+    Bundle getBundle() {
+        final Bundle bundle = mock(Bundle.class);
+        final Dictionary<String, String> headers = new Hashtable<>();
+        headers.put(BundleResourceConfiguration.BUNDLE_RESOURCE_CACHE, "index=true");
+        when(bundle.getHeaders()).thenReturn(headers);
+        return bundle;
+    }
+
+    void addContent(final Bundle bundle, final String path, final String content) throws IOException {
+        final URL url = new URL("resource:" + path);
+        ResourceURLStreamHandler.addContents(path, content);
+        when(bundle.getEntry(path)).thenReturn(url);
+        entries.add(url);
+    }
+
+    void finishContent(final Bundle bundle) {
+        // the framework returns the child entry paths without leading slash
+        final Map<String, List<String>> children = new HashMap<>();
+        for (final URL url : entries) {
+            final String path = url.getPath();
+            final int nameEnd = path.endsWith("/") ? path.length() - 1 : path.length();
+            final String parent = path.substring(0, path.lastIndexOf('/', nameEnd - 1) + 1);
+            if (!children.containsKey(parent)) {
+                children.put(parent, new ArrayList<String>());
+            }
+            children.get(parent).add(path.substring(1));
+        }
+        for (final Map.Entry<String, List<String>> entry : children.entrySet()) {
+            when(bundle.getEntryPaths(entry.getKey())).thenReturn(Collections.enumeration(entry.getValue()));
+        }
+    }
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Before
+    public void setup() {
+        ResourceURLStreamHandlerFactory.init();
+    }
+
+    @After
+    public void finish() {
+        ResourceURLStreamHandler.reset();
+        entries.clear();
+    }
+
+    @Test
+    public void testIndex() throws IOException {
+        final Bundle bundle = getBundle();
+        when(bundle.getEntry("/libs/foo/")).thenReturn(new URL("resource:/libs/foo/"));
+        addContent(bundle, "/libs/foo/a", "A");
+        addContent(bundle, "/libs/foo/b/", "DIR");
+        addContent(bundle, "/libs/foo/b/c", "HELLO");
+        finishContent(bundle);
+
+        final BundleEntryIndex index = BundleEntryIndex.build(bundle,
+                new PathMapping[]{new PathMapping("/libs/foo", null, null)});
+        assertNotNull(index);
+        assertEquals(4, index.size());
+
+        assertTrue(index.isIndexed("/libs/foo"));
+        assertTrue(index.isIndexed("/libs/foo/x"));
+        assertFalse(index.isIndexed("/libs/foobar"));
+        assertFalse(index.isIndexed("/libs/foo.json"));
+
+        assertTrue(index.getEntry("/libs/foo/b/").isFolder());
+        assertNull(index.getEntry("/libs/foo/b"));
+        assertFalse(index.getEntry("/libs/foo/b/c").isFolder());
+        assertEquals(5, index.getContentLength("/libs/foo/b/c"));
+        assertNull(index.getEntry("/libs/foo/x"));
+
+        assertEquals(Arrays.asList("/libs/foo/a", "/libs/foo/b/"), Arrays.asList(index.getChildEntries("/libs/foo/").getPaths()));
+        assertEquals(Collections.singletonList("/libs/foo/b/c"), Arrays.asList(index.getChildEntries("/libs/foo/b/").getPaths()));
+        assertNull(index.getChildEntries("/libs/foo/a/"));
+    }
+
+    @Test
+    public void testNoIndexForFileRoot() throws IOException {
+        final Bundle bundle = getBundle();
+        addContent(bundle, "/libs/foo/test.txt", "HELLO");
+
+        assertNull(BundleEntryIndex.build(bundle,
+                new PathMapping[]{new PathMapping("/libs/foo/test.txt", null, null)}));
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testResolveFromIndex() throws IOException {
+        final Bundle bundle = getBundle();
+        when(bundle.getEntry("/libs/foo/")).thenReturn(new URL("resource:/libs/foo/"));
+        addContent(bundle, "/libs/foo/a", "A");
+        addContent(bundle, "/libs/foo/b/", "DIR");
+        addContent(bundle, "/libs/foo/b/c", "HELLO");
+        finishContent(bundle);
+
+        final PathMapping[] roots = new PathMapping[]{new PathMapping("/libs/foo", null, null)};
+        final BundleResourceCache cache = new BundleResourceCache(bundle,
+                BundleResourceConfiguration.DEFAULT.forBundle(bundle), roots);
+        assertEquals(4, cache.getIndexSize());
+        final BundleResourceProvider provider = new BundleResourceProvider(cache, roots[0]);
+
+        // entry URLs are resolved once, child entries and misses are
+        // answered from the index after it has been built
+        reset(bundle);
+        when(bundle.getLastModified()).thenReturn(System.currentTimeMillis());
+        when(bundle.getEntry("/libs/foo/b/")).thenReturn(new URL("resource:/libs/foo/b/"));
+        when(bundle.getEntry("/libs/foo/b/c")).thenReturn(new URL("resource:/libs/foo/b/c"));
+
+        final ResolveContext<Object> ctx = mock(ResolveContext.class);
+        for (int i = 0; i < 2; i++) {
+            final Resource rsrc = provider.getResource(ctx, "/libs/foo/b", mock(ResourceContext.class), null);
+            assertNotNull(rsrc);
+            final Resource child = provider.listChildren(ctx, rsrc).next();
+            assertEquals("/libs/foo/b/c", child.getPath());
+            assertEquals(5, child.getResourceMetadata().getContentLength());
+        }
+        assertNull(provider.getResource(ctx, "/libs/foo/x", mock(ResourceContext.class), null));
+        verify(bundle, times(1)).getEntry("/libs/foo/b/");
+        verify(bundle, times(1)).getEntry("/libs/foo/b/c");
+        verify(bundle, never()).getEntry("/libs/foo/x");
+        verify(bundle, never()).getEntryPaths(anyString());
+
+        cache.dispose();
+        assertEquals(-1, cache.getIndexSize());
+    }
+
+    @Test
+    public void testHostEntriesOnly() throws IOException {
+        final Bundle bundle = getBundle();
+        when(bundle.getEntry("/libs/foo/")).thenReturn(new URL("resource:/libs/foo/"));
+        addContent(bundle, "/libs/foo/a", "A");
+        finishContent(bundle);
+        // findEntries also returns the entries of attached fragments
+        when(bundle.findEntries(anyString(), anyString(), anyBoolean())).thenReturn(Collections.enumeration(
+                Arrays.asList(new URL("resource:/libs/foo/a"), new URL("resource:/libs/foo/fragment"))));
+
+        final BundleEntryIndex index = BundleEntryIndex.build(bundle,
+                new PathMapping[]{new PathMapping("/libs/foo", null, null)});
+        assertNotNull(index);
+        assertEquals(2, index.size());
+        assertNull(index.getEntry("/libs/foo/fragment"));
+        assertEquals(Collections.singletonList("/libs/foo/a"), Arrays.asList(index.getChildEntries("/libs/foo/").getPaths()));
+    }
+
+    @Test
+    public void testNestedRoots() throws IOException {
+        final Bundle bundle = getBundle();
+        when(bundle.getEntry("/libs/foo/")).thenReturn(new URL("resource:/libs/foo/"));
+        addContent(bundle, "/libs/foo/a", "A");
+        addContent(bundle, "/libs/foo/b/", "DIR");
+        addContent(bundle, "/libs/foo/b/c", "HELLO");
+        finishContent(bundle);
+
+        final BundleEntryIndex index = BundleEntryIndex.build(bundle, new PathMapping[]{
+                new PathMapping("/libs/foo/b", null, null), new PathMapping("/libs/foo", null, null)});
+        assertNotNull(index);
+        assertEquals(4, index.size());
+        assertEquals(Arrays.asList("/libs/foo/a", "/libs/foo/b/"), Arrays.asList(index.getChildEntries("/libs/foo/").getPaths()));
+        assertEquals(Collections.singletonList("/libs/foo/b/c"), Arrays.asList(index.getChildEntries("/libs/foo/b/").getPaths()));
+    }
+
+    @Test
+    public void testPersistedIndex() throws IOException {
+        final BundleContext context = mock(BundleContext.class);
+        when(context.getDataFile("entry-index")).thenReturn(folder.newFolder("entry-index"));
+        final BundleEntryIndexStore store = BundleEntryIndexStore.create(context);
+        assertNotNull(store);
+
+        final Bundle bundle = getBundle();
+        when(bundle.getBundleId()).thenReturn(42L);
+        when(bundle.getLastModified()).thenReturn(1000L);
+        when(bundle.getEntry("/libs/foo/")).thenReturn(new URL("resource:/libs/foo/"));
+        addContent(bundle, "/libs/foo/b/", "DIR");
+        addContent(bundle, "/libs/foo/b/c", "HELLO");
+        addContent(bundle, "/libs/foo/a", "A");
+        finishContent(bundle);
+
+        final PathMapping[] roots = new PathMapping[]{new PathMapping("/libs/foo", null, null)};
+        assertEquals(4, store.getIndex(bundle, roots).size());
+
+        // the second index is read from disk without walking the bundle
+        when(bundle.getEntryPaths(anyString())).thenReturn(null);
+        final BundleEntryIndex index = store.getIndex(bundle, roots);
+        assertNotNull(index);
+        assertEquals(4, index.size());
+        assertTrue(index.isIndexed("/libs/foo/x"));
+        assertEquals(Arrays.asList("/libs/foo/b/", "/libs/foo/a"), Arrays.asList(index.getChildEntries("/libs/foo/").getPaths()));
+        assertTrue(index.getEntry("/libs/foo/b/").isFolder());
+        assertEquals(5, index.getContentLength("/libs/foo/b/c"));
+        assertEquals(new URL("resource:/libs/foo/b/c"), index.getEntryUrl("/libs/foo/b/c"));
+
+        // an updated bundle is indexed again, now without child entries
+        when(bundle.getLastModified()).thenReturn(2000L);
+        assertEquals(1, store.getIndex(bundle, roots).size());
+
+        store.remove(42L);
+        assertEquals(0, folder.getRoot().toPath().resolve("entry-index").toFile().list().length);
+    }
+
+    @Test
+    public void testPersistedNestedRoots() throws IOException {
+        final BundleContext context = mock(BundleContext.class);
+        when(context.getDataFile("entry-index")).thenReturn(folder.newFolder("entry-index"));
+        final BundleEntryIndexStore store = BundleEntryIndexStore.create(context);
+
+        final Bundle bundle = getBundle();
+        when(bundle.getBundleId()).thenReturn(42L);
+        when(bundle.getLastModified()).thenReturn(1000L);
+        when(bundle.getEntry("/libs/foo/")).thenReturn(new URL("resource:/libs/foo/"));
+        addContent(bundle, "/libs/foo/a", "A");
+        addContent(bundle, "/libs/foo/b/", "DIR");
+        addContent(bundle, "/libs/foo/b/c", "HELLO");
+        addContent(bundle, "/libs/foo/d", "D");
+        finishContent(bundle);
+
+        final PathMapping[] roots = new PathMapping[]{new PathMapping("/libs/foo/b", null, null),
+                new PathMapping("/libs/foo", null, null)};
+        final BundleEntryIndex built = store.getIndex(bundle, roots);
+        assertEquals(Arrays.asList("/libs/foo/a", "/libs/foo/b/", "/libs/foo/d"),
+                Arrays.asList(built.getChildEntries("/libs/foo/").getPaths()));
+
+        // the nested root is listed as child of the outer root after loading
+        when(bundle.getEntryPaths(anyString())).thenReturn(null);
+        final BundleEntryIndex loaded = store.getIndex(bundle, roots);
+        assertEquals(built.size(), loaded.size());
+        for (final String path : built.getEntries().keySet()) {
+            if (path.endsWith("/")) {
+                assertEquals(Arrays.asList(built.getChildEntries(path).getPaths()),
+                        Arrays.asList(loaded.getChildEntries(path).getPaths()));
+            }
+        }
+    }
+}
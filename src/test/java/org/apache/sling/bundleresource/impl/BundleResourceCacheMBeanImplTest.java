@@ -0,0 +1,91 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.bundleresource.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.lang.management.ManagementFactory;
+import java.net.URL;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.apache.sling.bundleresource.impl.url.ResourceURLStreamHandler;
+import org.apache.sling.bundleresource.impl.url.ResourceURLStreamHandlerFactory;
+import org.junit.Test;
+import org.osgi.framework.Bundle;
+
+public class BundleResourceCacheMBeanImplTest {
+
+    @Test
+    public void testStatisticsPublished() throws Exception {
+        final Bundle bundle = mock(Bundle.class);
+        when(bundle.getBundleId()).thenReturn(42L);
+        when(bundle.getSymbolicName()).thenReturn("org.example:bundle");
+        when(bundle.getEntry("/libs/a")).thenReturn(new URL("file:/libs/a"));
+
+        final BundleResourceCache cache = new BundleResourceCache(bundle);
+        cache.getEntry("/libs/a");
+        cache.getEntry("/libs/a");
+        cache.getEntry("/libs/missing");
+        cache.getEntry("/libs/missing");
+
+        final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        final ObjectName name = new ObjectName(BundleResourceCacheMBeanImpl.getObjectName(bundle));
+        server.registerMBean(new BundleResourceCacheMBeanImpl(cache), name);
+        try {
+            assertEquals(42L, server.getAttribute(name, "BundleId"));
+            assertEquals(2, server.getAttribute(name, "EntryCacheSize"));
+            assertEquals(2L, server.getAttribute(name, "EntryCacheHits"));
+            assertEquals(1L, server.getAttribute(name, "EntryCacheNegativeHits"));
+            assertEquals(2L, server.getAttribute(name, "EntryCacheMisses"));
+            assertEquals(0L, server.getAttribute(name, "ListCacheHits"));
+            assertEquals(0, server.getAttribute(name, "StringPoolSize"));
+        } finally {
+            server.unregisterMBean(name);
+        }
+    }
+
+    @Test
+    public void testSubPathLookupRecordedOnce() throws Exception {
+        ResourceURLStreamHandlerFactory.init();
+        try {
+            final Bundle bundle = mock(Bundle.class);
+            ResourceURLStreamHandler.addContents("/libs/a.json", "{\"b\":{\"c\":{\"x\":1}}}");
+            when(bundle.getEntry("/libs/a.json")).thenReturn(new URL("resource:/libs/a.json"));
+
+            final BundleResourceCache cache = new BundleResourceCache(bundle);
+            final String[] subPath = {"b", "c"};
+            cache.getContent("/libs/a.json", subPath);
+            cache.getContent("/libs/a.json", subPath);
+            assertEquals(1L, cache.getContentCacheStatistics().getMissCount());
+            assertEquals(1L, cache.getContentCacheStatistics().getHitCount());
+
+            // answered from the whole document once it is cached
+            cache.getContent("/libs/a.json");
+            assertEquals(1, cache.getContent("/libs/a.json", new String[]{"b"}).getChildren().size());
+            assertEquals(2L, cache.getContentCacheStatistics().getMissCount());
+            assertEquals(2L, cache.getContentCacheStatistics().getHitCount());
+        } finally {
+            ResourceURLStreamHandler.reset();
+        }
+    }
+}
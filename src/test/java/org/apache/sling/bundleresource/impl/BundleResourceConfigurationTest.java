@@ -0,0 +1,139 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.bundleresource.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Dictionary;
+import java.util.Hashtable;
+import java.util.List;
+
+import org.apache.sling.bundleresource.impl.reporting.ResourceChangeReporter;
+import org.junit.Test;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+
+public class BundleResourceConfigurationTest {
+
+    Bundle getBundle(final String cacheHeader) {
+        final Bundle bundle = mock(Bundle.class);
+        final Dictionary<String, String> headers = new Hashtable<>();
+        if (cacheHeader != null) {
+            headers.put(BundleResourceConfiguration.BUNDLE_RESOURCE_CACHE, cacheHeader);
+        }
+        when(bundle.getHeaders()).thenReturn(headers);
+        return bundle;
+    }
+
+    @Test
+    public void testDefaults() {
+        final BundleResourceConfiguration config = BundleResourceConfiguration.fromContext(mock(BundleContext.class));
+        assertEquals(BundleResourceConfiguration.DEFAULT_ENTRY_CACHE_SIZE, config.getEntryCacheSize());
+        assertEquals(BundleResourceConfiguration.DEFAULT_LIST_CACHE_SIZE, config.getListCacheSize());
+        assertEquals(BundleResourceConfiguration.DEFAULT_STARTUP_THREADS, config.getStartupThreads());
+        assertSame(config, config.forBundle(getBundle(null)));
+
+        final BundleResourceCache cache = new BundleResourceCache(getBundle(null));
+        assertEquals(BundleResourceConfiguration.DEFAULT_ENTRY_CACHE_SIZE, cache.getEntryCacheMaxSize());
+        assertEquals(BundleResourceConfiguration.DEFAULT_LIST_CACHE_SIZE, cache.getListCacheMaxSize());
+    }
+
+    @Test
+    public void testFrameworkProperties() {
+        final BundleContext context = mock(BundleContext.class);
+        when(context.getProperty(BundleResourceConfiguration.PROP_ENTRY_CACHE_SIZE)).thenReturn("500");
+        when(context.getProperty(BundleResourceConfiguration.PROP_LIST_CACHE_SIZE)).thenReturn("invalid");
+        when(context.getProperty(BundleResourceConfiguration.PROP_STARTUP_THREADS)).thenReturn("1");
+        when(context.getProperty(BundleResourceConfiguration.PROP_CHANGE_BATCH_SIZE)).thenReturn("0");
+        when(context.getProperty(BundleResourceConfiguration.PROP_CHANGE_DIFF)).thenReturn("true");
+
+        final BundleResourceConfiguration config = BundleResourceConfiguration.fromContext(context);
+        assertEquals(500, config.getEntryCacheSize());
+        assertEquals(BundleResourceConfiguration.DEFAULT_LIST_CACHE_SIZE, config.getListCacheSize());
+        assertEquals(1, config.getStartupThreads());
+        assertEquals(ResourceChangeReporter.DEFAULT_BATCH_SIZE, config.getChangeBatchSize());
+        assertTrue(config.isChangeDiffEnabled());
+        assertEquals(ResourceChangeReporter.DEFAULT_GRACE_PERIOD, config.getChangeGracePeriod());
+
+        // the grace period can be switched off, but not be negative
+        when(context.getProperty(BundleResourceConfiguration.PROP_CHANGE_GRACE_PERIOD)).thenReturn("0");
+        assertEquals(0, BundleResourceConfiguration.fromContext(context).getChangeGracePeriod());
+        when(context.getProperty(BundleResourceConfiguration.PROP_CHANGE_GRACE_PERIOD)).thenReturn("-1");
+        assertEquals(ResourceChangeReporter.DEFAULT_GRACE_PERIOD,
+                BundleResourceConfiguration.fromContext(context).getChangeGracePeriod());
+    }
+
+    @Test
+    public void testBundleHeader() {
+        final Bundle bundle = getBundle("entries=1000, lists = 100, unknown=1");
+        final BundleResourceConfiguration config = BundleResourceConfiguration.DEFAULT.forBundle(bundle);
+        assertEquals(1000, config.getEntryCacheSize());
+        assertEquals(100, config.getListCacheSize());
+
+        final BundleResourceCache cache = new BundleResourceCache(bundle, config, new PathMapping[0]);
+        assertEquals(1000, cache.getEntryCacheMaxSize());
+        assertEquals(100, cache.getListCacheMaxSize());
+    }
+
+    @Test
+    public void testAutoSize() throws Exception {
+        final Bundle bundle = getBundle("entries=auto, lists=auto");
+        final List<URL> entries = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            entries.add(new URL("file:/libs/foo/" + i + "/"));
+            entries.add(new URL("file:/libs/foo/" + i + "/file.txt"));
+        }
+        when(bundle.findEntries("/libs/foo", "*", true)).thenReturn(Collections.enumeration(entries));
+
+        final BundleResourceConfiguration config = BundleResourceConfiguration.DEFAULT.forBundle(bundle);
+        assertEquals(BundleResourceConfiguration.AUTO_SIZE, config.getEntryCacheSize());
+
+        final BundleResourceCache cache = new BundleResourceCache(bundle, config,
+                new PathMapping[]{new PathMapping("/libs/foo", null, null)});
+        assertEquals(600, cache.getEntryCacheMaxSize());
+        assertEquals(100, cache.getListCacheMaxSize());
+    }
+
+    @Test
+    public void testPartitionedCache() {
+        final Bundle bundle = getBundle("entries=400, partitioned=true");
+        final BundleResourceConfiguration config = BundleResourceConfiguration.DEFAULT.forBundle(bundle);
+        assertTrue(config.isPartitioned());
+
+        final PathMapping[] roots = PathMapping.getRoots("/apps/foo;cacheWeight:=3, /libs/foo, /libs/bar;cacheWeight:=x");
+        assertEquals(3, roots[0].getCacheWeight());
+        assertEquals(1, roots[2].getCacheWeight());
+
+        final BundleResourceCache cache = new BundleResourceCache(bundle, config, roots);
+        assertTrue(cache.isPartitioned());
+        assertEquals(240, cache.getEntryCachePartition(roots[0]).getLimit());
+        assertEquals(80, cache.getEntryCachePartition(roots[1]).getLimit());
+        assertEquals(400, cache.getEntryCacheMaxSize());
+
+        assertFalse(new BundleResourceCache(bundle, BundleResourceConfiguration.DEFAULT, roots).isPartitioned());
+    }
+}
@@ -1,10 +1,35 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
 package org.apache.sling.bundleresource.impl;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.reset;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import java.io.IOException;
@@ -12,7 +37,9 @@ import java.io.InputStream;
 import java.io.StringWriter;
 import java.net.URL;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.Enumeration;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
@@ -29,6 +56,8 @@ import org.apache.sling.spi.resource.provider.ResourceContext;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 import org.osgi.framework.Bundle;
 
 public class BundleResourceProviderTest {
@@ -47,10 +76,28 @@ public class BundleResourceProviderTest {
         when(bundle.getEntry(path)).thenReturn(url);
     }
 
-    void finishContent(Bundle bundle) {
+    void finishContent(Bundle bundle) throws IOException {
+        final List<URL> entries = new ArrayList<>();
         for (final Map.Entry<String, List<String>> entry : ResourceURLStreamHandler.getParentChildRelationship().entrySet()) {
             when(bundle.getEntryPaths(entry.getKey())).thenReturn(Collections.enumeration(entry.getValue()));
+            for (final String path : entry.getValue()) {
+                entries.add(new URL("resource:" + path));
+            }
         }
+        when(bundle.findEntries(anyString(), anyString(), eq(true))).thenAnswer(new Answer<Enumeration<URL>>() {
+            @Override
+            public Enumeration<URL> answer(final InvocationOnMock invocation) {
+                final String prefix = invocation.getArguments()[0] + "/";
+                final String suffix = invocation.getArguments()[1].toString().substring(1);
+                final List<URL> found = new ArrayList<>();
+                for (final URL url : entries) {
+                    if (url.getPath().startsWith(prefix) && url.getPath().endsWith(suffix)) {
+                        found.add(url);
+                    }
+                }
+                return found.isEmpty() ? null : Collections.enumeration(found);
+            }
+        });
     }
 
     void addContent(Bundle bundle, String path, String content) throws IOException {
@@ -110,6 +157,113 @@ public class BundleResourceProviderTest {
         assertNull(provider.getResource(mock(ResolveContext.class), "/libs/foo/test", mock(ResourceContext.class), null));
     }
 
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testMissingResourceRemembered() throws IOException {
+        final Bundle bundle = getBundle();
+        addContent(bundle, "/libs/foo/test.json", "HELLOWORLD");
+
+        final PathMapping path = new PathMapping("/libs/foo", null, "json");
+        final BundleResourceProvider provider = new BundleResourceProvider(new BundleResourceCache(bundle), path, 10);
+        assertNull(provider.getResource(mock(ResolveContext.class), "/libs/foo/a/b", mock(ResourceContext.class), null));
+        assertEquals(1, provider.getMissCacheSize());
+
+        reset(bundle);
+        assertNull(provider.getResource(mock(ResolveContext.class), "/libs/foo/a/b", mock(ResourceContext.class), null));
+        verify(bundle, never()).getEntry(anyString());
+
+        provider.dispose();
+        assertEquals(0, provider.getMissCacheSize());
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testDeepestJSONDefinitionWins() throws IOException {
+        final Bundle bundle = getBundle();
+        addContent(bundle, "/libs/foo/a.json",
+                "{\"b\":{\"c\":{\"x\":1,\"e\":{}}},\"d\":{\"name\":\"d\"}}");
+        addContent(bundle, "/libs/foo/a/b.json", "{\"c\":{\"y\":2}}");
+        finishContent(bundle);
+
+        final PathMapping path = new PathMapping("/libs/foo", null, "json");
+        final BundleResourceProvider provider = new BundleResourceProvider(new BundleResourceCache(bundle), path);
+
+        final Resource c = provider.getResource(mock(ResolveContext.class), "/libs/foo/a/b/c", mock(ResourceContext.class), null);
+        assertNotNull(c);
+        assertEquals(2L, c.getValueMap().get("y"));
+        assertNull(c.getValueMap().get("x"));
+        assertNull(provider.getResource(mock(ResolveContext.class), "/libs/foo/a/b/c/e", mock(ResourceContext.class), null));
+
+        final Resource d = provider.getResource(mock(ResolveContext.class), "/libs/foo/a/d", mock(ResourceContext.class), null);
+        assertNotNull(d);
+        assertEquals("d", d.getValueMap().get("name", String.class));
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testSubResourceIndexPrepared() throws IOException {
+        final Bundle bundle = getBundle();
+        addContent(bundle, "/libs/foo/a.json", "{\"b\":{\"name\":\"b\"}}");
+        finishContent(bundle);
+
+        final PathMapping path = new PathMapping("/libs/foo", null, "json");
+        final BundleResourceProvider provider = new BundleResourceProvider(new BundleResourceCache(bundle), path);
+        provider.prepare();
+        verify(bundle, times(1)).findEntries(anyString(), anyString(), eq(true));
+
+        // lookups below the root do not build the index
+        final Resource b = provider.getResource(mock(ResolveContext.class), "/libs/foo/a/b", mock(ResourceContext.class), null);
+        assertNotNull(b);
+        assertEquals("b", b.getValueMap().get("name", String.class));
+        assertNull(provider.getResource(mock(ResolveContext.class), "/libs/foo/x", mock(ResourceContext.class), null));
+        verify(bundle, times(1)).findEntries(anyString(), anyString(), eq(true));
+    }
+
+    @Test
+    public void testSubResourceIndexNotRecordedAsLookups() throws IOException {
+        final Bundle bundle = getBundle();
+        addContent(bundle, "/libs/foo/a.json", "{\"b\":{\"name\":\"b\"}}");
+        finishContent(bundle);
+
+        final PathMapping path = new PathMapping("/libs/foo", null, "json");
+        final BundleResourceCache cache = new BundleResourceCache(bundle);
+        final BundleResourceProvider provider = new BundleResourceProvider(cache, path);
+
+        // reading the file structures to build the index is not a content lookup
+        provider.prepare();
+        assertEquals(0, cache.getContentCacheStatistics().getMissCount());
+        assertEquals(0, cache.getContentCacheStatistics().getHitCount());
+
+        // nor is reading a cached file
+        cache.getContent("/libs/foo/a.json");
+        new BundleResourceProvider(cache, path).prepare();
+        assertEquals(1, cache.getContentCacheStatistics().getMissCount());
+        assertEquals(0, cache.getContentCacheStatistics().getHitCount());
+    }
+
+    @Test
+    public void testMetrics() throws Exception {
+        final Bundle bundle = getBundle();
+        addContent(bundle, "/libs/foo/a.json", "{\"b\":{}}");
+        finishContent(bundle);
+
+        final PathMapping path = new PathMapping("/libs/foo", null, "json");
+        final BundleResourceProviderMetrics metrics = new BundleResourceProviderMetrics(bundle, path);
+        final BundleResourceProvider provider = new BundleResourceProvider(new BundleResourceCache(bundle), path,
+                10, metrics);
+
+        assertNotNull(provider.getResource(mock(ResolveContext.class), "/libs/foo/a", mock(ResourceContext.class), null));
+        assertNotNull(provider.getResource(mock(ResolveContext.class), "/libs/foo/a/b", mock(ResourceContext.class), null));
+        assertNull(provider.getResource(mock(ResolveContext.class), "/libs/foo/x", mock(ResourceContext.class), null));
+        assertNull(provider.getResource(mock(ResolveContext.class), "/libs/foo/x", mock(ResourceContext.class), null));
+
+        assertEquals(1, metrics.getResourceHitCount());
+        assertEquals(1, metrics.getSubResourceCount());
+        assertEquals(2, metrics.getResourceMissCount());
+        assertEquals(0, metrics.getListChildrenCount());
+        assertTrue(metrics.getResourceMissTime99thPercentile() > 0);
+    }
+
     @SuppressWarnings("unchecked")
     @Test
     public void testJSONResource() throws IOException {
@@ -171,6 +325,117 @@ public class BundleResourceProviderTest {
         assertEquals(0, rsrcChildren.size());
     }
 
+    @Test
+    public void testChildListingCached() throws IOException {
+        final Bundle bundle = getBundle();
+        addContent(bundle, "/libs/foo/", "DIR");
+        addContent(bundle, "/libs/foo/a", "A");
+        addContent(bundle, "/libs/foo/b.json", "{\"c\":{}}");
+        finishContent(bundle);
+
+        final PathMapping path = new PathMapping("/libs/foo", null, "json");
+        final BundleResourceProvider provider = new BundleResourceProvider(new BundleResourceCache(bundle), path);
+        final Resource rsrc = provider.getResource(mock(ResolveContext.class), "/libs/foo", mock(ResourceContext.class), null);
+        assertEquals(Arrays.asList("/libs/foo/a", "/libs/foo/b"),
+                getChildren(provider.listChildren(mock(ResolveContext.class), rsrc)));
+        assertEquals(1, provider.getListingCacheSize());
+
+        verify(bundle, times(1)).getEntryPaths("/libs/foo/");
+        assertEquals(Arrays.asList("/libs/foo/a", "/libs/foo/b"),
+                getChildren(provider.listChildren(mock(ResolveContext.class), rsrc)));
+        verify(bundle, times(1)).getEntryPaths("/libs/foo/");
+        assertEquals(1, provider.getListingCacheStatistics().getHitCount());
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testChildListingOfSubResourceNotShared() throws IOException {
+        final Bundle bundle = getBundle();
+        addContent(bundle, "/libs/foo/", "DIR");
+        addContent(bundle, "/libs/foo/p/", "DIR");
+        addContent(bundle, "/libs/foo/p.json", "{\"a\":{\"x\":{}}}");
+        addContent(bundle, "/libs/foo/p/a/", "DIR");
+        addContent(bundle, "/libs/foo/p/a/f", "F");
+        finishContent(bundle);
+
+        final PathMapping path = new PathMapping("/libs/foo", null, "json");
+        final BundleResourceProvider provider = new BundleResourceProvider(new BundleResourceCache(bundle), path);
+        final ResolveContext<Object> ctx = mock(ResolveContext.class);
+
+        // the folder itself does not define sub-resources
+        final Resource direct = provider.getResource(ctx, "/libs/foo/p/a", mock(ResourceContext.class), null);
+        assertEquals(Collections.singletonList("/libs/foo/p/a/f"), getChildren(provider.listChildren(ctx, direct)));
+
+        // listed as child of its parent it has the sub-resources defined there
+        final Resource parent = provider.getResource(ctx, "/libs/foo/p", mock(ResourceContext.class), null);
+        Resource listed = null;
+        for (final Iterator<Resource> i = provider.listChildren(ctx, parent); i.hasNext(); ) {
+            final Resource child = i.next();
+            if (child.getPath().equals("/libs/foo/p/a")) {
+                listed = child;
+            }
+        }
+        assertNotNull(listed);
+        assertEquals(Arrays.asList("/libs/foo/p/a/f", "/libs/foo/p/a/x"), getChildren(provider.listChildren(ctx, listed)));
+        assertEquals(Collections.singletonList("/libs/foo/p/a/f"), getChildren(provider.listChildren(ctx, direct)));
+    }
+
+    @Test
+    public void testVisitResourcePaths() throws IOException {
+        final Bundle bundle = getBundle();
+        addContent(bundle, "/libs/foo/", "DIR");
+        addContent(bundle, "/libs/foo/a", "A");
+        addContent(bundle, "/libs/foo/sub/", "DIR");
+        addContent(bundle, "/libs/foo/sub/x", "X");
+        addContent(bundle, "/libs/foo/d.json", "{\"p\":1,\"g\":{\"g1\":{}},\"h\":{}}");
+        // a is a bundle entry already
+        addContent(bundle, "/libs/foo.json", "{\"a\":{},\"c\":{\"c1\":{}}}");
+        finishContent(bundle);
+
+        final PathMapping path = new PathMapping("/libs/foo", null, "json");
+        final BundleResourceCache cache = new BundleResourceCache(bundle);
+        final BundleResourceProvider provider = new BundleResourceProvider(cache, path);
+
+        final List<String> paths = new ArrayList<>();
+        final List<String> folders = new ArrayList<>();
+        final int visited = provider.visitResourcePaths(new BundleResourceProvider.PathVisitor() {
+            @Override
+            public void visit(final String resourcePath, final boolean folder) {
+                paths.add(resourcePath);
+                if (folder) {
+                    folders.add(resourcePath);
+                }
+            }
+        });
+
+        assertEquals(Arrays.asList("/libs/foo", "/libs/foo/a", "/libs/foo/sub", "/libs/foo/sub/x",
+                "/libs/foo/d", "/libs/foo/d/g", "/libs/foo/d/g/g1", "/libs/foo/d/h",
+                "/libs/foo/c", "/libs/foo/c/c1"), paths);
+        assertEquals(Arrays.asList("/libs/foo", "/libs/foo/sub"), folders);
+        assertEquals(paths.size(), visited);
+        // the sub-resources are enumerated without parsing their properties
+        assertEquals(0, cache.getContentCacheStatistics().getLoadCount());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testVisitResourcePathsDisposed() throws IOException {
+        final Bundle bundle = getBundle();
+        addContent(bundle, "/libs/foo/", "DIR");
+        addContent(bundle, "/libs/foo/a", "A");
+        finishContent(bundle);
+
+        final PathMapping path = new PathMapping("/libs/foo", null, "json");
+        final BundleResourceProvider provider = new BundleResourceProvider(new BundleResourceCache(bundle), path);
+        provider.dispose();
+
+        provider.visitResourcePaths(new BundleResourceProvider.PathVisitor() {
+            @Override
+            public void visit(final String resourcePath, final boolean folder) {
+                fail("Visited " + resourcePath);
+            }
+        });
+    }
+
     @Test
     public void testTreeWithoutDeepJSON() throws IOException {
         testTreeWithoutDeepJSON("");
@@ -1,13 +1,36 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
 package org.apache.sling.bundleresource.impl;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNull;
+import static org.mockito.Matchers.anyString;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import java.io.IOException;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.util.Collections;
+import java.util.Dictionary;
+import java.util.Hashtable;
 import java.util.Map;
 
 import org.apache.jackrabbit.JcrConstants;
@@ -26,10 +49,7 @@ public class BundleResourceTest {
         Bundle bundle = mock(Bundle.class);
         when(bundle.getLastModified()).thenReturn(System.currentTimeMillis());
 
-        BundleResourceCache cache = mock(BundleResourceCache.class);
-        when(cache.getBundle()).thenReturn(bundle);
-
-        return cache;
+        return new BundleResourceCache(bundle);
     }
 
     @Before
@@ -46,20 +66,20 @@ public class BundleResourceTest {
         final URL url = new URL("resource:" + path);
 
         ResourceURLStreamHandler.addJSON(path, content);
-        when(cache.getEntry(path)).thenReturn(url);
+        when(cache.getBundle().getEntry(path)).thenReturn(url);
     }
 
     void addContent(BundleResourceCache cache, String path, String content) throws IOException {
         final URL url = new URL("resource:" + path);
 
         ResourceURLStreamHandler.addContents(path, content);
-        when(cache.getEntry(path)).thenReturn(url);
+        when(cache.getBundle().getEntry(path)).thenReturn(url);
     }
 
     @Test
     public void testFileResource() throws MalformedURLException {
         final BundleResourceCache cache = getBundleResourceCache();
-        when(cache.getEntry("/libs/foo/test.json")).thenReturn(new URL("file:/libs/foo/test.json"));
+        when(cache.getBundle().getEntry("/libs/foo/test.json")).thenReturn(new URL("file:/libs/foo/test.json"));
         final BundleResource rsrc = new BundleResource(null, cache,
                 new PathMapping("/libs/foo", null, null), "/libs/foo/test.json", null, false);
         assertEquals(JcrConstants.NT_FILE, rsrc.getResourceType());
@@ -81,6 +101,61 @@ public class BundleResourceTest {
         assertEquals("foo", vm.get("test", String.class));
     }
 
+    @Test
+    public void testJSONResourceContentCached() throws IOException {
+        final BundleResourceCache cache = getBundleResourceCache();
+        addContent(cache, "/libs/foo/test.json", Collections.singletonMap("test", (Object) "foo"));
+        final PathMapping mapping = new PathMapping("/libs/foo", null, "json");
+        new BundleResource(null, cache, mapping, "/libs/foo/test", null, false);
+        assertEquals(1, cache.getContentCacheSize());
+
+        // the second resource does not read the entry again
+        ResourceURLStreamHandler.reset();
+        final BundleResource rsrc = new BundleResource(null, cache, mapping, "/libs/foo/test", null, false);
+        assertEquals("foo", rsrc.getValueMap().get("test", String.class));
+
+        cache.dispose();
+        assertEquals(0, cache.getContentCacheSize());
+    }
+
+    @Test
+    public void testContentLengthCached() throws IOException {
+        final BundleResourceCache cache = getBundleResourceCache();
+        addContent(cache, "/libs/foo/test.txt", "HELLO");
+        final PathMapping mapping = new PathMapping("/libs/foo", null, "json");
+        final BundleResource rsrc = new BundleResource(null, cache, mapping, "/libs/foo/test.txt", null, false);
+        assertEquals(5, rsrc.getResourceMetadata().getContentLength());
+
+        // the size is not read from the entry again
+        ResourceURLStreamHandler.reset();
+        assertEquals(5, new BundleResource(null, cache, mapping, "/libs/foo/test.txt", null, false)
+                .getResourceMetadata().getContentLength());
+        assertEquals(5, rsrc.adaptTo(URL.class).openConnection().getContentLength());
+    }
+
+    @Test
+    public void testLazyJSONResource() throws IOException {
+        final Bundle bundle = mock(Bundle.class);
+        when(bundle.getLastModified()).thenReturn(System.currentTimeMillis());
+        final Dictionary<String, String> headers = new Hashtable<>();
+        headers.put(BundleResourceConfiguration.BUNDLE_RESOURCE_CACHE, "lazy=true");
+        when(bundle.getHeaders()).thenReturn(headers);
+        final BundleResourceCache cache = new BundleResourceCache(bundle,
+                BundleResourceConfiguration.DEFAULT.forBundle(bundle), new PathMapping[0]);
+        addContent(cache, "/libs/foo/test", "HELLO");
+        addContent(cache, "/libs/foo/test.json", Collections.singletonMap("test", (Object) "foo"));
+
+        final BundleResource rsrc = new BundleResource(null, cache,
+                new PathMapping("/libs/foo", null, "json"), "/libs/foo/test", null, false);
+        assertEquals("/libs/foo/test", rsrc.getPath());
+        assertEquals(0, cache.getContentCacheSize());
+        verify(bundle, never()).getEntry(anyString());
+
+        assertEquals(5, rsrc.getResourceMetadata().getContentLength());
+        assertEquals("foo", rsrc.getValueMap().get("test", String.class));
+        assertEquals(1, cache.getContentCacheSize());
+    }
+
     /**
      * SLING-10140 - Verify that when the resourceRoot is a mapped file, that the sibling entry with the
      * JSONPropertiesExtension is loaded
@@ -0,0 +1,57 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.bundleresource.impl;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertSame;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Enumeration;
+
+import org.junit.Test;
+
+public class ChildEntriesTest {
+
+    @Test
+    public void testEmpty() {
+        assertSame(ChildEntries.EMPTY, ChildEntries.of(Collections.<String>emptyList()));
+        assertSame(ChildEntries.EMPTY, ChildEntries.of((Enumeration<String>) null));
+        assertArrayEquals(new String[0], ChildEntries.EMPTY.getChildren(".json"));
+    }
+
+    @Test
+    public void testPathsAreAbsolute() {
+        final ChildEntries entries = ChildEntries.of(Collections.enumeration(Arrays.asList("libs/foo/a", "/libs/foo/b/")));
+        assertArrayEquals(new String[]{"/libs/foo/a", "/libs/foo/b/"}, entries.getPaths());
+    }
+
+    @Test
+    public void testChildren() {
+        final ChildEntries entries = ChildEntries.of(Arrays.asList(
+                "/libs/foo/.json", "/libs/foo/a.json", "/libs/foo/b", "/libs/foo/b.json", "/libs/foo/c/"));
+        final String[] children = entries.getChildren(".json");
+        assertArrayEquals(new String[]{"/libs/foo/b", "/libs/foo/c/", "/libs/foo/a"}, children);
+
+        // computed once per extension
+        assertSame(children, entries.getChildren(".json"));
+        assertArrayEquals(new String[]{"/libs/foo/.json", "/libs/foo/a.json", "/libs/foo/b", "/libs/foo/b.json",
+                "/libs/foo/c/"}, entries.getChildren(".content.json"));
+    }
+}
@@ -0,0 +1,133 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.bundleresource.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Test;
+
+public class ConcurrentLruCacheTest {
+
+    @Test
+    public void testDefaultLimit() {
+        assertEquals(ConcurrentLruCache.DEFAULT_LIMIT, new ConcurrentLruCache<String>(0).getLimit());
+        assertEquals(5, new ConcurrentLruCache<String>(5).getLimit());
+    }
+
+    @Test
+    public void testLimit() {
+        final ConcurrentLruCache<String> cache = new ConcurrentLruCache<>(3);
+        for (int i = 0; i < 10; i++) {
+            cache.put("/" + i, "v" + i);
+        }
+        assertEquals(3, cache.size());
+        assertNull(cache.get("/0"));
+        assertEquals("v9", cache.get("/9"));
+    }
+
+    @Test
+    public void testReferencedEntriesSurvive() {
+        final ConcurrentLruCache<String> cache = new ConcurrentLruCache<>(3);
+        cache.put("/a", "a");
+        cache.put("/b", "b");
+        cache.put("/c", "c");
+
+        // touch the eldest entry
+        assertEquals("a", cache.get("/a"));
+
+        cache.put("/d", "d");
+        assertEquals(3, cache.size());
+        assertNotNull(cache.get("/a"));
+        assertNull(cache.get("/b"));
+    }
+
+    @Test
+    public void testReplace() {
+        final ConcurrentLruCache<String> cache = new ConcurrentLruCache<>(2);
+        cache.put("/a", "a");
+        cache.put("/a", "a2");
+        cache.put("/b", "b");
+        assertEquals(2, cache.size());
+        assertEquals("a2", cache.get("/a"));
+
+        // replacing below the limit never evicts, the replaced entry counts as accessed
+        for (int i = 0; i < 1000; i++) {
+            cache.put("/b", "b" + i);
+        }
+        cache.put("/c", "c");
+        assertEquals(2, cache.size());
+        assertEquals(1, cache.getStatistics().getEvictionCount());
+        assertEquals("b999", cache.get("/b"));
+
+        cache.clear();
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testStatistics() {
+        final ConcurrentLruCache<String> cache = new ConcurrentLruCache<>(2);
+        assertNull(cache.get("/a"));
+        cache.put("/a", "a");
+        assertEquals("a", cache.get("/a"));
+        cache.put("/b", "b");
+        cache.put("/c", "c");
+
+        final CacheStatistics statistics = cache.getStatistics();
+        assertEquals(1, statistics.getHitCount());
+        assertEquals(1, statistics.getMissCount());
+        assertEquals(1, statistics.getEvictionCount());
+    }
+
+    @Test
+    public void testConcurrentAccess() throws Exception {
+        final ConcurrentLruCache<Integer> cache = new ConcurrentLruCache<>(50);
+        final ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            final List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < 8; t++) {
+                final int offset = t;
+                futures.add(executor.submit(() -> {
+                    for (int i = 0; i < 10000; i++) {
+                        final String key = "/" + ((i * 7 + offset) % 200);
+                        if (cache.get(key) == null) {
+                            cache.put(key, i);
+                        }
+                    }
+                }));
+            }
+            for (final Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        // a concurrent put may briefly exceed the limit, but not by much
+        assertTrue(cache.size() <= 50 + 8);
+    }
+}
@@ -0,0 +1,163 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.bundleresource.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import javax.json.JsonException;
+
+import org.junit.Test;
+
+public class ContentNodeTest {
+
+    private static ContentNode parse(final String json) throws IOException {
+        return ContentNode.parse(stream(json), new StringPool());
+    }
+
+    private static ByteArrayInputStream stream(final String json) {
+        return new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testParse() throws IOException {
+        final ContentNode node = parse("{\"sling:resourceType\":\"a/b\",\"n\":null,\"long\":1,\"double\":1.5,"
+                + "\"flag\":true,\"list\":[1,\"x\",null,{\"k\":false}],\"child\":{\"n\":null,\"v\":\"c\"}}");
+
+        final Map<String, Object> props = node.getProperties();
+        assertEquals(Arrays.asList("sling:resourceType", "long", "double", "flag", "list"),
+                Arrays.asList(props.keySet().toArray()));
+        assertEquals("a/b", props.get("sling:resourceType"));
+        assertEquals(1L, props.get("long"));
+        assertEquals(1.5d, props.get("double"));
+        assertEquals(Boolean.TRUE, props.get("flag"));
+        assertEquals(Arrays.asList(1L, "x", null, Collections.singletonMap("k", false)), props.get("list"));
+
+        // null values are kept below the top level
+        final ContentNode child = node.getChild("child");
+        assertTrue(child.getProperties().containsKey("n"));
+        assertNull(child.getProperties().get("n"));
+        assertEquals("c", child.getProperties().get("v"));
+        assertTrue(child.getChildren().isEmpty());
+    }
+
+    @Test
+    public void testLastMemberWins() throws IOException {
+        final ContentNode node = parse("{\"a\":{\"x\":1},\"a\":2,\"b\":3,\"b\":{}}");
+        assertEquals(2L, node.getProperties().get("a"));
+        assertNull(node.getChild("a"));
+        assertFalse(node.getProperties().containsKey("b"));
+        assertSame(ContentNode.EMPTY, node.getChild("b"));
+    }
+
+    @Test
+    public void testCommonNamesShared() throws IOException {
+        final ContentNode first = parse("{\"jcr:primaryType\":\"nt:unstructured\"}");
+        final ContentNode second = parse("{\"jcr:primaryType\":\"nt:unstructured\"}");
+        assertSame(first.getProperties().keySet().iterator().next(),
+                second.getProperties().keySet().iterator().next());
+    }
+
+    @Test
+    public void testStringsPooled() throws IOException {
+        final StringPool pool = new StringPool();
+        final String json = "{\"custom\":\"my/type\",\"list\":[\"my/type\"]}";
+        final ContentNode first = ContentNode.parse(stream(json), pool);
+        final ContentNode second = ContentNode.parse(stream(json), pool);
+
+        assertSame(first.getProperties().get("custom"), second.getProperties().get("custom"));
+        assertSame(first.getProperties().get("custom"), ((List<?>) second.getProperties().get("list")).get(0));
+        assertSame(first.getProperties().keySet().iterator().next(),
+                second.getProperties().keySet().iterator().next());
+        // the common names are not counted
+        assertEquals(3, pool.size());
+    }
+
+    @Test
+    public void testParsePath() throws IOException {
+        final String json = "{\"a\":{\"skip\":[{\"b\":{}}],\"b\":{\"v\":1,\"c\":{\"w\":2}}},\"b\":{\"v\":3}}";
+
+        final ContentNode node = ContentNode.parse(stream(json), new String[] {"a", "b"}, new StringPool());
+        assertEquals(Collections.singletonMap("v", 1L), node.getProperties());
+        assertEquals(Collections.singletonMap("w", 2L), node.getChild("c").getProperties());
+
+        assertEquals(Collections.singletonMap("v", 3L),
+                ContentNode.parse(stream(json), new String[] {"b"}, new StringPool()).getProperties());
+        assertNull(ContentNode.parse(stream(json), new String[] {"a", "skip"}, new StringPool()));
+        assertNull(ContentNode.parse(stream(json), new String[] {"a", "b", "x"}, new StringPool()));
+    }
+
+    @Test
+    public void testParsePathDuplicateNames() throws IOException {
+        final String json = "{\"a\":{\"b\":{\"v\":1}},\"a\":{\"b\":{\"v\":2},\"c\":{},\"c\":3,\"d\":{\"x\":1}},"
+                + "\"a\":{\"b\":{\"v\":3},\"c\":{},\"d\":null},\"e\":{},\"e\":null,\"f\":{},\"f\":1}";
+
+        // the last member with the same name wins, as in the full document
+        final ContentNode document = parse(json);
+        final String[][] paths = {{"a"}, {"a", "b"}, {"a", "c"}, {"a", "d"}, {"e"}, {"f"}};
+        for (final String[] path : paths) {
+            final ContentNode node = ContentNode.parse(stream(json), path, new StringPool());
+            final ContentNode expected = document.getDescendant(path);
+            assertEquals(Arrays.toString(path), expected == null, node == null);
+            if (node != null) {
+                assertEquals(Arrays.toString(path), expected.getProperties(), node.getProperties());
+                assertEquals(Arrays.toString(path), expected.getChildren().keySet(), node.getChildren().keySet());
+            }
+        }
+        assertEquals(Collections.singletonMap("v", 3L),
+                ContentNode.parse(stream(json), new String[] {"a", "b"}, new StringPool()).getProperties());
+        assertNull(ContentNode.parse(stream(json), new String[] {"a", "d"}, new StringPool()));
+        assertNull(ContentNode.parse(stream(json), new String[] {"f"}, new StringPool()));
+
+        // the structure read for the sub-resource index follows the same rules
+        final ContentNode structure = ContentNode.parseStructure(stream(json), new StringPool());
+        assertEquals(document.getChildren().keySet(), structure.getChildren().keySet());
+        assertEquals(document.getChild("a").getChildren().keySet(), structure.getChild("a").getChildren().keySet());
+        assertNotNull(structure.getChild("e"));
+    }
+
+    @Test
+    public void testParseStructure() throws IOException {
+        final ContentNode node = ContentNode.parseStructure(
+                stream("{\"p\":1,\"a\":{\"q\":[{}],\"b\":{}},\"c\":{},\"c\":true}"), new StringPool());
+        assertTrue(node.getProperties().isEmpty());
+        assertEquals(Collections.singleton("a"), node.getChildren().keySet());
+        assertTrue(node.getChild("a").getProperties().isEmpty());
+        assertEquals(Collections.singleton("b"), node.getChild("a").getChildren().keySet());
+        assertSame(node.getChild("a").getChild("b"), node.getDescendant(new String[] {"a", "b"}));
+        assertNull(node.getDescendant(new String[] {"a", "x"}));
+    }
+
+    @Test(expected = JsonException.class)
+    public void testNoObject() throws IOException {
+        parse("[1, 2]");
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.bundleresource.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class PartitionedLruCacheTest {
+
+    @Test
+    public void testSinglePartition() {
+        final PartitionedLruCache<String> cache = new PartitionedLruCache<>(10,
+                new String[]{"/apps", "/apps"}, new int[]{1, 2});
+        assertFalse(cache.isPartitioned());
+        assertEquals(10, cache.getLimit());
+        assertSame(cache.getPartition("/apps/a"), cache.getPartition("/libs/a"));
+        assertNull(cache.getRootPartition("/apps"));
+    }
+
+    @Test
+    public void testWeightedShares() {
+        final PartitionedLruCache<String> cache = new PartitionedLruCache<>(100,
+                new String[]{"/apps", "/libs", "/apps"}, new int[]{1, 2, 1});
+        assertTrue(cache.isPartitioned());
+        assertEquals(50, cache.getRootPartition("/apps").getLimit());
+        assertEquals(50, cache.getRootPartition("/libs").getLimit());
+        assertEquals(100, cache.getLimit());
+    }
+
+    @Test
+    public void testRouting() {
+        final PartitionedLruCache<String> cache = new PartitionedLruCache<>(100,
+                new String[]{"/apps", "/apps/foo", "/libs"}, new int[]{1, 1, 1});
+        final ConcurrentLruCache<String> apps = cache.getRootPartition("/apps");
+        final ConcurrentLruCache<String> foo = cache.getRootPartition("/apps/foo");
+        final ConcurrentLruCache<String> libs = cache.getRootPartition("/libs");
+
+        assertSame(apps, cache.getPartition("/apps"));
+        assertSame(apps, cache.getPartition("/apps/"));
+        assertSame(apps, cache.getPartition("/apps/foobar/a"));
+        assertSame(foo, cache.getPartition("/apps/foo"));
+        assertSame(foo, cache.getPartition("/apps/foo/a"));
+        assertSame(libs, cache.getPartition("/libs/a"));
+        // keys below no root use the partition of the first root
+        assertSame(apps, cache.getPartition("/content/a"));
+        assertSame(apps, cache.getPartition("/libsx"));
+    }
+
+    @Test
+    public void testBusyRootDoesNotEvictOtherRoot() {
+        final PartitionedLruCache<String> cache = new PartitionedLruCache<>(20,
+                new String[]{"/apps", "/libs"}, new int[]{1, 1});
+        cache.getPartition("/libs/a").put("/libs/a", "a");
+        for (int i = 0; i < 1000; i++) {
+            final String key = "/apps/" + i;
+            cache.getPartition(key).put(key, "v" + i);
+        }
+        assertNotNull(cache.getPartition("/libs/a").get("/libs/a"));
+        assertEquals(10, cache.getRootPartition("/apps").size());
+        assertEquals(11, cache.size());
+
+        cache.getPartition("/apps/0").get("/apps/0");
+        assertEquals(1, cache.getRootPartition("/libs").getStatistics().getHitCount());
+        assertEquals(1, cache.getStatistics().getHitCount());
+        assertEquals(1, cache.getStatistics().getMissCount());
+
+        cache.clear();
+        assertEquals(0, cache.size());
+    }
+}
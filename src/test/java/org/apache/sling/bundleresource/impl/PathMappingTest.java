@@ -1,8 +1,27 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
 package org.apache.sling.bundleresource.impl;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 
 import org.junit.Test;
 
@@ -35,4 +54,40 @@ public class PathMappingTest {
         assertEquals("/libs/foo/", paths[0].getResourceRootPrefix());
         assertEquals(".json", paths[0].getJSONPropertiesExtension());
     }
+
+    @Test
+    public void testEntryPathWithSuffix() {
+        final PathMapping mapped = new PathMapping("/libs/foo", "/SLING-INF/libs/foo", null);
+        assertEquals("/SLING-INF/libs/foo/a/", mapped.getEntryPath("/libs/foo/a", "/"));
+        assertEquals("/SLING-INF/libs/foo/a.content.json",
+                mapped.getEntryPath("/libs/foo/a", mapped.getJSONPropertiesExtension()));
+        assertEquals("/SLING-INF/libs/foo/a/.content.json",
+                mapped.getEntryPath("/libs/foo/a", mapped.getJSONPropertiesFolderSuffix()));
+        // the suffix is appended to the entry root, also if it is no path segment
+        assertEquals("/SLING-INF/libs/foo/", mapped.getEntryPath("/libs/foo", "/"));
+        assertEquals("/SLING-INF/libs/foo.content.json", mapped.getEntryPath("/libs/foo", ".content.json"));
+        assertEquals("/SLING-INF/libs/foo/a", mapped.getEntryPath("/libs/foo/a"));
+        assertNull(mapped.getEntryPath("/libs/bar", "/"));
+
+        final PathMapping simple = new PathMapping("/libs/foo", null, null);
+        final String path = "/libs/foo/a";
+        assertSame(path, simple.getEntryPath(path));
+        assertEquals("/libs/foo/a/", simple.getEntryPath(path, "/"));
+    }
+
+    @Test
+    public void testResourcePathWithEnd() {
+        final PathMapping mapped = new PathMapping("/libs/foo", "/SLING-INF/libs/foo", null);
+        final String folder = "/SLING-INF/libs/foo/a/";
+        assertEquals("/libs/foo/a", mapped.getResourcePath(folder, folder.length() - 1));
+        assertEquals("/libs/foo/a", mapped.getResourcePath("/SLING-INF/libs/foo/a"));
+        assertEquals("/libs/foo", mapped.getResourcePath("/SLING-INF/libs/foo/", "/SLING-INF/libs/foo".length()));
+        assertNull(mapped.getResourcePath("/SLING-INF/libs/foo/", "/SLING-INF/libs".length()));
+        assertNull(mapped.getResourcePath("/libs/foo/a"));
+
+        final PathMapping simple = new PathMapping("/libs/foo", null, null);
+        final String path = "/libs/foo/a";
+        assertSame(path, simple.getResourcePath(path));
+        assertEquals("/libs/foo/a", simple.getResourcePath("/libs/foo/a/", path.length()));
+    }
 }
@@ -0,0 +1,74 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.bundleresource.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+public class PropertyMapTest {
+
+    @Test
+    public void testCompact() {
+        final Map<String, Object> source = new LinkedHashMap<>();
+        source.put("b", 1L);
+        source.put("a", null);
+        source.put("c", "x");
+
+        final Map<String, Object> map = PropertyMap.of(source);
+        assertTrue(map instanceof PropertyMap);
+        assertEquals(3, map.size());
+        assertEquals(Arrays.asList("b", "a", "c"), Arrays.asList(map.keySet().toArray()));
+        assertEquals(1L, map.get("b"));
+        assertEquals("x", map.get(new String("c")));
+        assertTrue(map.containsKey("a"));
+        assertNull(map.get("a"));
+        assertFalse(map.containsKey("d"));
+        assertEquals(new HashMap<>(source), map);
+        assertEquals(source.hashCode(), map.hashCode());
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void testImmutable() {
+        PropertyMap.of(Collections.<String, Object>singletonMap("a", 1L)).put("b", 2L);
+    }
+
+    @Test
+    public void testSizes() {
+        assertSame(Collections.emptyMap(), PropertyMap.of(new LinkedHashMap<String, Object>()));
+
+        final Map<String, Object> large = new LinkedHashMap<>();
+        for (int i = 0; i <= PropertyMap.MAX_SIZE; i++) {
+            large.put("p" + i, i);
+        }
+        final Map<String, Object> map = PropertyMap.of(large);
+        assertFalse(map instanceof PropertyMap);
+        assertEquals(large, map);
+    }
+}
@@ -0,0 +1,117 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.bundleresource.impl;
+
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import org.junit.Test;
+
+public class ProviderRegistryTest {
+
+    private static BundleResourceProvider provider(final String root) {
+        final BundleResourceProvider provider = mock(BundleResourceProvider.class);
+        when(provider.getMappedPath()).thenReturn(PathMapping.getRoots(root)[0]);
+        return provider;
+    }
+
+    @Test
+    public void testLongestPrefix() {
+        final BundleResourceProvider apps = provider("/apps");
+        final BundleResourceProvider foo = provider("/apps/foo");
+        final BundleResourceProvider fooBar = provider("/apps/foo/bar");
+        final BundleResourceProvider libs = provider("/libs/foo");
+
+        final ProviderRegistry registry = new ProviderRegistry();
+        registry.add(fooBar);
+        registry.add(apps);
+        registry.add(libs);
+        registry.add(foo);
+
+        assertSame(apps, registry.getProvider("/apps"));
+        assertSame(apps, registry.getProvider("/apps/fo"));
+        assertSame(apps, registry.getProvider("/apps/foobar"));
+        assertSame(foo, registry.getProvider("/apps/foo"));
+        assertSame(foo, registry.getProvider("/apps/foo/"));
+        assertSame(foo, registry.getProvider("/apps/foo/baz/bar"));
+        assertSame(fooBar, registry.getProvider("/apps/foo/bar"));
+        assertSame(fooBar, registry.getProvider("/apps//foo/bar/x"));
+        assertSame(libs, registry.getProvider("/libs/foo/a"));
+        assertNull(registry.getProvider("/libs"));
+        assertNull(registry.getProvider("/content"));
+        assertNull(registry.getProvider("/"));
+        assertNull(registry.getProvider("apps/foo"));
+    }
+
+    @Test
+    public void testAddRemove() {
+        final BundleResourceProvider apps = provider("/apps");
+        final BundleResourceProvider first = provider("/apps/foo");
+        final BundleResourceProvider second = provider("/apps/foo");
+
+        final ProviderRegistry registry = new ProviderRegistry();
+        registry.add(apps);
+        registry.add(first);
+        registry.add(second);
+
+        // the provider registered first owns the root
+        assertSame(first, registry.getProvider("/apps/foo/a"));
+        registry.remove(first);
+        assertSame(second, registry.getProvider("/apps/foo/a"));
+        registry.remove(second);
+        assertSame(apps, registry.getProvider("/apps/foo/a"));
+
+        // removing twice has no effect
+        registry.remove(second);
+        assertSame(apps, registry.getProvider("/apps/foo/a"));
+
+        registry.remove(apps);
+        assertNull(registry.getProvider("/apps/foo/a"));
+        assertNull(registry.getProvider("/apps"));
+    }
+
+    @Test
+    public void testCache() {
+        final BundleResourceProvider apps = provider("/apps");
+        final BundleResourceCache cache = mock(BundleResourceCache.class);
+        when(apps.getBundleResourceCache()).thenReturn(cache);
+
+        final ProviderRegistry registry = new ProviderRegistry();
+        registry.add(apps);
+
+        assertSame(cache, registry.getCache("/apps/foo/a"));
+        assertNull(registry.getCache("/libs/foo"));
+    }
+
+    @Test
+    public void testRootProvider() {
+        final BundleResourceProvider root = provider("/");
+        final BundleResourceProvider apps = provider("/apps");
+
+        final ProviderRegistry registry = new ProviderRegistry();
+        registry.add(root);
+        registry.add(apps);
+
+        assertSame(root, registry.getProvider("/"));
+        assertSame(root, registry.getProvider("/libs/foo"));
+        assertSame(apps, registry.getProvider("/apps/foo"));
+    }
+}
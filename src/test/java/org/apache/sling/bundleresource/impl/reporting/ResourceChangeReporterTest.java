@@ -0,0 +1,340 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.bundleresource.impl.reporting;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyListOf;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.api.resource.SyntheticResource;
+import org.apache.sling.api.resource.ValueMap;
+import org.apache.sling.api.resource.observation.ResourceChange;
+import org.apache.sling.api.resource.observation.ResourceChange.ChangeType;
+import org.apache.sling.api.wrappers.ValueMapDecorator;
+import org.apache.sling.bundleresource.impl.BundleResourceProvider;
+import org.apache.sling.bundleresource.impl.PathMapping;
+import org.apache.sling.spi.resource.provider.ObservationReporter;
+import org.apache.sling.spi.resource.provider.ResolveContext;
+import org.apache.sling.spi.resource.provider.ResourceContext;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.osgi.framework.Bundle;
+
+public class ResourceChangeReporterTest {
+
+    private static Resource resource(final String path) {
+        final Resource resource = mock(Resource.class);
+        when(resource.getPath()).thenReturn(path);
+        return resource;
+    }
+
+    private static BundleResourceProvider provider(final long lastModified, final ObservationReporter reporter) {
+        return provider(lastModified, reporter, "b", "c");
+    }
+
+    /**
+     * Returns a provider of /libs/a with the given children, a child
+     * "name=value" has a property with the given value.
+     */
+    @SuppressWarnings("unchecked")
+    private static BundleResourceProvider provider(final long lastModified, final ObservationReporter reporter,
+                                                   final String... children) {
+        final Bundle bundle = mock(Bundle.class);
+        when(bundle.getBundleId()).thenReturn(42L);
+        when(bundle.getLastModified()).thenReturn(lastModified);
+
+        final Resource root = resource("/libs/a");
+        final List<Resource> childResources = new ArrayList<>();
+        for (final String child : children) {
+            final String[] nameAndValue = child.split("=");
+            final Resource resource = resource("/libs/a/" + nameAndValue[0]);
+            if (nameAndValue.length > 1) {
+                when(resource.adaptTo(ValueMap.class)).thenReturn(
+                        new ValueMapDecorator(Collections.<String, Object>singletonMap("v", nameAndValue[1])));
+            }
+            childResources.add(resource);
+        }
+
+        final BundleResourceProvider provider = mock(BundleResourceProvider.class);
+        when(provider.getBundle()).thenReturn(bundle);
+        when(provider.getMappedPath()).thenReturn(PathMapping.getRoots("/libs/a")[0]);
+        when(provider.getObservationReporter()).thenReturn(reporter);
+        when(provider.getResource(any(ResolveContext.class), eq("/libs/a"), any(ResourceContext.class),
+                any(Resource.class))).thenReturn(root);
+        when(provider.listChildren(any(ResolveContext.class), eq(root))).thenReturn(childResources.iterator());
+        for (final Resource child : childResources) {
+            when(provider.listChildren(any(ResolveContext.class), eq(child)))
+                    .thenReturn(Collections.<Resource>emptyIterator());
+        }
+        when(provider.visitResourcePaths(any(BundleResourceProvider.PathVisitor.class))).thenAnswer(
+                new Answer<Integer>() {
+                    @Override
+                    public Integer answer(final InvocationOnMock invocation) {
+                        final BundleResourceProvider.PathVisitor visitor =
+                                (BundleResourceProvider.PathVisitor) invocation.getArguments()[0];
+                        visitor.visit(root.getPath(), true);
+                        for (final Resource child : childResources) {
+                            visitor.visit(child.getPath(), false);
+                        }
+                        return childResources.size() + 1;
+                    }
+                });
+        return provider;
+    }
+
+    /**
+     * Returns a provider blocking the reporting thread until released.
+     */
+    private static BundleResourceProvider blocking(final CountDownLatch started, final CountDownLatch release) {
+        final BundleResourceProvider blocking = provider(1, null);
+        when(blocking.getMappedPath()).thenAnswer(new Answer<PathMapping>() {
+            @Override
+            public PathMapping answer(final InvocationOnMock invocation) throws InterruptedException {
+                if (Thread.currentThread().getName().equals("Bundle Resource Change Reporter")) {
+                    started.countDown();
+                    release.await();
+                }
+                return PathMapping.getRoots("/libs/blocking")[0];
+            }
+        });
+        return blocking;
+    }
+
+    /**
+     * Returns a reporter recording the changes as "TYPE path".
+     */
+    private static ObservationReporter recorder(final List<String> changes, final CountDownLatch reported) {
+        final ObservationReporter reporter = mock(ObservationReporter.class);
+        doAnswer(new Answer<Void>() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public Void answer(final InvocationOnMock invocation) {
+                for (final ResourceChange change : (List<ResourceChange>) invocation.getArguments()[0]) {
+                    changes.add(change.getType() + " " + change.getPath());
+                }
+                reported.countDown();
+                return null;
+            }
+        }).when(reporter).reportChanges(anyListOf(ResourceChange.class), eq(false));
+        return reporter;
+    }
+
+    /**
+     * Returns an action recording the release of a removed provider as "RELEASED".
+     */
+    private static Runnable released(final List<String> changes) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                changes.add("RELEASED");
+            }
+        };
+    }
+
+    @Test
+    public void testBatches() {
+        final List<List<String>> batches = new ArrayList<>();
+        final ObservationReporter reporter = mock(ObservationReporter.class);
+        doAnswer(new Answer<Void>() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public Void answer(final InvocationOnMock invocation) {
+                final List<String> paths = new ArrayList<>();
+                for (final ResourceChange change : (List<ResourceChange>) invocation.getArguments()[0]) {
+                    paths.add(change.getPath());
+                }
+                batches.add(paths);
+                return null;
+            }
+        }).when(reporter).reportChanges(anyListOf(ResourceChange.class), eq(false));
+
+        final ResourceChangeReporter changeReporter = new ResourceChangeReporter(2);
+        changeReporter.reportResourceChanges(provider(1, reporter), ChangeType.ADDED, null);
+        changeReporter.close();
+
+        assertEquals(Arrays.asList(Arrays.asList("/libs/a", "/libs/a/b"), Collections.singletonList("/libs/a/c")),
+                batches);
+    }
+
+    @Test
+    public void testCoalesced() throws InterruptedException {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+
+        final ResourceChangeReporter changeReporter = new ResourceChangeReporter();
+        changeReporter.reportResourceChanges(blocking(started, release), ChangeType.ADDED, null);
+        started.await();
+
+        // provider added and removed again before reporting
+        final ObservationReporter added = mock(ObservationReporter.class);
+        final BundleResourceProvider provider = provider(1, added);
+        final List<String> released = new ArrayList<>();
+        changeReporter.reportResourceChanges(provider, ChangeType.ADDED, null);
+        changeReporter.reportResourceChanges(provider, ChangeType.REMOVED, null);
+        changeReporter.runAfterRemoval(provider, released(released));
+
+        // bundle restarted without changes
+        final ObservationReporter removed = mock(ObservationReporter.class);
+        final ObservationReporter restarted = mock(ObservationReporter.class);
+        final BundleResourceProvider stopped = provider(2, removed);
+        changeReporter.reportResourceChanges(stopped, ChangeType.REMOVED, null);
+        changeReporter.runAfterRemoval(stopped, released(released));
+        changeReporter.reportResourceChanges(provider(2, restarted), ChangeType.ADDED, null);
+
+        // bundle updated
+        final ObservationReporter old = mock(ObservationReporter.class);
+        final ObservationReporter updated = mock(ObservationReporter.class);
+        final BundleResourceProvider replaced = provider(3, old);
+        changeReporter.reportResourceChanges(replaced, ChangeType.REMOVED, null);
+        changeReporter.runAfterRemoval(replaced, released(released));
+        changeReporter.reportResourceChanges(provider(4, updated), ChangeType.ADDED, null);
+
+        release.countDown();
+        changeReporter.close();
+
+        // the removed providers are released whether their removals have been reported or not
+        assertEquals(Arrays.asList("RELEASED", "RELEASED", "RELEASED"), released);
+
+        verify(added, never()).reportChanges(anyListOf(ResourceChange.class), eq(false));
+        verify(removed, never()).reportChanges(anyListOf(ResourceChange.class), eq(false));
+        verify(restarted, never()).reportChanges(anyListOf(ResourceChange.class), eq(false));
+        verify(old).reportChanges(anyListOf(ResourceChange.class), eq(false));
+        verify(updated).reportChanges(anyListOf(ResourceChange.class), eq(false));
+    }
+
+    @Test
+    public void testRemovalReportedInBackground() throws InterruptedException {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+
+        final ResourceChangeReporter changeReporter = new ResourceChangeReporter();
+        changeReporter.reportResourceChanges(blocking(started, release), ChangeType.ADDED, null);
+        started.await();
+
+        // as on unregistering the provider, which must not wait for its resources to be visited
+        final List<String> changes = new ArrayList<>();
+        final BundleResourceProvider provider = provider(1, recorder(changes, new CountDownLatch(1)));
+        changeReporter.reportResourceChanges(provider, ChangeType.REMOVED, null);
+        changeReporter.runAfterRemoval(provider, released(changes));
+        verify(provider, never()).visitResourcePaths(any(BundleResourceProvider.PathVisitor.class));
+        assertEquals(Collections.<String>emptyList(), changes);
+
+        release.countDown();
+        changeReporter.close();
+
+        // the provider is released once its resources have been reported
+        assertEquals(Arrays.asList("REMOVED /libs/a", "REMOVED /libs/a/b", "REMOVED /libs/a/c", "RELEASED"),
+                changes);
+    }
+
+    @Test
+    public void testDiff() throws InterruptedException {
+        final ResourceChangeReporter changeReporter = new ResourceChangeReporter(1000, true, 60000);
+
+        final List<String> added = new ArrayList<>();
+        final CountDownLatch addedReported = new CountDownLatch(1);
+        final BundleResourceProvider provider = provider(1, recorder(added, addedReported), "b=1", "c=1", "d");
+        changeReporter.reportResourceChanges(provider, ChangeType.ADDED, null);
+        addedReported.await();
+        assertEquals(Arrays.asList("ADDED /libs/a", "ADDED /libs/a/b", "ADDED /libs/a/c", "ADDED /libs/a/d"), added);
+        // added resources are reported without taking a snapshot
+        verify(provider, never()).listChildren(any(ResolveContext.class), any(Resource.class));
+
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        changeReporter.reportResourceChanges(blocking(started, release), ChangeType.ADDED, null);
+        started.await();
+
+        // bundle updated within the grace period, the snapshot is taken in the background
+        final List<String> updated = new ArrayList<>();
+        changeReporter.reportResourceChanges(provider, ChangeType.REMOVED, null);
+        changeReporter.reportResourceChanges(provider(2, recorder(updated, new CountDownLatch(1)), "b=1", "c=2", "e"),
+                ChangeType.ADDED, null);
+        verify(provider, never()).getResource(any(ResolveContext.class), any(String.class),
+                any(ResourceContext.class), any(Resource.class));
+        verify(provider, never()).listChildren(any(ResolveContext.class), any(Resource.class));
+
+        release.countDown();
+        changeReporter.close();
+
+        assertEquals(Arrays.asList("CHANGED /libs/a/c", "ADDED /libs/a/e", "REMOVED /libs/a/d"), updated);
+        assertEquals(4, added.size());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testDeepTree() {
+        final int depth = 20000;
+        final ResourceResolver resolver = mock(ResourceResolver.class);
+        final Bundle bundle = mock(Bundle.class);
+        final BundleResourceProvider provider = mock(BundleResourceProvider.class);
+        when(provider.getBundle()).thenReturn(bundle);
+        when(provider.getMappedPath()).thenReturn(PathMapping.getRoots("/libs/a")[0]);
+        when(provider.getResource(any(ResolveContext.class), eq("/libs/a"), any(ResourceContext.class),
+                any(Resource.class))).thenReturn(new SyntheticResource(resolver, "/libs/a/x0", null));
+        when(provider.listChildren(any(ResolveContext.class), any(Resource.class))).thenAnswer(
+                new Answer<Iterator<Resource>>() {
+                    @Override
+                    public Iterator<Resource> answer(final InvocationOnMock invocation) {
+                        // the paths only name the level to keep them short
+                        final String path = ((Resource) invocation.getArguments()[1]).getPath();
+                        if (!path.startsWith("/libs/a/x")) {
+                            return Collections.<Resource>emptyIterator();
+                        }
+                        final int level = Integer.parseInt(path.substring("/libs/a/x".length()));
+                        if (level == depth) {
+                            return Collections.<Resource>emptyIterator();
+                        }
+                        // a file and a folder per level
+                        return Arrays.<Resource>asList(new SyntheticResource(resolver, "/libs/a/f" + level, null),
+                                new SyntheticResource(resolver, "/libs/a/x" + (level + 1), null)).iterator();
+                    }
+                });
+
+        final List<String> changes = new ArrayList<>();
+        final ObservationReporter reporter = recorder(changes, new CountDownLatch(1));
+        when(provider.getObservationReporter()).thenReturn(reporter);
+
+        // snapshots are taken from the resources on removal
+        final ResourceChangeReporter changeReporter = new ResourceChangeReporter(100, true, 0);
+        changeReporter.reportResourceChanges(provider, ChangeType.REMOVED, null);
+        changeReporter.close();
+
+        assertEquals(2 * depth + 1, changes.size());
+        assertEquals(Arrays.asList("REMOVED /libs/a/x0", "REMOVED /libs/a/f0", "REMOVED /libs/a/x1",
+                "REMOVED /libs/a/f1"), changes.subList(0, 4));
+        assertEquals("REMOVED /libs/a/x" + depth, changes.get(2 * depth));
+    }
+}